@@ -0,0 +1,315 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.agent.manager;
+
+import com.flowci.core.agent.dao.AgentHostDao;
+import com.flowci.core.agent.domain.AgentHost;
+import com.flowci.core.agent.event.AgentStatusEvent;
+import com.flowci.core.agent.service.AgentHostService;
+import com.flowci.core.common.config.ConfigProperties;
+import com.flowci.core.common.helper.ThreadHelper;
+import com.flowci.core.job.dao.JobDao;
+import com.flowci.core.job.domain.Job;
+import com.flowci.core.job.event.NoIdleAgentEvent;
+import com.flowci.domain.Agent;
+import com.flowci.tree.Selector;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Start agents on hosts by num of jobs waiting for agent
+ * - queued jobs are counted and grouped by agent tags on each round, including jobs behind others in flow queue
+ * - agents to start = queued jobs - idle agents - agents starting but not online yet
+ * - agents are started on matched hosts in parallel, one start task per host at a time
+ * - idle agents will be stopped by host collect after host max idle seconds if no job waiting for them
+ *
+ * @author yang
+ */
+@Log4j2
+@Component
+public class AgentAutoScaler implements AutoCloseable {
+
+    @Autowired
+    private ConfigProperties.AutoScale autoScaleProperties;
+
+    @Autowired
+    private AgentHostDao agentHostDao;
+
+    @Autowired
+    private AgentHostService agentHostService;
+
+    @Autowired
+    private IdleAgentManager idleAgentManager;
+
+    @Autowired
+    private JobDao jobDao;
+
+    // key as agent tags, value as num of queued jobs, refreshed on each round
+    private volatile Map<Set<String>, Integer> demands = Collections.emptyMap();
+
+    // key as agent id, value as starting agent
+    private final Map<String, Starting> starting = new ConcurrentHashMap<>();
+
+    // key as host id, value as num of agents requested to start
+    private final Map<String, Requested> requested = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean scaling = new AtomicBoolean(false);
+
+    private ThreadPoolTaskExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        int workers = autoScaleProperties.getWorkers();
+        executor = ThreadHelper.createTaskExecutor(workers, workers, 100, "agent-scale-");
+    }
+
+    @EventListener
+    public void onNoIdleAgent(NoIdleAgentEvent event) {
+        scale();
+    }
+
+    @EventListener
+    public void onAgentStatusChange(AgentStatusEvent event) {
+        Agent agent = event.getAgent();
+        if (agent.getStatus() != Agent.Status.OFFLINE) {
+            starting.remove(agent.getId());
+        }
+    }
+
+    /**
+     * Check whether there is job waiting for the agent
+     */
+    public boolean hasDemand(Agent agent) {
+        for (Set<String> tags : demands.keySet()) {
+            if (IdleAgentManager.isMatched(tags, agent)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Scheduled(fixedDelayString = "${app.auto-scale.interval-in-millis}")
+    public void scheduleScale() {
+        scale();
+    }
+
+    /**
+     * Trigger scaling in background, it will be ignored if it's already in progress
+     */
+    public void scale() {
+        if (!scaling.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    doScale();
+                } catch (Throwable e) {
+                    log.warn("Unable to scale agents: {}", e.getMessage());
+                } finally {
+                    scaling.set(false);
+                }
+            });
+        } catch (Throwable e) {
+            scaling.set(false);
+            log.warn("Unable to start agent scaling: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private void doScale() {
+        removeTimeoutStarting();
+
+        Map<Set<String>, Integer> demands = countQueuedJobs();
+        this.demands = demands;
+
+        for (Map.Entry<Set<String>, Integer> entry : demands.entrySet()) {
+            Set<String> tags = entry.getKey();
+            int num = entry.getValue() - idleAgentManager.find(tags).size() - numOfStarting(tags);
+
+            if (num <= 0) {
+                continue;
+            }
+
+            List<AgentHost> hosts = findAvailableHosts(tags);
+            if (hosts.isEmpty()) {
+                log.warn("Unable to find available agent host for tags {}", tags);
+                continue;
+            }
+
+            log.info("Start {} agents for {} queued jobs with tags {}", num, entry.getValue(), tags);
+            distribute(hosts, num);
+        }
+    }
+
+    /**
+     * Num of queued jobs grouped by agent tags
+     */
+    private Map<Set<String>, Integer> countQueuedJobs() {
+        Map<Set<String>, Integer> counts = new HashMap<>();
+
+        for (Job job : jobDao.findAgentSelectorByStatus(Job.Status.QUEUED)) {
+            Selector selector = job.getAgentSelector();
+            Set<String> tags = Objects.isNull(selector) || Objects.isNull(selector.getTags())
+                    ? Collections.emptySet()
+                    : selector.getTags();
+            counts.merge(tags, 1, Integer::sum);
+        }
+
+        return counts;
+    }
+
+    /**
+     * Spread agents to start over hosts, start on each host in parallel
+     */
+    private void distribute(List<AgentHost> hosts, int num) {
+        int[] nums = new int[hosts.size()];
+        for (int i = 0; i < num; i++) {
+            nums[i % hosts.size()]++;
+        }
+
+        for (int i = 0; i < hosts.size(); i++) {
+            if (nums[i] == 0) {
+                continue;
+            }
+
+            AgentHost host = hosts.get(i);
+            Requested item = new Requested(host.getTags(), nums[i]);
+
+            if (requested.putIfAbsent(host.getId(), item) != null) {
+                continue;
+            }
+
+            try {
+                executor.execute(() -> startOnHost(host, item));
+            } catch (Throwable e) {
+                requested.remove(host.getId());
+                log.warn("Unable to start agents on host {}: {}", host.getName(), e.getMessage());
+            }
+        }
+    }
+
+    private void startOnHost(AgentHost host, Requested item) {
+        try {
+            List<Agent> started = agentHostService.start(host, item.num);
+            long now = System.currentTimeMillis();
+
+            for (Agent agent : started) {
+                starting.put(agent.getId(), new Starting(agent, now));
+            }
+
+            log.info("{} of {} agents been started on host {}", started.size(), item.num, host.getName());
+        } finally {
+            requested.remove(host.getId());
+        }
+    }
+
+    /**
+     * Hosts matched tags and not starting agents
+     */
+    private List<AgentHost> findAvailableHosts(Set<String> tags) {
+        List<AgentHost> hosts = tags.isEmpty() ? agentHostDao.findAll() : agentHostDao.findAllByTagsIn(tags);
+        List<AgentHost> available = new ArrayList<>(hosts.size());
+
+        for (AgentHost host : hosts) {
+            if (requested.containsKey(host.getId())) {
+                continue;
+            }
+
+            available.add(host);
+        }
+
+        return available;
+    }
+
+    private int numOfStarting(Set<String> tags) {
+        int num = 0;
+
+        for (Starting item : starting.values()) {
+            if (IdleAgentManager.isMatched(tags, item.agent)) {
+                num++;
+            }
+        }
+
+        for (Requested item : requested.values()) {
+            if (isMatched(tags, item.hostTags)) {
+                num += item.num;
+            }
+        }
+
+        return num;
+    }
+
+    private void removeTimeoutStarting() {
+        long timeout = System.currentTimeMillis() - autoScaleProperties.getStartTimeoutSeconds() * 1000;
+        starting.values().removeIf(item -> item.startedAt < timeout);
+    }
+
+    private static boolean isMatched(Set<String> tags, Set<String> hostTags) {
+        if (tags.isEmpty()) {
+            return true;
+        }
+
+        for (String tag : hostTags) {
+            if (tags.contains(tag)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static class Starting {
+
+        private final Agent agent;
+
+        private final long startedAt;
+
+        Starting(Agent agent, long startedAt) {
+            this.agent = agent;
+            this.startedAt = startedAt;
+        }
+    }
+
+    private static class Requested {
+
+        private final Set<String> hostTags;
+
+        private final int num;
+
+        Requested(Set<String> hostTags, int num) {
+            this.hostTags = hostTags;
+            this.num = num;
+        }
+    }
+}
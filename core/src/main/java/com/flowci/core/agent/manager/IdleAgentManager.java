@@ -0,0 +1,300 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.agent.manager;
+
+import com.flowci.domain.Agent;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * In memory index of idle agents, keyed by agent tag
+ * - agent will be indexed when status changed to IDLE, and removed for other status
+ * - a waiter will be assigned an agent directly if agent available, otherwise queued up
+ * - a newly idle agent will be handed to the first waiter with matched tags
+ *
+ * @author yang
+ */
+@Log4j2
+@Component
+public class IdleAgentManager {
+
+    private final Object lock = new Object();
+
+    // key as agent id
+    private final Map<String, Agent> idle = new LinkedHashMap<>();
+
+    // key as agent tag, value as agent id set
+    private final Map<String, Set<String>> tagIndex = new HashMap<>();
+
+    private final LinkedList<Waiter> waiters = new LinkedList<>();
+
+    /**
+     * Update index from agent status
+     */
+    public void onStatusChange(Agent agent) {
+        if (!agent.isIdle()) {
+            remove(agent.getId());
+            return;
+        }
+
+        synchronized (lock) {
+            removeFromIndex(agent.getId());
+
+            Iterator<Waiter> iterator = waiters.iterator();
+            while (iterator.hasNext()) {
+                Waiter waiter = iterator.next();
+                if (waiter.isMatched(agent)) {
+                    iterator.remove();
+                    waiter.assign(agent);
+                    log.debug("Idle agent {} been assigned to waiter directly", agent.getName());
+                    return;
+                }
+            }
+
+            idle.put(agent.getId(), agent);
+            for (String tag : agent.getTags()) {
+                tagIndex.computeIfAbsent(tag, k -> new HashSet<>()).add(agent.getId());
+            }
+        }
+    }
+
+    public void remove(String agentId) {
+        synchronized (lock) {
+            removeFromIndex(agentId);
+        }
+    }
+
+    /**
+     * Find idle agents from index
+     *
+     * @param tags agent tags, any agent matched if empty
+     */
+    public List<Agent> find(Set<String> tags) {
+        synchronized (lock) {
+            if (Objects.isNull(tags) || tags.isEmpty()) {
+                return new ArrayList<>(idle.values());
+            }
+
+            Set<String> ids = new LinkedHashSet<>();
+            for (String tag : tags) {
+                ids.addAll(tagIndex.getOrDefault(tag, Collections.emptySet()));
+            }
+
+            List<Agent> list = new ArrayList<>(ids.size());
+            for (String id : ids) {
+                list.add(idle.get(id));
+            }
+            return list;
+        }
+    }
+
+    /**
+     * Take an idle agent out of index without waiting
+     *
+     * @param tags agent tags, any agent matched if empty
+     */
+    public Optional<Agent> take(Set<String> tags) {
+        synchronized (lock) {
+            for (Agent agent : idle.values()) {
+                if (isMatched(tags, agent)) {
+                    removeFromIndex(agent.getId());
+                    return Optional.of(agent);
+                }
+            }
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Take one of the given agents out of index if it's idle, in order of given agent ids
+     *
+     * @param tags     agent tags, any agent matched if empty
+     * @param agentIds agent ids in order of preference
+     */
+    public Optional<Agent> take(Set<String> tags, Collection<String> agentIds) {
+        synchronized (lock) {
+            for (String agentId : agentIds) {
+                Agent agent = idle.get(agentId);
+
+                if (agent != null && isMatched(tags, agent)) {
+                    removeFromIndex(agentId);
+                    return Optional.of(agent);
+                }
+            }
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Take an idle agent from index to the waiter if it's available,
+     * otherwise put the waiter to queue until an agent become idle
+     *
+     * @param tags agent tags, any agent matched if empty
+     */
+    public Waiter acquire(Set<String> tags) {
+        return acquire(tags, Collections.emptySet());
+    }
+
+    /**
+     * Same as acquire(tags) but only the given agents can be assigned
+     *
+     * @param agentIds agent ids, any agent matched if empty
+     */
+    public Waiter acquire(Set<String> tags, Collection<String> agentIds) {
+        Waiter waiter = new Waiter(tags, agentIds);
+
+        synchronized (lock) {
+            Optional<Agent> agent = agentIds.isEmpty() ? take(tags) : take(tags, agentIds);
+            if (agent.isPresent()) {
+                waiter.assign(agent.get());
+                return waiter;
+            }
+
+            waiters.add(waiter);
+            return waiter;
+        }
+    }
+
+    /**
+     * Remove waiter from queue and wake it up
+     */
+    public void cancel(Waiter waiter) {
+        synchronized (lock) {
+            waiters.remove(waiter);
+        }
+        waiter.wakeup();
+    }
+
+    public boolean isEmpty() {
+        synchronized (lock) {
+            return idle.isEmpty();
+        }
+    }
+
+    public int waiting() {
+        synchronized (lock) {
+            return waiters.size();
+        }
+    }
+
+    static boolean isMatched(Set<String> tags, Agent agent) {
+        if (Objects.isNull(tags) || tags.isEmpty()) {
+            return true;
+        }
+
+        for (String tag : agent.getTags()) {
+            if (tags.contains(tag)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void removeFromIndex(String agentId) {
+        Agent removed = idle.remove(agentId);
+        if (Objects.isNull(removed)) {
+            return;
+        }
+
+        for (String tag : removed.getTags()) {
+            Set<String> ids = tagIndex.get(tag);
+            if (Objects.isNull(ids)) {
+                continue;
+            }
+
+            ids.remove(agentId);
+            if (ids.isEmpty()) {
+                tagIndex.remove(tag);
+            }
+        }
+    }
+
+    public class Waiter {
+
+        @Getter
+        private final Set<String> tags;
+
+        // any agent matched if empty
+        private final Set<String> agentIds;
+
+        private Agent agent;
+
+        private boolean awake;
+
+        Waiter(Set<String> tags, Collection<String> agentIds) {
+            this.tags = Objects.isNull(tags) ? Collections.emptySet() : tags;
+            this.agentIds = new HashSet<>(agentIds);
+        }
+
+        public synchronized boolean isAssigned() {
+            return agent != null;
+        }
+
+        /**
+         * Wait until agent assigned, timeout or cancelled
+         */
+        public Optional<Agent> get(long timeoutInMillis) {
+            long deadline = System.currentTimeMillis() + timeoutInMillis;
+
+            synchronized (this) {
+                while (agent == null && !awake) {
+                    long remain = deadline - System.currentTimeMillis();
+                    if (remain <= 0) {
+                        break;
+                    }
+
+                    try {
+                        this.wait(remain);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+
+            // remove from waiting list, agent may be assigned before removed
+            synchronized (lock) {
+                waiters.remove(this);
+            }
+
+            synchronized (this) {
+                return Optional.ofNullable(agent);
+            }
+        }
+
+        boolean isMatched(Agent agent) {
+            if (!agentIds.isEmpty() && !agentIds.contains(agent.getId())) {
+                return false;
+            }
+            return IdleAgentManager.isMatched(tags, agent);
+        }
+
+        synchronized void assign(Agent agent) {
+            this.agent = agent;
+            this.notifyAll();
+        }
+
+        synchronized void wakeup() {
+            this.awake = true;
+            this.notifyAll();
+        }
+    }
+}
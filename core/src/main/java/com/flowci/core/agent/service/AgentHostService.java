@@ -38,6 +38,13 @@ public interface AgentHostService {
      */
     boolean start(AgentHost host);
 
+    /**
+     * Start num of agents on the host, from stopped, offline and then new created
+     *
+     * @return agents which been started
+     */
+    List<Agent> start(AgentHost host, int num);
+
     /**
      * Sync agents between db and host
      */
@@ -24,6 +24,7 @@ import com.flowci.core.agent.domain.SshAgentHost;
 import com.flowci.core.agent.event.AgentCreatedEvent;
 import com.flowci.core.agent.event.AgentHostStatusEvent;
 import com.flowci.core.agent.event.CreateAgentEvent;
+import com.flowci.core.agent.manager.AgentAutoScaler;
 import com.flowci.core.common.config.ConfigProperties;
 import com.flowci.core.common.helper.CacheHelper;
 import com.flowci.core.common.manager.SessionManager;
@@ -31,8 +32,6 @@ import com.flowci.core.common.manager.SpringEventManager;
 import com.flowci.core.credential.domain.Credential;
 import com.flowci.core.credential.domain.RSACredential;
 import com.flowci.core.credential.event.GetCredentialEvent;
-import com.flowci.core.job.domain.Job;
-import com.flowci.core.job.event.NoIdleAgentEvent;
 import com.flowci.core.user.domain.User;
 import com.flowci.domain.Agent;
 import com.flowci.exception.NotAvailableException;
@@ -109,6 +108,9 @@ public class AgentHostServiceImpl implements AgentHostService {
     @Autowired
     private ThreadPoolTaskExecutor agentHostExecutor;
 
+    @Autowired
+    private AgentAutoScaler agentAutoScaler;
+
     {
         mapping.put(LocalUnixAgentHost.class, new OnLocalSocketHostCreate());
         mapping.put(SshAgentHost.class, new OnSshHostCreate());
@@ -187,10 +189,17 @@ public class AgentHostServiceImpl implements AgentHostService {
 
     @Override
     public boolean start(AgentHost host) {
+        return !start(host, 1).isEmpty();
+    }
+
+    @Override
+    public List<Agent> start(AgentHost host, int num) {
+        List<Agent> started = new LinkedList<>();
+
         Optional<PoolManager<?>> optional = getPoolManager(host);
         if (!optional.isPresent()) {
             log.warn("Fail to get pool manager of host: {}", host.getName());
-            return false;
+            return started;
         }
 
         List<Agent> agents = agentDao.findAllByHostId(host.getId());
@@ -198,11 +207,15 @@ public class AgentHostServiceImpl implements AgentHostService {
 
         // resume from stopped
         for (Agent agent : agents) {
+            if (started.size() == num) {
+                return started;
+            }
+
             if (agent.getStatus() == Agent.Status.OFFLINE) {
                 try {
                     optional.get().resume(agent.getName());
+                    started.add(agent);
                     log.info("Agent {} been resumed", agent.getName());
-                    return true;
                 } catch (DockerPoolException e) {
                     log.warn("Unable to resume agent {}", agent.getName());
                     offline.add(agent);
@@ -212,46 +225,46 @@ public class AgentHostServiceImpl implements AgentHostService {
 
         // re-start from offline
         for (Agent agent : offline) {
-            StartContext context = new StartContext();
-            context.setServerUrl(serverUrl);
-            context.setAgentName(agent.getName());
-            context.setToken(agent.getToken());
+            if (started.size() == num) {
+                return started;
+            }
 
             try {
-                optional.get().start(context);
+                optional.get().start(createStartContext(agent));
+                started.add(agent);
                 log.info("Agent {} been started", agent.getName());
-                return true;
             } catch (DockerPoolException e) {
                 log.warn("Unable to restart agent {}", agent.getName());
             }
         }
 
         // create new agent
-        if (agents.size() < host.getMaxSize()) {
+        int size = agents.size();
+        while (started.size() < num) {
+            if (size >= host.getMaxSize()) {
+                log.warn("Unable to start agent since over the limit size {}", host.getMaxSize());
+                return started;
+            }
+
             String name = String.format("%s-%s", host.getName(), StringHelper.randomString(5));
             CreateAgentEvent syncEvent = new CreateAgentEvent(this, name, host.getTags(), host.getId());
             eventManager.publish(syncEvent);
 
             Agent agent = syncEvent.getCreated();
             eventManager.publish(new AgentCreatedEvent(this, agent, host));
-
-            StartContext context = new StartContext();
-            context.setServerUrl(serverUrl);
-            context.setAgentName(agent.getName());
-            context.setToken(agent.getToken());
+            size++;
 
             try {
-                optional.get().start(context);
+                optional.get().start(createStartContext(agent));
+                started.add(agent);
                 log.info("Agent {} been created and started", name);
-                return true;
             } catch (DockerPoolException e) {
                 log.warn("Unable to start created agent {}", agent.getName());
-                return false;
+                return started;
             }
         }
 
-        log.warn("Unable to start agent since over the limit size {}", host.getMaxSize());
-        return false;
+        return started;
     }
 
     @Override
@@ -283,6 +296,10 @@ public class AgentHostServiceImpl implements AgentHostService {
 
         for (Agent agent : list) {
             if (agent.getStatus() == Agent.Status.IDLE) {
+                if (agentAutoScaler.hasDemand(agent)) {
+                    continue;
+                }
+
                 stopIfTimeout(host, agent);
                 continue;
             }
@@ -344,32 +361,6 @@ public class AgentHostServiceImpl implements AgentHostService {
         syncAgents();
     }
 
-    @EventListener
-    public void onNoIdleAgent(NoIdleAgentEvent event) {
-        Job job = event.getJob();
-        Set<String> agentTags = job.getAgentSelector().getTags();
-
-        List<AgentHost> hosts;
-        if (agentTags.isEmpty()) {
-            hosts = list();
-        } else {
-            hosts = agentHostDao.findAllByTagsIn(agentTags);
-        }
-
-        if (hosts.isEmpty()) {
-            log.warn("Unable to find matched agent host for job {}", job.getId());
-            return;
-        }
-
-        for (AgentHost host : hosts) {
-            if (start(host)) {
-                return;
-            }
-        }
-
-        log.info("Unable to start agent from hosts");
-    }
-
     //====================================================================
     //        %% Private functions
     //====================================================================
@@ -403,6 +394,14 @@ public class AgentHostServiceImpl implements AgentHostService {
         }
     }
 
+    private StartContext createStartContext(Agent agent) {
+        StartContext context = new StartContext();
+        context.setServerUrl(serverUrl);
+        context.setAgentName(agent.getName());
+        context.setToken(agent.getToken());
+        return context;
+    }
+
     private boolean stopIfTimeout(AgentHost host, Agent agent) {
         if (!host.isOverMaxIdleSeconds(agent.getStatusUpdatedAt())) {
             return false;
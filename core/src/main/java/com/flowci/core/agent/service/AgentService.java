@@ -106,7 +106,9 @@ public interface AgentService {
     Agent update(String token, Agent.Resource resource);
 
     /**
-     * Dispatch cmd to agent
+     * Dispatch cmd to agent, and wait for the confirm from agent queue
+     *
+     * @throws com.flowci.exception.NotAvailableException if cmd not confirmed
      */
     void dispatch(CmdIn cmd, Agent agent);
 
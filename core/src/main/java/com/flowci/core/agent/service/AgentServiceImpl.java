@@ -16,22 +16,25 @@
 
 package com.flowci.core.agent.service;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.flowci.core.agent.dao.AgentDao;
 import com.flowci.core.agent.domain.AgentInit;
 import com.flowci.core.agent.event.AgentStatusEvent;
 import com.flowci.core.agent.event.CmdSentEvent;
 import com.flowci.core.agent.event.CreateAgentEvent;
+import com.flowci.core.agent.manager.IdleAgentManager;
 import com.flowci.core.common.config.ConfigProperties;
 import com.flowci.core.common.helper.CipherHelper;
+import com.flowci.core.common.codec.MessageCodec;
+import com.flowci.core.common.manager.MessageCodecManager;
 import com.flowci.core.common.manager.SpringEventManager;
 import com.flowci.core.common.rabbit.RabbitChannelOperation;
+import com.flowci.core.common.rabbit.RabbitPublisher;
 import com.flowci.domain.Agent;
 import com.flowci.domain.Agent.Status;
 import com.flowci.domain.CmdIn;
 import com.flowci.domain.Settings;
 import com.flowci.exception.DuplicateException;
+import com.flowci.exception.NotAvailableException;
 import com.flowci.exception.NotFoundException;
 import com.flowci.util.ObjectsHelper;
 import com.flowci.zookeeper.ZookeeperClient;
@@ -69,6 +72,9 @@ public class AgentServiceImpl implements AgentService {
     @Autowired
     private ConfigProperties.Zookeeper zkProperties;
 
+    @Autowired
+    private ConfigProperties.RabbitMQ rabbitProperties;
+
     @Autowired
     private ZookeeperClient zk;
 
@@ -78,6 +84,12 @@ public class AgentServiceImpl implements AgentService {
     @Autowired
     private RabbitChannelOperation agentQueueManager;
 
+    @Autowired
+    private RabbitPublisher rabbitPublisher;
+
+    @Autowired
+    private IdleAgentManager idleAgentManager;
+
     @Autowired
     private SpringEventManager eventManager;
 
@@ -85,7 +97,7 @@ public class AgentServiceImpl implements AgentService {
     private Settings baseSettings;
 
     @Autowired
-    private ObjectMapper objectMapper;
+    private MessageCodecManager messageCodecManager;
 
     @PostConstruct
     private void init() {
@@ -166,6 +178,7 @@ public class AgentServiceImpl implements AgentService {
     public Agent delete(String token) {
         Agent agent = getByToken(token);
         agentDao.delete(agent);
+        idleAgentManager.remove(agent.getId());
         log.debug("{} has been deleted", agent);
         return agent;
     }
@@ -175,6 +188,7 @@ public class AgentServiceImpl implements AgentService {
         Agent agent = getByToken(token);
         agent.setTags(tags);
         agentDao.save(agent);
+        idleAgentManager.onStatusChange(agent);
         return agent;
     }
 
@@ -199,6 +213,9 @@ public class AgentServiceImpl implements AgentService {
             return true;
         } catch (ZookeeperException e) {
             log.debug(e);
+
+            // agent was taken out of idle index, put it back if it's still idle
+            agentDao.findById(agent.getId()).ifPresent(idleAgentManager::onStatusChange);
             return false;
         }
     }
@@ -246,7 +263,9 @@ public class AgentServiceImpl implements AgentService {
         agent.setTags(tags);
 
         try {
-            return agentDao.save(agent);
+            agentDao.save(agent);
+            idleAgentManager.onStatusChange(agent);
+            return agent;
         } catch (DuplicateKeyException e) {
             throw new DuplicateException("Agent name {0} is already defined", name);
         }
@@ -262,13 +281,22 @@ public class AgentServiceImpl implements AgentService {
 
     @Override
     public void dispatch(CmdIn cmd, Agent agent) {
+        MessageCodec codec = messageCodecManager.getCmdCodec();
+        byte[] body;
+
         try {
-            byte[] body = objectMapper.writeValueAsBytes(cmd);
-            agentQueueManager.send(agent.getQueueName(), body);
-            eventManager.publish(new CmdSentEvent(this, agent, cmd));
-        } catch (JsonProcessingException e) {
-            e.printStackTrace();
+            body = codec.encode(cmd);
+        } catch (IOException e) {
+            throw new NotAvailableException("Unable to encode cmd {0}: {1}", cmd.getId(), e.getMessage());
+        }
+
+        // wait for confirm, the job will be failed by caller if cmd not sent
+        long timeout = rabbitProperties.getPublishTimeoutInMillis();
+        if (!rabbitPublisher.send(agent.getQueueName(), codec.getContentType(), body, timeout)) {
+            throw new NotAvailableException("Cmd {0} not confirmed by queue of agent {1}", cmd.getId(), agent.getName());
         }
+
+        eventManager.publish(new CmdSentEvent(this, agent, cmd));
     }
 
     @EventListener
@@ -320,6 +348,7 @@ public class AgentServiceImpl implements AgentService {
             Status status = getStatusFromZk(agent);
             agent.setStatus(status);
             agentDao.save(agent);
+            idleAgentManager.onStatusChange(agent);
             syncLockNode(agent, Type.CHILD_ADDED);
         }
     }
@@ -350,6 +379,7 @@ public class AgentServiceImpl implements AgentService {
             log.warn("Unable to update status on zk node: {}", e.getMessage());
         } finally {
             agentDao.save(agent);
+            idleAgentManager.onStatusChange(agent);
             eventManager.publish(new AgentStatusEvent(this, agent));
         }
     }
@@ -428,6 +458,15 @@ public class AgentServiceImpl implements AgentService {
                 return;
             }
 
+            // agent status changed from zk, drop it from idle index if it's not idle anymore
+            if (event.getType() == Type.CHILD_UPDATED) {
+                byte[] data = event.getData().getData();
+                if (Objects.nonNull(data) && data.length > 0 && Status.fromBytes(data) != Status.IDLE) {
+                    idleAgentManager.remove(agentId);
+                }
+                return;
+            }
+
             if (event.getType() == Type.CONNECTION_RECONNECTED) {
                 Status status = getStatusFromZk(agent);
                 updateAgentStatus(agent, status);
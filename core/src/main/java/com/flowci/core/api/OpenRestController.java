@@ -20,13 +20,16 @@ package com.flowci.core.api;
 import com.flowci.core.api.domain.AddStatsItem;
 import com.flowci.core.api.domain.CreateJobArtifact;
 import com.flowci.core.api.domain.CreateJobReport;
+import com.flowci.core.api.domain.LinkJobArtifact;
 import com.flowci.core.api.service.OpenRestService;
 import com.flowci.core.credential.domain.Credential;
 import com.flowci.core.credential.domain.RSACredential;
 import com.flowci.core.flow.domain.StatsCounter;
 import com.flowci.core.user.domain.User;
+import com.flowci.store.AsyncFileManager;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -48,6 +51,9 @@ public class OpenRestController {
     @Autowired
     private OpenRestService openRestService;
 
+    @Autowired
+    private AsyncFileManager asyncFileManager;
+
     @GetMapping("/credential/{name}")
     public Credential getCredential(@PathVariable String name) {
         Credential credential = openRestService.getCredential(name);
@@ -80,19 +86,35 @@ public class OpenRestController {
     }
 
     @PostMapping("/flow/{name}/job/{number}/report")
-    public void uploadJobReport(@PathVariable String name,
-                                @PathVariable long number,
-                                @Validated @RequestPart("body") CreateJobReport meta,
-                                @RequestPart("file") MultipartFile file) {
-
-        openRestService.saveJobReport(name, number, meta, file);
+    public CompletableFuture<Void> uploadJobReport(@PathVariable String name,
+                                                   @PathVariable long number,
+                                                   @Validated @RequestPart("body") CreateJobReport meta,
+                                                   @RequestPart("file") MultipartFile file) {
+        return asyncFileManager.submit(() -> {
+            openRestService.saveJobReport(name, number, meta, file);
+            return null;
+        });
     }
 
     @PostMapping("/flow/{name}/job/{number}/artifact")
-    public void uploadJobArtifact(@PathVariable String name,
-                                  @PathVariable long number,
-                                  @Validated @RequestPart("body") CreateJobArtifact meta,
-                                  @RequestPart("file") MultipartFile file) {
-        openRestService.saveJobArtifact(name, number, meta, file);
+    public CompletableFuture<Void> uploadJobArtifact(@PathVariable String name,
+                                                     @PathVariable long number,
+                                                     @Validated @RequestPart("body") CreateJobArtifact meta,
+                                                     @RequestPart("file") MultipartFile file) {
+        return asyncFileManager.submit(() -> {
+            openRestService.saveJobArtifact(name, number, meta, file);
+            return null;
+        });
+    }
+
+    /**
+     * Create artifact without uploading if file with the same md5 was uploaded,
+     * returns false if the file should be uploaded
+     */
+    @PostMapping("/flow/{name}/job/{number}/artifact/link")
+    public boolean linkJobArtifact(@PathVariable String name,
+                                   @PathVariable long number,
+                                   @Validated @RequestBody LinkJobArtifact meta) {
+        return openRestService.linkJobArtifact(name, number, meta);
     }
 }
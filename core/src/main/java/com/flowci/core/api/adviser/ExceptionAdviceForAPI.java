@@ -26,6 +26,8 @@ import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
+import java.util.concurrent.RejectedExecutionException;
+
 /**
  * @author yang
  */
@@ -39,6 +41,13 @@ public class ExceptionAdviceForAPI {
         return new ResponseMessage<>(e.getCode(), e.getMessage(), null);
     }
 
+    @ResponseBody
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseMessage<Object> rejectedException(RejectedExecutionException e) {
+        return new ResponseMessage<>(StatusCode.FATAL, "Too many file operations, please retry later", null);
+    }
+
     @ResponseBody
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     @ExceptionHandler(Throwable.class)
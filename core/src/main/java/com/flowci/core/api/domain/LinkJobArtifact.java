@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.core.api.domain;
+
+import lombok.Data;
+
+import javax.validation.constraints.NotEmpty;
+
+/**
+ * Artifact to be created from file uploaded by other jobs with the same md5
+ */
+@Data
+public class LinkJobArtifact {
+
+    /**
+     * Indicate origin source relevant direction path
+     */
+    private String srcDir;
+
+    @NotEmpty
+    private String md5;
+
+    @NotEmpty
+    private String fileName;
+
+    private String contentType;
+
+    private long contentSize;
+}
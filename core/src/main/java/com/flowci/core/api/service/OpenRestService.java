@@ -19,6 +19,7 @@ package com.flowci.core.api.service;
 
 import com.flowci.core.api.domain.CreateJobArtifact;
 import com.flowci.core.api.domain.CreateJobReport;
+import com.flowci.core.api.domain.LinkJobArtifact;
 import com.flowci.core.credential.domain.Credential;
 import com.flowci.core.flow.domain.StatsCounter;
 import com.flowci.core.user.domain.User;
@@ -48,6 +49,13 @@ public interface OpenRestService {
      */
     void saveJobArtifact(String flowName, long buildNumber, CreateJobArtifact meta, MultipartFile file);
 
+    /**
+     * Create job artifact from file already uploaded with the same md5
+     *
+     * @return false if file not uploaded, the artifact should be uploaded
+     */
+    boolean linkJobArtifact(String flowName, long buildNumber, LinkJobArtifact meta);
+
     /**
      * Add env vars to job context
      */
@@ -19,6 +19,7 @@ package com.flowci.core.api.service;
 
 import com.flowci.core.api.domain.CreateJobArtifact;
 import com.flowci.core.api.domain.CreateJobReport;
+import com.flowci.core.api.domain.LinkJobArtifact;
 import com.flowci.core.common.helper.DateHelper;
 import com.flowci.core.credential.domain.Credential;
 import com.flowci.core.credential.service.CredentialService;
@@ -27,14 +28,12 @@ import com.flowci.core.flow.domain.Flow;
 import com.flowci.core.flow.domain.StatsCounter;
 import com.flowci.core.flow.service.FlowService;
 import com.flowci.core.flow.service.StatsService;
-import com.flowci.core.job.dao.JobDao;
 import com.flowci.core.job.domain.Job;
 import com.flowci.core.job.service.ArtifactService;
+import com.flowci.core.job.service.JobService;
 import com.flowci.core.job.service.ReportService;
-import com.flowci.core.job.util.JobKeyBuilder;
 import com.flowci.core.user.dao.UserDao;
 import com.flowci.core.user.domain.User;
-import com.flowci.exception.NotFoundException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
@@ -48,7 +47,7 @@ public class OpenRestServiceImpl implements OpenRestService {
     private FlowUserDao flowUserDao;
 
     @Autowired
-    private JobDao jobDao;
+    private JobService jobService;
 
     @Autowired
     private UserDao userDao;
@@ -92,6 +91,13 @@ public class OpenRestServiceImpl implements OpenRestService {
         artifactService.save(job, meta.getSrcDir(), meta.getMd5(), file);
     }
 
+    @Override
+    public boolean linkJobArtifact(String flowName, long buildNumber, LinkJobArtifact meta) {
+        Job job = getJob(flowName, buildNumber);
+        return artifactService.link(job, meta.getSrcDir(), meta.getMd5(), meta.getFileName(),
+                meta.getContentType(), meta.getContentSize());
+    }
+
     @Override
     public void addToJobContext(String flowName, long buildNumber, Map<String, String> vars) {
         Job job = getJob(flowName, buildNumber);
@@ -99,7 +105,7 @@ public class OpenRestServiceImpl implements OpenRestService {
         // TODO: verify key value string
 
         job.getContext().putAll(vars);
-        jobDao.save(job);
+        jobService.setJobStatusAndSave(job, job.getStatus(), null);
     }
 
     @Override
@@ -111,13 +117,6 @@ public class OpenRestServiceImpl implements OpenRestService {
 
     private Job getJob(String name, long number) {
         Flow flow = flowService.get(name);
-        String key = JobKeyBuilder.build(flow, number);
-        Optional<Job> optional = jobDao.findByKey(key);
-
-        if (optional.isPresent()) {
-            return optional.get();
-        }
-
-        throw new NotFoundException("Job for flow {0} with build number {1} not found", name, Long.toString(number));
+        return jobService.get(flow, number);
     }
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.flowci.core.common.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.IntFunction;
+
+/**
+ * Read values written by BinaryOutput
+ *
+ * @author yang
+ */
+public final class BinaryInput {
+
+    private final byte[] buffer;
+
+    private int position;
+
+    public BinaryInput(byte[] buffer) {
+        this.buffer = buffer;
+        this.position = 0;
+    }
+
+    public int readByte() throws IOException {
+        if (position >= buffer.length) {
+            throw new EOFException("Unexpected end of binary message");
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    public Boolean readBoolean() throws IOException {
+        int value = readByte();
+        return value == 0 ? null : value == 2;
+    }
+
+    public Integer readInt() throws IOException {
+        Long value = readLong();
+        return value == null ? null : value.intValue();
+    }
+
+    public Long readLong() throws IOException {
+        long value = readVarLong();
+        if (value == 0) {
+            return null;
+        }
+
+        value = value - 1;
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public Date readDate() throws IOException {
+        Long value = readLong();
+        return value == null ? null : new Date(value);
+    }
+
+    public <E extends Enum<E>> E readEnum(E[] values) throws IOException {
+        Integer ordinal = readInt();
+        if (ordinal == null) {
+            return null;
+        }
+
+        if (ordinal < 0 || ordinal >= values.length) {
+            throw new IOException("Illegal enum ordinal " + ordinal);
+        }
+        return values[ordinal];
+    }
+
+    public String readString() throws IOException {
+        int length = readSize();
+        if (length < 0) {
+            return null;
+        }
+
+        if (length > buffer.length - position) {
+            throw new EOFException("Unexpected end of binary message");
+        }
+
+        String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    /**
+     * Read strings into collection created with size
+     */
+    public <C extends Collection<String>> C readStrings(IntFunction<C> factory) throws IOException {
+        int size = readSize();
+        if (size < 0) {
+            return null;
+        }
+
+        C values = factory.apply(size);
+        for (int i = 0; i < size; i++) {
+            values.add(readString());
+        }
+        return values;
+    }
+
+    /**
+     * Read string pairs into map created with size
+     */
+    public <M extends Map<String, String>> M readStringMap(IntFunction<M> factory) throws IOException {
+        int size = readSize();
+        if (size < 0) {
+            return null;
+        }
+
+        M values = factory.apply(size);
+        for (int i = 0; i < size; i++) {
+            values.put(readString(), readString());
+        }
+        return values;
+    }
+
+    /**
+     * Read length prefix, -1 for null
+     */
+    public int readSize() throws IOException {
+        long size = readVarLong() - 1;
+        if (size < -1 || size > Integer.MAX_VALUE) {
+            throw new IOException("Illegal size " + size);
+        }
+        return (int) size;
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed var int");
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.flowci.core.common.codec;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact binary codec, only registered types are supported
+ * - message starts with magic byte, format version and type tag, followed by fields written by serializer
+ * - fields are written in fixed order without names, serializer must append new fields to the end
+ *
+ * @author yang
+ */
+public class BinaryMessageCodec implements MessageCodec {
+
+    public static final String ContentType = "application/x-flowci-binary";
+
+    private static final int Magic = 0xFC;
+
+    private static final int Version = 1;
+
+    private static final int InitBufferSize = 256;
+
+    public interface Serializer<T> {
+
+        void write(BinaryOutput out, T value) throws IOException;
+
+        T read(BinaryInput in) throws IOException;
+    }
+
+    private final Map<Class<?>, Registration<?>> byType = new ConcurrentHashMap<>();
+
+    private final Map<Integer, Registration<?>> byTag = new ConcurrentHashMap<>();
+
+    /**
+     * Register serializer of type with unique tag, the tag must not be changed since it's part of the message
+     */
+    public <T> BinaryMessageCodec register(int tag, Class<T> type, Serializer<T> serializer) {
+        Registration<T> registration = new Registration<>(tag, type, serializer);
+
+        if (byTag.putIfAbsent(tag, registration) != null) {
+            throw new IllegalArgumentException("Binary codec tag " + tag + " has been registered");
+        }
+
+        byType.put(type, registration);
+        return this;
+    }
+
+    public boolean isSupported(Class<?> type) {
+        return byType.containsKey(type);
+    }
+
+    @Override
+    public String getContentType() {
+        return ContentType;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public byte[] encode(Object value) throws IOException {
+        Registration<Object> registration = (Registration<Object>) byType.get(value.getClass());
+        if (registration == null) {
+            throw new IOException("Binary codec not registered for " + value.getClass().getName());
+        }
+
+        BinaryOutput out = new BinaryOutput(InitBufferSize);
+        out.writeByte(Magic).writeByte(Version).writeByte(registration.tag);
+        registration.serializer.write(out, value);
+        return out.toByteArray();
+    }
+
+    @Override
+    public <T> T decode(byte[] body, Class<T> type) throws IOException {
+        BinaryInput in = new BinaryInput(body);
+
+        if (in.readByte() != Magic) {
+            throw new IOException("Not a binary message");
+        }
+
+        int version = in.readByte();
+        if (version != Version) {
+            throw new IOException("Unsupported binary message version " + version);
+        }
+
+        int tag = in.readByte();
+        Registration<?> registration = byTag.get(tag);
+        if (registration == null || !type.isAssignableFrom(registration.type)) {
+            throw new IOException("Binary message with tag " + tag + " cannot be decoded to " + type.getName());
+        }
+
+        return type.cast(registration.serializer.read(in));
+    }
+
+    private static class Registration<T> {
+
+        private final int tag;
+
+        private final Class<T> type;
+
+        private final Serializer<T> serializer;
+
+        Registration(int tag, Class<T> type, Serializer<T> serializer) {
+            this.tag = tag;
+            this.type = type;
+            this.serializer = serializer;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.flowci.core.common.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Write values in compact binary format
+ * - int and long are written as zigzag var int, null value takes one byte
+ * - string, collection and map are written with length prefix, 0 for null
+ *
+ * @author yang
+ */
+public final class BinaryOutput {
+
+    private final ByteArrayOutputStream out;
+
+    public BinaryOutput(int initSize) {
+        this.out = new ByteArrayOutputStream(initSize);
+    }
+
+    public byte[] toByteArray() {
+        return out.toByteArray();
+    }
+
+    public BinaryOutput writeByte(int value) {
+        out.write(value);
+        return this;
+    }
+
+    public BinaryOutput writeBoolean(Boolean value) {
+        out.write(value == null ? 0 : (value ? 2 : 1));
+        return this;
+    }
+
+    public BinaryOutput writeInt(Integer value) {
+        return writeLong(value == null ? null : value.longValue());
+    }
+
+    public BinaryOutput writeLong(Long value) {
+        if (value == null) {
+            writeVarLong(0);
+            return this;
+        }
+
+        // shift by one to reserve 0 for null
+        writeVarLong(((value << 1) ^ (value >> 63)) + 1);
+        return this;
+    }
+
+    public BinaryOutput writeDate(Date value) {
+        return writeLong(value == null ? null : value.getTime());
+    }
+
+    public BinaryOutput writeEnum(Enum<?> value) {
+        return writeInt(value == null ? null : value.ordinal());
+    }
+
+    public BinaryOutput writeString(String value) {
+        if (value == null) {
+            writeVarLong(0);
+            return this;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length + 1);
+        out.write(bytes, 0, bytes.length);
+        return this;
+    }
+
+    public BinaryOutput writeStrings(Collection<String> values) {
+        if (values == null) {
+            writeVarLong(0);
+            return this;
+        }
+
+        writeVarLong(values.size() + 1);
+        for (String value : values) {
+            writeString(value);
+        }
+        return this;
+    }
+
+    public BinaryOutput writeStringMap(Map<String, String> values) {
+        if (values == null) {
+            writeVarLong(0);
+            return this;
+        }
+
+        writeVarLong(values.size() + 1);
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            writeString(entry.getKey());
+            writeString(entry.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * Write length prefix of collection, -1 for null
+     */
+    public BinaryOutput writeSize(int size) {
+        writeVarLong(size + 1);
+        return this;
+    }
+
+    private void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.flowci.core.common.codec;
+
+import com.flowci.domain.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Binary serializers of cmd sent to agent and executed cmd from callback
+ *
+ * @author yang
+ */
+public final class CmdSerializers {
+
+    public static final int CmdInTag = 1;
+
+    public static final int ExecutedCmdTag = 2;
+
+    public static final BinaryMessageCodec.Serializer<CmdIn> CmdInSerializer = new BinaryMessageCodec.Serializer<CmdIn>() {
+
+        @Override
+        public void write(BinaryOutput out, CmdIn cmd) throws IOException {
+            out.writeString(cmd.getId())
+                    .writeBoolean(cmd.getAllowFailure())
+                    .writeString(cmd.getPlugin())
+                    .writeEnum(cmd.getType())
+                    .writeStrings(cmd.getScripts())
+                    .writeString(cmd.getWorkDir())
+                    .writeInt(cmd.getTimeout())
+                    .writeStringMap(cmd.getInputs())
+                    .writeStrings(cmd.getEnvFilters())
+                    .writeSize(cmd.getCmds().size());
+
+            for (CmdIn child : cmd.getCmds()) {
+                write(out, child);
+            }
+        }
+
+        @Override
+        public CmdIn read(BinaryInput in) throws IOException {
+            CmdIn cmd = new CmdIn();
+            cmd.setId(in.readString());
+            cmd.setAllowFailure(in.readBoolean());
+            cmd.setPlugin(in.readString());
+            cmd.setType(in.readEnum(CmdType.values()));
+            cmd.setScripts(in.readStrings(ArrayList::new));
+            cmd.setWorkDir(in.readString());
+            cmd.setTimeout(in.readInt());
+            cmd.setInputs(in.readStringMap(StringVars::new));
+            cmd.setEnvFilters(in.readStrings(HashSet::new));
+
+            int size = in.readSize();
+            List<CmdIn> cmds = new LinkedList<>();
+            for (int i = 0; i < size; i++) {
+                cmds.add(read(in));
+            }
+            cmd.setCmds(cmds);
+
+            return cmd;
+        }
+    };
+
+    public static final BinaryMessageCodec.Serializer<ExecutedCmd> ExecutedCmdSerializer = new BinaryMessageCodec.Serializer<ExecutedCmd>() {
+
+        @Override
+        public void write(BinaryOutput out, ExecutedCmd cmd) {
+            CmdId cmdId = cmd.getCmdId();
+
+            out.writeString(cmd.getId())
+                    .writeBoolean(cmd.getAllowFailure())
+                    .writeString(cmd.getPlugin())
+                    .writeString(cmd.getFlowId())
+                    .writeLong(cmd.getBuildNumber())
+                    .writeInt(cmd.getProcessId())
+                    .writeEnum(cmd.getStatus())
+                    .writeInt(cmd.getCode())
+                    .writeStringMap(cmd.getOutput())
+                    .writeDate(cmd.getStartAt())
+                    .writeDate(cmd.getFinishAt())
+                    .writeString(cmd.getError())
+                    .writeLong(cmd.getLogSize())
+                    .writeString(cmdId == null ? null : cmdId.getJobId())
+                    .writeString(cmdId == null ? null : cmdId.getNodePath());
+        }
+
+        @Override
+        public ExecutedCmd read(BinaryInput in) throws IOException {
+            ExecutedCmd cmd = new ExecutedCmd();
+            cmd.setId(in.readString());
+            cmd.setAllowFailure(in.readBoolean());
+            cmd.setPlugin(in.readString());
+            cmd.setFlowId(in.readString());
+            cmd.setBuildNumber(in.readLong());
+            cmd.setProcessId(in.readInt());
+            cmd.setStatus(in.readEnum(ExecutedCmd.Status.values()));
+            cmd.setCode(in.readInt());
+            cmd.setOutput(in.readStringMap(StringVars::new));
+            cmd.setStartAt(in.readDate());
+            cmd.setFinishAt(in.readDate());
+            cmd.setError(in.readString());
+            cmd.setLogSize(in.readLong());
+
+            String jobId = in.readString();
+            String nodePath = in.readString();
+            if (jobId != null || nodePath != null) {
+                cmd.setCmdId(new CmdId(jobId, nodePath));
+            }
+
+            return cmd;
+        }
+    };
+
+    private CmdSerializers() {
+
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.common.codec;
+
+import java.io.IOException;
+
+/**
+ * Encode and decode queue message body, the codec is identified by the content type of message
+ *
+ * @author yang
+ */
+public interface MessageCodec {
+
+    String getContentType();
+
+    byte[] encode(Object value) throws IOException;
+
+    <T> T decode(byte[] body, Class<T> type) throws IOException;
+}
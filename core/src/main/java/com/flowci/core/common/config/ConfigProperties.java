@@ -74,6 +74,12 @@ public class ConfigProperties {
         return new Job();
     }
 
+    @Bean("autoScaleProperties")
+    @ConfigurationProperties(prefix = "app.auto-scale")
+    public AutoScale autoScale() {
+        return new AutoScale();
+    }
+
     @Bean("pluginProperties")
     @ConfigurationProperties(prefix = "app.plugin")
     public Plugin plugin() {
@@ -98,6 +104,12 @@ public class ConfigProperties {
         return new Minio();
     }
 
+    @Bean("fileIoProperties")
+    @ConfigurationProperties(prefix = "app.file-io")
+    public FileIO fileIO() {
+        return new FileIO();
+    }
+
     @Data
     @Validated
     public static class Admin {
@@ -118,6 +130,87 @@ public class ConfigProperties {
         private Long expireInSeconds; // job queue up timeout
 
         private Long retryWaitingSeconds;
+
+        // dispatch jobs from central scheduler instead of blocking flow queue consumer
+        private boolean schedulerEnabled;
+
+        private Integer schedulerWorkers;
+
+        // num of shared channels for flow job queues
+        private Integer queueChannels;
+
+        // deactivate flow job queue consumer after idle
+        private Long queueIdleSeconds;
+
+        // interval to write running job and step state to db
+        private Long flushIntervalInMillis;
+
+        // num of unacked callbacks could be received from callback queue
+        private Integer callbackConcurrency;
+
+        // num of threads to handle callbacks, callbacks of the same job go to the same thread
+        private Integer callbackStripes;
+
+        // max num of steps sent to agent in one batch cmd, batch disabled if it's 1
+        private Integer stepBatchSize;
+
+        // max time to wait for agent which recently ran the flow before using any idle agent
+        private Long affinityWaitSeconds;
+
+        // interval to push buffered log lines to web socket
+        private Long logPushIntervalInMillis;
+
+        // max num of log lines in one web socket frame
+        private Integer logPushBatchSize;
+
+        // policy for log lines of cmd without subscriber, 'drop' or 'sample'
+        private String logPushUnsubscribed;
+
+        // keep one of num of lines if policy is 'sample'
+        private Integer logPushSampleRate;
+
+        // interval to append buffered log lines of running steps to segments
+        private Long logFlushIntervalInMillis;
+
+        // max size of log segment file
+        private Long logSegmentMaxBytes;
+
+        // num of lines between entries of sparse line index
+        private Integer logIndexInterval;
+
+        // remove log segments of step not written for hours
+        private Long logSegmentExpireHours;
+
+        // raw size of independently compressed block of uploaded log
+        private Integer logBlockSize;
+
+        // num of threads to scan step logs for log search
+        private Integer logSearchWorkers;
+
+        // max num of matches returned by log search
+        private Integer logSearchMaxMatches;
+
+        // max time of log search
+        private Long logSearchTimeoutInSeconds;
+
+        // max num of recent log lines of each step kept in memory for late subscriber
+        private Integer logRecentLines;
+
+        // max memory of recent log lines of all steps
+        private Long logRecentMaxBytes;
+    }
+
+    @Data
+    public static class AutoScale {
+
+        // interval to check queued jobs and start agents
+        private Long intervalInMillis;
+
+        // num of threads to start agents on hosts
+        private Integer workers;
+
+        // agent is not counted as starting if not online within the seconds
+        private Long startTimeoutSeconds;
     }
 
     @Data
@@ -160,6 +253,27 @@ public class ConfigProperties {
         private String jobDlQueue; // job dead letter queue
 
         private String jobDlExchange; // job dead letter exchange
+
+        // num of channels to publish messages with confirms
+        private Integer publishChannels;
+
+        // max num of messages published on a channel in one batch
+        private Integer publishBatchSize;
+
+        // max time to wait for confirm of sync publish
+        private Long publishTimeoutInMillis;
+
+        // codec of cmd sent to agent, 'json' or 'binary'
+        private String cmdCodec;
+
+        // codec of message in flow job queue, 'json' or 'binary'
+        private String jobCodec;
+
+        // max num of unacked log messages, prefetch adjusted by load under the limit
+        private Integer loggingPrefetchMax;
+
+        // flow job queues and job dead letter queue on in process broker instead of rabbitmq, for single node
+        private Boolean inProcess;
     }
 
     @Data
@@ -186,5 +300,30 @@ public class ConfigProperties {
         private String key;
 
         private String secret;
+
+        // max num of concurrent stream uploads, each of them buffers one part in memory
+        private Integer maxUploads;
+
+        // cache objects read from minio on local disk
+        private Boolean cacheEnabled;
+
+        // max size of objects cached on local disk
+        private Long cacheMaxBytes;
+
+        // objects larger than it are streamed from minio without caching
+        private Long cacheMaxObjectBytes;
+
+        // time to cache existence of objects
+        private Long cacheMetaTtlInSeconds;
+    }
+
+    @Data
+    public static class FileIO {
+
+        // num of threads to run blocking file manager calls from async requests
+        private Integer workers;
+
+        // max num of pending file operations, rejected when queue is full
+        private Integer queueSize;
     }
 }
@@ -16,9 +16,9 @@
 
 package com.flowci.core.common.config;
 
+import com.flowci.core.common.helper.StripedExecutor;
 import com.flowci.core.common.helper.ThreadHelper;
-import com.flowci.core.common.rabbit.RabbitChannelOperation;
-import com.flowci.core.common.rabbit.RabbitQueueOperation;
+import com.flowci.core.common.rabbit.*;
 import com.flowci.util.StringHelper;
 import com.rabbitmq.client.BuiltinExchangeType;
 import com.rabbitmq.client.Channel;
@@ -46,6 +46,9 @@ public class QueueConfig {
     @Autowired
     private ConfigProperties.RabbitMQ rabbitProperties;
 
+    @Autowired
+    private ConfigProperties.Job jobProperties;
+
     @Bean
     public ThreadPoolTaskExecutor rabbitConsumerExecutor() {
         return ThreadHelper.createTaskExecutor(10, 10, 50, "rabbit-t-");
@@ -63,9 +66,14 @@ public class QueueConfig {
     }
 
     @Bean
-    public RabbitQueueOperation callbackQueueManager(Connection rabbitConnection) throws IOException {
+    public RabbitQueueOperation callbackQueueManager(Connection rabbitConnection,
+                                                     StripedExecutor jobCallbackExecutor) throws IOException {
         String name = rabbitProperties.getCallbackQueue();
-        RabbitQueueOperation manager = new RabbitQueueOperation(rabbitConnection, 10, name);
+        Integer concurrency = jobProperties.getCallbackConcurrency();
+        RabbitQueueOperation manager = new RabbitQueueOperation(rabbitConnection, concurrency, name);
+
+        // callbacks are handed over to the striped executor, prefetch follows the stripes
+        manager.enableAdaptivePrefetch(jobProperties.getCallbackStripes(), concurrency, jobCallbackExecutor::saturation);
         manager.declare(true);
         return manager;
     }
@@ -76,6 +84,7 @@ public class QueueConfig {
         String exchange = rabbitProperties.getLoggingExchange();
 
         RabbitQueueOperation manager = new RabbitQueueOperation(rabbitConnection, 10, name);
+        manager.enableAdaptivePrefetch(1, rabbitProperties.getLoggingPrefetchMax());
         manager.declare(false);
 
         Channel channel = manager.getChannel();
@@ -86,10 +95,23 @@ public class QueueConfig {
     }
 
     @Bean
-    public RabbitQueueOperation deadLetterQueueManager(Connection rabbitConnection) throws IOException {
+    public InMemoryBroker inMemoryBroker() {
+        return new InMemoryBroker();
+    }
+
+    @Bean
+    public QueueOperation deadLetterQueueManager(Connection rabbitConnection, InMemoryBroker inMemoryBroker)
+            throws IOException {
         String name = rabbitProperties.getJobDlQueue();
         String exchange = rabbitProperties.getJobDlExchange();
 
+        if (rabbitProperties.getInProcess()) {
+            InMemoryQueueOperation manager = new InMemoryQueueOperation(inMemoryBroker, 1, name);
+            manager.declare(name, true);
+            inMemoryBroker.bind(name, exchange, JobDlRoutingKey);
+            return manager;
+        }
+
         RabbitQueueOperation manager = new RabbitQueueOperation(rabbitConnection, 1, name);
         manager.declare(true);
 
@@ -102,6 +124,13 @@ public class QueueConfig {
         return manager;
     }
 
+    @Bean
+    public RabbitPublisher rabbitPublisher(Connection rabbitConnection) {
+        int channels = rabbitProperties.getPublishChannels();
+        int batchSize = rabbitProperties.getPublishBatchSize();
+        return new RabbitPublisher(rabbitConnection, channels, batchSize, "rabbit-publisher");
+    }
+
     @Bean
     public RabbitChannelOperation agentQueueManager(Connection rabbitConnection) throws IOException {
         return new RabbitChannelOperation(rabbitConnection, 1, "agent-channel-mgr");
@@ -16,6 +16,9 @@
 
 package com.flowci.core.common.config;
 
+import com.flowci.core.common.helper.ThreadHelper;
+import com.flowci.store.AsyncFileManager;
+import com.flowci.store.CachingFileManager;
 import com.flowci.store.FileManager;
 import com.flowci.store.LocalFileManager;
 import com.flowci.store.MinioFileManager;
@@ -23,16 +26,23 @@ import com.flowci.util.FileHelper;
 import io.minio.MinioClient;
 import io.minio.errors.InvalidEndpointException;
 import io.minio.errors.InvalidPortException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import javax.annotation.PostConstruct;
 import java.io.IOException;
 import java.net.URL;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 
 @Configuration
 public class StorageConfig {
@@ -43,6 +53,9 @@ public class StorageConfig {
     @Autowired
     private ConfigProperties.Minio minioProperties;
 
+    @Autowired
+    private ConfigProperties.FileIO fileIoProperties;
+
     @PostConstruct
     private void initFlowDir() throws IOException {
         Path path = appProperties.getFlowDir();
@@ -51,8 +64,18 @@ public class StorageConfig {
 
     @Bean("fileManager")
     @ConditionalOnProperty(name = "app.minio.enabled", havingValue = "true")
-    public FileManager minioFileManager(MinioClient client) {
-        return new MinioFileManager(client, minioProperties.getBucket());
+    public FileManager minioFileManager(MinioClient client) throws IOException {
+        FileManager minio = new MinioFileManager(client, minioProperties.getBucket(), minioProperties.getMaxUploads());
+
+        if (!minioProperties.getCacheEnabled()) {
+            return minio;
+        }
+
+        Path cacheDir = Paths.get(appProperties.getWorkspace().toString(), "cache");
+        long maxBytes = minioProperties.getCacheMaxBytes();
+        long maxObjectBytes = minioProperties.getCacheMaxObjectBytes();
+        long metaTtl = minioProperties.getCacheMetaTtlInSeconds();
+        return new CachingFileManager(minio, cacheDir, maxBytes, maxObjectBytes, metaTtl);
     }
 
     @Bean
@@ -69,4 +92,34 @@ public class StorageConfig {
     public FileManager localFileManager() {
         return new LocalFileManager(appProperties.getFlowDir());
     }
+
+    @Bean("fileIoExecutor")
+    public ThreadPoolTaskExecutor fileIoExecutor() {
+        int workers = fileIoProperties.getWorkers();
+        int queueSize = fileIoProperties.getQueueSize();
+        return ThreadHelper.createTaskExecutor(workers, workers, queueSize, "file-io-");
+    }
+
+    @Bean("asyncFileManager")
+    public AsyncFileManager asyncFileManager(FileManager fileManager) {
+        return new AsyncFileManager(fileManager, fileIoExecutor());
+    }
+
+    @Bean
+    public MeterBinder fileIoMetrics(AsyncFileManager asyncFileManager) {
+        return registry -> {
+            new ExecutorServiceMetrics(fileIoExecutor().getThreadPoolExecutor(), "file-io", Tags.empty()).bindTo(registry);
+
+            FunctionCounter.builder("file.io.submitted", asyncFileManager, AsyncFileManager::getSubmitted)
+                    .register(registry);
+            FunctionCounter.builder("file.io.completed", asyncFileManager, AsyncFileManager::getCompleted)
+                    .register(registry);
+            FunctionCounter.builder("file.io.failed", asyncFileManager, AsyncFileManager::getFailed)
+                    .register(registry);
+            FunctionCounter.builder("file.io.rejected", asyncFileManager, AsyncFileManager::getRejected)
+                    .register(registry);
+            Gauge.builder("file.io.in.flight", asyncFileManager, AsyncFileManager::getInFlight)
+                    .register(registry);
+        };
+    }
 }
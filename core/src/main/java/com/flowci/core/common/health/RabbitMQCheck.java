@@ -17,6 +17,8 @@
 
 package com.flowci.core.common.health;
 
+import com.flowci.core.common.rabbit.RabbitOperation;
+import com.flowci.core.common.rabbit.RabbitQueueOperation;
 import com.rabbitmq.client.Connection;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.actuate.health.AbstractHealthIndicator;
@@ -24,6 +26,7 @@ import org.springframework.boot.actuate.health.Health;
 import org.springframework.boot.actuate.health.Status;
 import org.springframework.stereotype.Component;
 
+import java.util.HashMap;
 import java.util.Map;
 
 @Component
@@ -32,12 +35,29 @@ public class RabbitMQCheck extends AbstractHealthIndicator {
     @Autowired
     private Connection connection;
 
+    @Autowired
+    private RabbitQueueOperation callbackQueueManager;
+
+    @Autowired
+    private RabbitQueueOperation loggingQueueManager;
+
     @Override
     protected void doHealthCheck(Health.Builder builder) {
         Map<String, Object> properties = connection.getServerProperties();
         Status status = connection.isOpen() ? Status.UP : Status.DOWN;
         builder.status(status)
                 .withDetail("address", connection.getAddress())
-                .withDetail("version", properties.get("version").toString());
+                .withDetail("version", properties.get("version").toString())
+                .withDetail("callback", consumerDetail(callbackQueueManager))
+                .withDetail("logging", consumerDetail(loggingQueueManager));
+    }
+
+    private static Map<String, Object> consumerDetail(RabbitQueueOperation operation) {
+        RabbitOperation.QueueConsumer consumer = operation.getConsumer();
+
+        Map<String, Object> detail = new HashMap<>(2);
+        detail.put("prefetch", operation.getPrefetch());
+        detail.put("inFlight", consumer == null ? 0 : consumer.getInFlight());
+        return detail;
     }
 }
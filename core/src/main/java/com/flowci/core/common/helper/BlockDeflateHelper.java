@@ -0,0 +1,238 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.core.common.helper;
+
+import java.io.*;
+import java.util.function.LongConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compress stream to independently deflated blocks, each block could be decompressed from its offset
+ * - block format: int compressed length, int raw length, deflated bytes
+ * - raw content of block i starts at (i * block size), except the last block all blocks are full
+ *
+ * @author yang
+ */
+public class BlockDeflateHelper {
+
+    private static final int HeaderSize = 8;
+
+    /**
+     * Compress the raw stream while reading
+     *
+     * @param onBlock called with offset of each block in compressed stream
+     */
+    public static InputStream compress(InputStream raw, int blockSize, LongConsumer onBlock) {
+        return new DeflateInputStream(raw, blockSize, onBlock);
+    }
+
+    /**
+     * Decompress blocks from the current position of the compressed stream
+     */
+    public static InputStream decompress(InputStream compressed) {
+        return new InflateInputStream(compressed);
+    }
+
+    private static int readFully(InputStream in, byte[] buffer, int len) throws IOException {
+        int total = 0;
+        while (total < len) {
+            int n = in.read(buffer, total, len - total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    private static abstract class BlockInputStream extends InputStream {
+
+        protected byte[] buffer = new byte[0];
+
+        protected int pos = 0;
+
+        protected int limit = 0;
+
+        /**
+         * Load next block to buffer
+         *
+         * @return false if no more block
+         */
+        protected abstract boolean fill() throws IOException;
+
+        @Override
+        public int read() throws IOException {
+            if (pos >= limit && !fill()) {
+                return -1;
+            }
+            return buffer[pos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            if (pos >= limit && !fill()) {
+                return -1;
+            }
+
+            int n = Math.min(len, limit - pos);
+            System.arraycopy(buffer, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return limit - pos;
+        }
+    }
+
+    private static class DeflateInputStream extends BlockInputStream {
+
+        private final InputStream raw;
+
+        private final LongConsumer onBlock;
+
+        private final byte[] block;
+
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+
+        private long offset = 0;
+
+        DeflateInputStream(InputStream raw, int blockSize, LongConsumer onBlock) {
+            this.raw = raw;
+            this.onBlock = onBlock;
+            this.block = new byte[blockSize];
+        }
+
+        @Override
+        protected boolean fill() throws IOException {
+            int n = readFully(raw, block, block.length);
+            if (n == 0) {
+                return false;
+            }
+
+            deflater.reset();
+            deflater.setInput(block, 0, n);
+            deflater.finish();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(n / 4 + HeaderSize);
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(0); // placeholder of compressed length
+            header.writeInt(n);
+
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                int len = deflater.deflate(chunk);
+                out.write(chunk, 0, len);
+            }
+
+            buffer = out.toByteArray();
+            writeInt(buffer, buffer.length - HeaderSize);
+
+            onBlock.accept(offset);
+            offset += buffer.length;
+
+            pos = 0;
+            limit = buffer.length;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            deflater.end();
+            raw.close();
+        }
+
+        private static void writeInt(byte[] bytes, int value) {
+            bytes[0] = (byte) (value >>> 24);
+            bytes[1] = (byte) (value >>> 16);
+            bytes[2] = (byte) (value >>> 8);
+            bytes[3] = (byte) value;
+        }
+    }
+
+    private static class InflateInputStream extends BlockInputStream {
+
+        private final DataInputStream compressed;
+
+        private final Inflater inflater = new Inflater();
+
+        private byte[] input = new byte[0];
+
+        InflateInputStream(InputStream compressed) {
+            this.compressed = new DataInputStream(compressed);
+        }
+
+        @Override
+        protected boolean fill() throws IOException {
+            int first = compressed.read();
+            if (first < 0) {
+                return false;
+            }
+
+            int compressedLen = (first << 24) | (compressed.readUnsignedByte() << 16)
+                    | (compressed.readUnsignedByte() << 8) | compressed.readUnsignedByte();
+            int rawLen = compressed.readInt();
+
+            if (input.length < compressedLen) {
+                input = new byte[compressedLen];
+            }
+            compressed.readFully(input, 0, compressedLen);
+
+            if (buffer.length < rawLen) {
+                buffer = new byte[rawLen];
+            }
+
+            inflater.reset();
+            inflater.setInput(input, 0, compressedLen);
+
+            try {
+                int n = 0;
+                while (n < rawLen && !inflater.finished()) {
+                    int len = inflater.inflate(buffer, n, rawLen - n);
+                    if (len == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new EOFException("Incomplete deflate block");
+                    }
+                    n += len;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Invalid deflate block", e);
+            }
+
+            pos = 0;
+            limit = rawLen;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            compressed.close();
+        }
+    }
+
+    private BlockDeflateHelper() {
+
+    }
+}
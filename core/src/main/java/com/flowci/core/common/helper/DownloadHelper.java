@@ -0,0 +1,189 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.core.common.helper;
+
+import com.flowci.store.FileContent;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.util.StreamUtils;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Write file content to http response with single range and If-Range support,
+ * invalid range is ignored and whole content is sent as RFC 7233,
+ * local file is sent by tomcat sendfile if supported, or transferred by file channel
+ *
+ * @author yang
+ */
+public abstract class DownloadHelper {
+
+    private static final String SendfileSupport = "org.apache.tomcat.sendfile.support";
+
+    private static final String SendfileName = "org.apache.tomcat.sendfile.filename";
+
+    private static final String SendfileStart = "org.apache.tomcat.sendfile.start";
+
+    private static final String SendfileEnd = "org.apache.tomcat.sendfile.end";
+
+    public static void write(FileContent content,
+                             String fileName,
+                             HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"");
+
+        // content still growing, send all without length
+        if (!content.hasLength()) {
+            try (InputStream stream = content.read()) {
+                StreamUtils.copy(stream, response.getOutputStream());
+            }
+            return;
+        }
+
+        long length = content.getLength();
+        long start = 0;
+        long end = length - 1;
+
+        String etag = content.getEtag() == null ? null : "\"" + content.getEtag() + "\"";
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (etag != null) {
+            response.setHeader(HttpHeaders.ETAG, etag);
+        }
+        if (content.getLastModified() != FileContent.UnknownLastModified) {
+            response.setDateHeader(HttpHeaders.LAST_MODIFIED, content.getLastModified());
+        }
+
+        HttpRange range = getRange(request, content, etag);
+        if (range != null && length > 0) {
+            start = range.getRangeStart(length);
+            end = range.getRangeEnd(length);
+
+            if (start > end || start >= length) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                response.sendError(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                return;
+            }
+
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+        }
+
+        long numOfBytes = end - start + 1;
+        response.setContentLengthLong(numOfBytes);
+
+        if (numOfBytes <= 0) {
+            return;
+        }
+
+        if (content.getFile() != null) {
+            // sent by container from file to socket after the request handled
+            if (Boolean.TRUE.equals(request.getAttribute(SendfileSupport))) {
+                request.setAttribute(SendfileName, content.getFile().toAbsolutePath().toString());
+                request.setAttribute(SendfileStart, start);
+                request.setAttribute(SendfileEnd, end + 1);
+                return;
+            }
+
+            transfer(content, start, numOfBytes, response.getOutputStream());
+            return;
+        }
+
+        try (InputStream stream = content.read(start, numOfBytes)) {
+            StreamUtils.copy(stream, response.getOutputStream());
+        }
+    }
+
+    /**
+     * Get the first range, null if range is invalid or the If-Range not matched,
+     * the whole content should be sent in this case
+     */
+    private static HttpRange getRange(HttpServletRequest request, FileContent content, String etag) {
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null || !isIfRangeMatched(request, content, etag)) {
+            return null;
+        }
+
+        try {
+            // only single range is supported, the first range is sent for multiple ranges
+            List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+            return ranges.isEmpty() ? null : ranges.get(0);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * If-Range matched by strong entity tag, or the exact last modified time in seconds
+     */
+    private static boolean isIfRangeMatched(HttpServletRequest request, FileContent content, String etag) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+
+        if (content.getLastModified() == FileContent.UnknownLastModified) {
+            return false;
+        }
+
+        try {
+            long date = request.getDateHeader(HttpHeaders.IF_RANGE);
+            return date / 1000 == content.getLastModified() / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static void transfer(FileContent content, long start, long count, ServletOutputStream out)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(content.getFile(), StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(out);
+
+            long position = start;
+            long remaining = count;
+
+            while (remaining > 0) {
+                long n = channel.transferTo(position, remaining, target);
+                if (n <= 0) {
+                    break;
+                }
+
+                position += n;
+                remaining -= n;
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.common.helper;
+
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Executor with single thread stripes, tasks with the same key run serially in submit order,
+ * tasks with different keys could run in parallel
+ *
+ * @author yang
+ */
+public class StripedExecutor implements AutoCloseable {
+
+    private final List<ThreadPoolTaskExecutor> stripes;
+
+    private final int queueSize;
+
+    public StripedExecutor(int numOfStripes, int queueSize, String threadNamePrefix) {
+        this.stripes = new ArrayList<>(numOfStripes);
+        this.queueSize = queueSize;
+
+        for (int i = 0; i < numOfStripes; i++) {
+            stripes.add(ThreadHelper.createTaskExecutor(1, 1, queueSize, threadNamePrefix + i + "-"));
+        }
+    }
+
+    public void execute(String key, Runnable task) {
+        int index = Math.abs(key.hashCode() % stripes.size());
+        stripes.get(index).execute(task);
+    }
+
+    public int size() {
+        return stripes.size();
+    }
+
+    /**
+     * Queue usage of the busiest stripe, from 0 to 1
+     */
+    public double saturation() {
+        int max = 0;
+        for (ThreadPoolTaskExecutor stripe : stripes) {
+            max = Math.max(max, stripe.getThreadPoolExecutor().getQueue().size());
+        }
+        return (double) max / queueSize;
+    }
+
+    @Override
+    public void close() {
+        for (ThreadPoolTaskExecutor stripe : stripes) {
+            stripe.shutdown();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.flowci.core.common.manager;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.flowci.core.common.codec.*;
+import com.flowci.core.common.config.ConfigProperties;
+import com.flowci.domain.CmdIn;
+import com.flowci.domain.ExecutedCmd;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Objects;
+
+/**
+ * Codecs of queue messages
+ * - message is encoded by codec configured for the queue, and the content type is set to message
+ * - message is decoded by codec of the content type, json will be used if content type not set
+ *
+ * @author yang
+ */
+@Component
+public class MessageCodecManager {
+
+    public static final String Json = "json";
+
+    public static final String Binary = "binary";
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ConfigProperties.RabbitMQ rabbitProperties;
+
+    private final BinaryMessageCodec binaryCodec = new BinaryMessageCodec();
+
+    private JsonMessageCodec jsonCodec;
+
+    @PostConstruct
+    public void init() {
+        jsonCodec = new JsonMessageCodec(objectMapper);
+        binaryCodec.register(CmdSerializers.CmdInTag, CmdIn.class, CmdSerializers.CmdInSerializer);
+        binaryCodec.register(CmdSerializers.ExecutedCmdTag, ExecutedCmd.class, CmdSerializers.ExecutedCmdSerializer);
+    }
+
+    public BinaryMessageCodec getBinaryCodec() {
+        return binaryCodec;
+    }
+
+    /**
+     * Get codec by content type of message
+     */
+    public MessageCodec get(String contentType) {
+        if (Objects.equals(contentType, BinaryMessageCodec.ContentType)) {
+            return binaryCodec;
+        }
+        return jsonCodec;
+    }
+
+    /**
+     * Codec of cmd sent to agent, json by default since agent may not support binary
+     */
+    public MessageCodec getCmdCodec() {
+        return getByName(rabbitProperties.getCmdCodec());
+    }
+
+    /**
+     * Codec of message in flow job queue
+     */
+    public MessageCodec getJobCodec() {
+        return getByName(rabbitProperties.getJobCodec());
+    }
+
+    private MessageCodec getByName(String name) {
+        return Objects.equals(name, Binary) ? binaryCodec : jsonCodec;
+    }
+}
@@ -0,0 +1,512 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.core.common.rabbit;
+
+import com.flowci.util.StringHelper;
+import com.rabbitmq.client.AMQP;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * In process broker for single node, it has the same semantic as RabbitMQ for server side queues
+ * - messages are ordered by priority then by publish order, priority is limited by max priority of queue
+ * - message expired by 'expiration' property, or rejected without requeue, will be dead lettered
+ * - exchanges are direct exchange, default exchange routes to the queue with the same name as routing key
+ * - messages are delivered to subscribers in round robin, unacked messages are limited by prefetch
+ * - unacked messages are kept and could be acked after subscriber cancelled,
+ * they will be requeued when subscriber closed, as channel closed in RabbitMQ
+ * - messages are not persisted, the durable flag is ignored
+ *
+ * @author yang
+ */
+@Log4j2
+public class InMemoryBroker implements AutoCloseable {
+
+    private static final long SweepIntervalInMillis = 1000;
+
+    // key as queue name
+    private final Map<String, InMemoryQueue> queues = new ConcurrentHashMap<>();
+
+    // key as exchange name, value as bindings of routing key to queue names
+    private final Map<String, Map<String, Set<String>>> exchanges = new ConcurrentHashMap<>();
+
+    private final AtomicLong sequence = new AtomicLong(0);
+
+    private final ThreadPoolTaskScheduler sweeper;
+
+    public InMemoryBroker() {
+        sweeper = new ThreadPoolTaskScheduler();
+        sweeper.setPoolSize(1);
+        sweeper.setThreadNamePrefix("in-memory-broker-");
+        sweeper.setDaemon(true);
+        sweeper.initialize();
+        sweeper.scheduleWithFixedDelay(this::sweep, SweepIntervalInMillis);
+    }
+
+    public String declareQueue(String queue, Integer maxPriority, String dlExchange, String dlRoutingKey) {
+        queues.computeIfAbsent(queue, k -> new InMemoryQueue(k, maxPriority, dlExchange, dlRoutingKey));
+        return queue;
+    }
+
+    public void declareExchange(String exchange) {
+        exchanges.computeIfAbsent(exchange, k -> new ConcurrentHashMap<>());
+    }
+
+    public void bind(String queue, String exchange, String routingKey) {
+        declareExchange(exchange);
+        exchanges.get(exchange).computeIfAbsent(routingKey, k -> ConcurrentHashMap.newKeySet()).add(queue);
+    }
+
+    public boolean deleteQueue(String queue) {
+        InMemoryQueue removed = queues.remove(queue);
+        if (removed == null) {
+            return false;
+        }
+
+        for (Map<String, Set<String>> bindings : exchanges.values()) {
+            bindings.values().forEach(names -> names.remove(queue));
+        }
+
+        removed.cancelAll();
+        return true;
+    }
+
+    public boolean purgeQueue(String queue) {
+        InMemoryQueue q = queues.get(queue);
+        if (q == null) {
+            return false;
+        }
+
+        q.purge();
+        return true;
+    }
+
+    /**
+     * Publish message to exchange, empty exchange name as default exchange
+     *
+     * @return false if no queue routed
+     */
+    public boolean publish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body) {
+        List<InMemoryQueue> routed = route(exchange, routingKey);
+        if (routed.isEmpty()) {
+            return false;
+        }
+
+        for (InMemoryQueue queue : routed) {
+            queue.offer(new Entry(sequence.incrementAndGet(), props, body));
+        }
+
+        return true;
+    }
+
+    /**
+     * Subscribe to queue
+     *
+     * @param deliver called with delivered message, return false if unable to accept
+     * @return null if queue not declared
+     */
+    public Subscription subscribe(String queue, int prefetch, boolean autoAck,
+                                  Function<RabbitOperation.Message, Boolean> deliver) {
+        InMemoryQueue q = queues.get(queue);
+        if (q == null) {
+            return null;
+        }
+
+        Subscription subscription = new Subscription(q, prefetch, autoAck, deliver);
+        q.subscribe(subscription);
+        return subscription;
+    }
+
+    public int size(String queue) {
+        InMemoryQueue q = queues.get(queue);
+        return q == null ? 0 : q.size();
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdown();
+    }
+
+    /**
+     * Dead letter expired messages, and dispatch messages to subscribers which have free prefetch
+     */
+    void sweep() {
+        for (InMemoryQueue queue : queues.values()) {
+            try {
+                queue.expire();
+                queue.dispatch();
+            } catch (Throwable e) {
+                log.warn("Unable to sweep in memory queue {}: {}", queue.name, e.getMessage());
+            }
+        }
+    }
+
+    private List<InMemoryQueue> route(String exchange, String routingKey) {
+        if (!StringHelper.hasValue(exchange)) {
+            InMemoryQueue queue = queues.get(routingKey);
+            return queue == null ? Collections.emptyList() : Collections.singletonList(queue);
+        }
+
+        Map<String, Set<String>> bindings = exchanges.get(exchange);
+        if (bindings == null) {
+            return Collections.emptyList();
+        }
+
+        Set<String> names = bindings.getOrDefault(routingKey, Collections.emptySet());
+        List<InMemoryQueue> routed = new ArrayList<>(names.size());
+        for (String name : names) {
+            InMemoryQueue queue = queues.get(name);
+            if (queue != null) {
+                routed.add(queue);
+            }
+        }
+        return routed;
+    }
+
+    private void deadLetter(InMemoryQueue queue, List<Entry> entries) {
+        if (entries.isEmpty() || queue.dlExchange == null) {
+            return;
+        }
+
+        for (Entry entry : entries) {
+            AMQP.BasicProperties props = entry.props == null ? null : entry.props.builder().expiration(null).build();
+            if (!publish(queue.dlExchange, queue.dlRoutingKey, props, entry.body)) {
+                log.warn("Dead letter of queue {} dropped since no queue bound", queue.name);
+            }
+        }
+    }
+
+    private static int priorityOf(AMQP.BasicProperties props, Integer maxPriority) {
+        if (props == null || props.getPriority() == null || maxPriority == null) {
+            return 0;
+        }
+        return Math.max(0, Math.min(props.getPriority(), maxPriority));
+    }
+
+    private static long expireAtOf(AMQP.BasicProperties props) {
+        if (props == null || props.getExpiration() == null) {
+            return 0;
+        }
+
+        try {
+            return System.currentTimeMillis() + Long.parseLong(props.getExpiration());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static class Entry {
+
+        private final long seq;
+
+        private final AMQP.BasicProperties props;
+
+        private final byte[] body;
+
+        // 0 means never expire
+        private final long expireAt;
+
+        Entry(long seq, AMQP.BasicProperties props, byte[] body) {
+            this.seq = seq;
+            this.props = props;
+            this.body = body;
+            this.expireAt = expireAtOf(props);
+        }
+
+        boolean isExpired(long now) {
+            return expireAt > 0 && expireAt <= now;
+        }
+    }
+
+    private class InMemoryQueue {
+
+        private final String name;
+
+        private final Integer maxPriority;
+
+        private final String dlExchange;
+
+        private final String dlRoutingKey;
+
+        // higher priority first, then publish order
+        private final PriorityQueue<Entry> entries;
+
+        private final List<Subscription> subscriptions = new ArrayList<>();
+
+        private int next = 0;
+
+        InMemoryQueue(String name, Integer maxPriority, String dlExchange, String dlRoutingKey) {
+            this.name = name;
+            this.maxPriority = maxPriority;
+            this.dlExchange = dlExchange;
+            this.dlRoutingKey = dlRoutingKey;
+            this.entries = new PriorityQueue<>(
+                    Comparator.<Entry>comparingInt(e -> -priorityOf(e.props, maxPriority))
+                            .thenComparingLong(e -> e.seq)
+            );
+        }
+
+        void offer(Entry entry) {
+            synchronized (this) {
+                entries.offer(entry);
+            }
+            dispatch();
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized void subscribe(Subscription subscription) {
+            subscriptions.add(subscription);
+        }
+
+        synchronized void unsubscribe(Subscription subscription) {
+            subscriptions.remove(subscription);
+        }
+
+        void requeue(Subscription subscription) {
+            synchronized (this) {
+                entries.addAll(subscription.unacked.values());
+                subscription.unacked.clear();
+            }
+            dispatch();
+        }
+
+        void cancelAll() {
+            List<Subscription> copy;
+            synchronized (this) {
+                copy = new ArrayList<>(subscriptions);
+            }
+            copy.forEach(Subscription::cancel);
+        }
+
+        synchronized void purge() {
+            entries.clear();
+        }
+
+        void ack(Subscription subscription, long seq) {
+            synchronized (this) {
+                if (subscription.unacked.remove(seq) == null) {
+                    return;
+                }
+            }
+            dispatch();
+        }
+
+        void nack(Subscription subscription, long seq, boolean requeue) {
+            Entry entry;
+            synchronized (this) {
+                entry = subscription.unacked.remove(seq);
+                if (entry == null) {
+                    return;
+                }
+
+                if (requeue) {
+                    entries.offer(entry);
+                }
+            }
+
+            if (!requeue) {
+                deadLetter(this, Collections.singletonList(entry));
+            }
+
+            dispatch();
+        }
+
+        void expire() {
+            List<Entry> expired = new LinkedList<>();
+            long now = System.currentTimeMillis();
+
+            synchronized (this) {
+                Iterator<Entry> iterator = entries.iterator();
+                while (iterator.hasNext()) {
+                    Entry entry = iterator.next();
+                    if (entry.isExpired(now)) {
+                        iterator.remove();
+                        expired.add(entry);
+                    }
+                }
+            }
+
+            deadLetter(this, expired);
+        }
+
+        /**
+         * Deliver messages to subscribers until no message or no subscriber has free prefetch,
+         * delivery is outside of the lock since subscriber may ack in the same thread
+         */
+        void dispatch() {
+            List<Entry> expired = new LinkedList<>();
+
+            while (true) {
+                Subscription subscription;
+                Entry entry;
+
+                synchronized (this) {
+                    subscription = nextAvailable();
+                    if (subscription == null) {
+                        break;
+                    }
+
+                    entry = pollUnexpired(expired);
+                    if (entry == null) {
+                        break;
+                    }
+
+                    if (!subscription.autoAck) {
+                        subscription.unacked.put(entry.seq, entry);
+                    }
+                }
+
+                if (subscription.deliver(entry)) {
+                    continue;
+                }
+
+                // not accepted by subscriber, put it back and try later
+                synchronized (this) {
+                    subscription.unacked.remove(entry.seq);
+                    entries.offer(entry);
+                }
+                break;
+            }
+
+            deadLetter(this, expired);
+        }
+
+        private Entry pollUnexpired(List<Entry> expired) {
+            long now = System.currentTimeMillis();
+            Entry entry;
+
+            while ((entry = entries.poll()) != null) {
+                if (!entry.isExpired(now)) {
+                    return entry;
+                }
+                expired.add(entry);
+            }
+
+            return null;
+        }
+
+        private Subscription nextAvailable() {
+            for (int i = 0; i < subscriptions.size(); i++) {
+                Subscription subscription = subscriptions.get(next++ % subscriptions.size());
+                if (subscription.isAvailable()) {
+                    return subscription;
+                }
+            }
+            return null;
+        }
+    }
+
+    public class Subscription {
+
+        private final InMemoryQueue queue;
+
+        private final int prefetch;
+
+        private final boolean autoAck;
+
+        private final Function<RabbitOperation.Message, Boolean> deliver;
+
+        // key as entry seq, guarded by queue lock
+        private final Map<Long, Entry> unacked = new HashMap<>();
+
+        private volatile boolean cancelled = false;
+
+        Subscription(InMemoryQueue queue, int prefetch, boolean autoAck,
+                     Function<RabbitOperation.Message, Boolean> deliver) {
+            this.queue = queue;
+            this.prefetch = prefetch;
+            this.autoAck = autoAck;
+            this.deliver = deliver;
+        }
+
+        /**
+         * Stop delivery, unacked messages are kept until acked or subscription closed
+         */
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+
+            cancelled = true;
+            queue.unsubscribe(this);
+        }
+
+        /**
+         * Cancel and requeue unacked messages
+         */
+        public void close() {
+            cancel();
+            queue.requeue(this);
+        }
+
+        public boolean hasUnacked() {
+            synchronized (queue) {
+                return !unacked.isEmpty();
+            }
+        }
+
+        boolean isAvailable() {
+            return !cancelled && (autoAck || unacked.size() < prefetch);
+        }
+
+        boolean deliver(Entry entry) {
+            return deliver.apply(new InMemoryMessage(this, entry));
+        }
+    }
+
+    private static class InMemoryMessage extends RabbitOperation.Message {
+
+        private final Subscription subscription;
+
+        private final long seq;
+
+        InMemoryMessage(Subscription subscription, Entry entry) {
+            super(null, entry.body, null, entry.props);
+            this.subscription = subscription;
+            this.seq = entry.seq;
+        }
+
+        @Override
+        public boolean sendAck() {
+            if (subscription.autoAck) {
+                return false;
+            }
+
+            subscription.queue.ack(subscription, seq);
+            return true;
+        }
+
+        @Override
+        public boolean sendNack(boolean requeue) {
+            if (subscription.autoAck) {
+                return false;
+            }
+
+            subscription.queue.nack(subscription, seq, requeue);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.core.common.rabbit;
+
+import com.flowci.core.common.config.QueueConfig;
+import com.flowci.core.common.helper.ThreadHelper;
+import com.flowci.util.StringHelper;
+import com.rabbitmq.client.AMQP;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Queue operation on in process broker, messages are consumed by own executor as RabbitOperation
+ * - unacked messages of removed consumer could still be acked, and requeued on close as channel closed
+ *
+ * @author yang
+ */
+@Log4j2
+@Getter
+public class InMemoryQueueOperation implements QueueOperation {
+
+    private static final int QueueSize = 1000;
+
+    private final InMemoryBroker broker;
+
+    private final Integer concurrency;
+
+    private final String name;
+
+    private final ThreadPoolTaskExecutor executor;
+
+    // key as queue name, value as instance
+    private final ConcurrentHashMap<String, InMemoryConsumer> consumers = new ConcurrentHashMap<>();
+
+    // subscriptions of removed consumers which have unacked messages
+    private final Set<InMemoryBroker.Subscription> cancelled = ConcurrentHashMap.newKeySet();
+
+    public InMemoryQueueOperation(InMemoryBroker broker, Integer concurrency, String name) {
+        this.broker = broker;
+        this.concurrency = concurrency;
+        this.name = name;
+        this.executor = ThreadHelper.createTaskExecutor(concurrency, concurrency, QueueSize, name + "-");
+    }
+
+    @Override
+    public String declare(String queue, boolean durable) {
+        return broker.declareQueue(queue, null, null, null);
+    }
+
+    @Override
+    public String declare(String queue, boolean durable, Integer maxPriority, String dlExName) {
+        return broker.declareQueue(queue, maxPriority, dlExName, QueueConfig.JobDlRoutingKey);
+    }
+
+    @Override
+    public boolean delete(String queue) {
+        return broker.deleteQueue(queue);
+    }
+
+    @Override
+    public boolean purge(String queue) {
+        return broker.purgeQueue(queue);
+    }
+
+    @Override
+    public boolean send(String routingKey, byte[] body) {
+        return broker.publish(StringHelper.EMPTY, routingKey, null, body);
+    }
+
+    @Override
+    public boolean send(String routingKey, String contentType, byte[] body, Integer priority, Long expireInSecond) {
+        AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
+                .contentType(contentType)
+                .priority(priority)
+                .expiration(Long.toString(expireInSecond * 1000))
+                .build();
+
+        return broker.publish(StringHelper.EMPTY, routingKey, props, body);
+    }
+
+    @Override
+    public InMemoryConsumer getConsumer(String queue) {
+        return consumers.get(queue);
+    }
+
+    @Override
+    public InMemoryConsumer createConsumer(String queue, Function<RabbitOperation.Message, Boolean> consume) {
+        InMemoryConsumer consumer = new InMemoryConsumer(queue, consume);
+        consumers.put(queue, consumer);
+        return consumer;
+    }
+
+    @Override
+    public boolean removeConsumer(String queue) {
+        InMemoryConsumer consumer = consumers.remove(queue);
+
+        if (Objects.isNull(consumer)) {
+            return false;
+        }
+
+        consumer.cancel();
+        return true;
+    }
+
+    @Override
+    public void close() {
+        consumers.forEach((s, consumer) -> consumer.cancel());
+        cancelled.forEach(InMemoryBroker.Subscription::close);
+        cancelled.clear();
+        executor.shutdown();
+    }
+
+    public class InMemoryConsumer implements MessageConsumer {
+
+        private final String queue;
+
+        private final Function<RabbitOperation.Message, Boolean> consume;
+
+        private final AtomicInteger inFlight = new AtomicInteger(0);
+
+        // null if not started
+        private volatile InMemoryBroker.Subscription subscription;
+
+        InMemoryConsumer(String queue, Function<RabbitOperation.Message, Boolean> consume) {
+            this.queue = queue;
+            this.consume = consume;
+        }
+
+        @Override
+        public String start(boolean autoAck) {
+            subscription = broker.subscribe(queue, concurrency, autoAck, this::deliver);
+
+            if (subscription == null) {
+                log.warn("Unable to consume in memory queue {} since not declared", queue);
+                return null;
+            }
+
+            log.info("[Consumer STARTED] in memory queue {} of {}", queue, name);
+            return name;
+        }
+
+        @Override
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        void cancel() {
+            InMemoryBroker.Subscription current = subscription;
+            if (current == null) {
+                return; // not started
+            }
+
+            consume.apply(RabbitOperation.Message.STOP_SIGN);
+            current.cancel();
+            subscription = null;
+
+            cancelled.removeIf(s -> !s.hasUnacked());
+            if (current.hasUnacked()) {
+                cancelled.add(current);
+            }
+
+            log.info("[Consumer STOP] in memory queue {} of {}", queue, name);
+        }
+
+        private Boolean deliver(RabbitOperation.Message message) {
+            inFlight.incrementAndGet();
+
+            try {
+                executor.execute(() -> {
+                    try {
+                        Boolean ingoreForNow = consume.apply(message);
+                    } finally {
+                        inFlight.decrementAndGet();
+                    }
+                });
+                return true;
+            } catch (RejectedExecutionException e) {
+                inFlight.decrementAndGet();
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.core.common.rabbit;
+
+import java.io.IOException;
+import java.util.function.Function;
+
+/**
+ * Queue operations implemented by RabbitMQ channel or in process broker
+ *
+ * @author yang
+ */
+public interface QueueOperation extends AutoCloseable {
+
+    String declare(String queue, boolean durable) throws IOException;
+
+    /**
+     * Declare queue with max priority, expired or rejected messages will be dead lettered to exchange
+     */
+    String declare(String queue, boolean durable, Integer maxPriority, String dlExName) throws IOException;
+
+    boolean delete(String queue);
+
+    boolean purge(String queue);
+
+    /**
+     * Send to routing key with default exchange
+     */
+    boolean send(String routingKey, byte[] body);
+
+    /**
+     * Send to routing key with default exchange, content type and priority
+     */
+    boolean send(String routingKey, String contentType, byte[] body, Integer priority, Long expireInSecond);
+
+    MessageConsumer getConsumer(String queue);
+
+    MessageConsumer createConsumer(String queue, Function<RabbitOperation.Message, Boolean> consume);
+
+    boolean removeConsumer(String queue);
+
+    interface MessageConsumer {
+
+        /**
+         * Start to consume
+         *
+         * @return consumer tag or null if failure
+         */
+        String start(boolean autoAck);
+
+        /**
+         * Num of messages received but not processed yet
+         */
+        int getInFlight();
+    }
+}
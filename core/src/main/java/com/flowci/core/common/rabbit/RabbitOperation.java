@@ -21,6 +21,7 @@ import com.flowci.core.common.config.QueueConfig;
 import com.flowci.core.common.helper.ThreadHelper;
 import com.flowci.util.StringHelper;
 import com.rabbitmq.client.*;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
@@ -30,11 +31,16 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleSupplier;
 import java.util.function.Function;
 
 @Log4j2
 @Getter
-public abstract class RabbitOperation implements AutoCloseable {
+public abstract class RabbitOperation implements QueueOperation {
+
+    private static final int QueueSize = 1000;
 
     protected final Connection conn;
 
@@ -49,19 +55,57 @@ public abstract class RabbitOperation implements AutoCloseable {
     // key as queue name, value as instance
     protected final ConcurrentHashMap<String, QueueConsumer> consumers = new ConcurrentHashMap<>();
 
+    // null if adaptive prefetch not enabled
+    @Getter(AccessLevel.NONE)
+    private volatile AdaptivePrefetch adaptivePrefetch;
+
     public RabbitOperation(Connection conn, Integer concurrency, String name) throws IOException {
         this.conn = conn;
         this.concurrency = concurrency;
         this.name = name;
         this.channel = conn.createChannel();
         this.channel.basicQos(0, concurrency, false);
-        this.executor = ThreadHelper.createTaskExecutor(concurrency, concurrency, 1000, name + "-");
+        this.executor = ThreadHelper.createTaskExecutor(concurrency, concurrency, QueueSize, name + "-");
+    }
+
+    /**
+     * Adjust prefetch of the channel between min and max by executor saturation and processing latency,
+     * it should be enabled before consumer created
+     */
+    public void enableAdaptivePrefetch(int min, int max) throws IOException {
+        enableAdaptivePrefetch(min, max, null);
+    }
+
+    /**
+     * Adjust prefetch of the channel by saturation of the downstream executor,
+     * for consumer which hands over messages to another executor, the processing latency and rejection
+     * should be reported by 'reportProcessed' and 'reportRejected'
+     *
+     * @param saturation ratio of downstream executor queue usage, from 0 to 1
+     */
+    public void enableAdaptivePrefetch(int min, int max, DoubleSupplier saturation) throws IOException {
+        int initial = Math.max(min, Math.min(max, concurrency));
+
+        // per consumer limit as upper bound, and channel limit will be adjusted
+        this.channel.basicQos(max, false);
+        this.channel.basicQos(initial, true);
+        this.adaptivePrefetch = new AdaptivePrefetch(min, max, initial, saturation);
+    }
+
+    /**
+     * Current prefetch of the channel, or concurrency if adaptive prefetch not enabled
+     */
+    public int getPrefetch() {
+        AdaptivePrefetch adaptive = adaptivePrefetch;
+        return adaptive == null ? concurrency : adaptive.prefetch;
     }
 
+    @Override
     public String declare(String queue, boolean durable) throws IOException {
         return this.channel.queueDeclare(queue, durable, false, false, null).getQueue();
     }
 
+    @Override
     public String declare(String queue, boolean durable, Integer maxPriority, String dlExName) throws IOException {
         Map<String, Object> props = new HashMap<>(1);
         props.put("x-max-priority", maxPriority);
@@ -71,6 +115,7 @@ public abstract class RabbitOperation implements AutoCloseable {
         return this.channel.queueDeclare(queue, durable, false, false, props).getQueue();
     }
 
+    @Override
     public boolean delete(String queue) {
         try {
             this.channel.queueDelete(queue);
@@ -80,6 +125,7 @@ public abstract class RabbitOperation implements AutoCloseable {
         }
     }
 
+    @Override
     public boolean purge(String queue) {
         try {
             this.channel.queuePurge(queue);
@@ -89,9 +135,7 @@ public abstract class RabbitOperation implements AutoCloseable {
         }
     }
 
-    /**
-     * Send to routing key with default exchange
-     */
+    @Override
     public boolean send(String routingKey, byte[] body) {
         try {
             this.channel.basicPublish(StringHelper.EMPTY, routingKey, null, body);
@@ -105,8 +149,14 @@ public abstract class RabbitOperation implements AutoCloseable {
      * Send to routing key with default exchange and priority
      */
     public boolean send(String routingKey, byte[] body, Integer priority, Long expireInSecond) {
+        return send(routingKey, null, body, priority, expireInSecond);
+    }
+
+    @Override
+    public boolean send(String routingKey, String contentType, byte[] body, Integer priority, Long expireInSecond) {
         try {
             AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
+                    .contentType(contentType)
                     .priority(priority)
                     .expiration(Long.toString(expireInSecond * 1000))
                     .build();
@@ -118,16 +168,19 @@ public abstract class RabbitOperation implements AutoCloseable {
         }
     }
 
+    @Override
     public QueueConsumer getConsumer(String queue) {
         return consumers.get(queue);
     }
 
+    @Override
     public QueueConsumer createConsumer(String queue, Function<Message, Boolean> consume) {
         QueueConsumer consumer = new QueueConsumer(queue, consume);
         consumers.put(queue, consumer);
         return consumer;
     }
 
+    @Override
     public boolean removeConsumer(String queue) {
         QueueConsumer consumer = consumers.remove(queue);
 
@@ -150,12 +203,134 @@ public abstract class RabbitOperation implements AutoCloseable {
         executor.shutdown();
     }
 
-    public class QueueConsumer extends DefaultConsumer {
+    /**
+     * Report latency of message processed by downstream executor, from hand over to finish
+     */
+    public void reportProcessed(long latencyInNanos) {
+        AdaptivePrefetch adaptive = adaptivePrefetch;
+        if (adaptive != null) {
+            adaptive.onProcessed(latencyInNanos);
+        }
+    }
+
+    /**
+     * Report message rejected by downstream executor, the prefetch will be decreased
+     */
+    public void reportRejected() {
+        AdaptivePrefetch adaptive = adaptivePrefetch;
+        if (adaptive != null) {
+            adaptive.decrease();
+        }
+    }
+
+    private void onProcessed(long latencyInNanos) {
+        AdaptivePrefetch adaptive = adaptivePrefetch;
+        if (adaptive != null && !adaptive.isDownstream()) {
+            adaptive.onProcessed(latencyInNanos);
+        }
+    }
+
+    /**
+     * Additive increase and multiplicative decrease of channel prefetch
+     * - decrease if executor queue over half full or latency over twice of the baseline
+     * - increase if executor queue almost empty and latency is stable
+     * - executor is the downstream executor if saturation supplier is given, otherwise the consumer executor
+     */
+    private class AdaptivePrefetch {
+
+        private static final long AdjustIntervalInNanos = 1000 * 1000 * 1000L; // 1 second
+
+        private static final double Alpha = 0.2;
+
+        private final int min;
+
+        private final int max;
+
+        // null if measured on the consumer executor
+        private final DoubleSupplier saturation;
+
+        private volatile int prefetch;
+
+        // EWMA of processing latency
+        private double latency = -1;
+
+        // lowest latency observed, drifts up slowly to follow the load
+        private double baseline = -1;
+
+        private long adjustedAt = System.nanoTime();
+
+        AdaptivePrefetch(int min, int max, int initial, DoubleSupplier saturation) {
+            this.min = min;
+            this.max = max;
+            this.prefetch = initial;
+            this.saturation = saturation;
+        }
+
+        boolean isDownstream() {
+            return saturation != null;
+        }
+
+        synchronized void onProcessed(long latencyInNanos) {
+            latency = latency < 0 ? latencyInNanos : Alpha * latencyInNanos + (1 - Alpha) * latency;
+
+            long now = System.nanoTime();
+            if (now - adjustedAt < AdjustIntervalInNanos) {
+                return;
+            }
+
+            adjustedAt = now;
+            baseline = baseline < 0 ? latency : Math.min(latency, baseline * 1.1);
+
+            double usage = saturation();
+
+            if (usage > 0.5 || latency > baseline * 2) {
+                update(prefetch / 2);
+                return;
+            }
+
+            if (usage < 0.1) {
+                update(prefetch + concurrency);
+            }
+        }
+
+        synchronized void decrease() {
+            adjustedAt = System.nanoTime();
+            update(prefetch / 2);
+        }
+
+        private double saturation() {
+            if (saturation != null) {
+                return saturation.getAsDouble();
+            }
+            return (double) executor.getThreadPoolExecutor().getQueue().size() / QueueSize;
+        }
+
+        private void update(int value) {
+            int next = Math.max(min, Math.min(max, value));
+            if (next == prefetch) {
+                return;
+            }
+
+            try {
+                channel.basicQos(next, true);
+                log.debug("[Prefetch] {} adjusted from {} to {}", name, prefetch, next);
+                prefetch = next;
+            } catch (IOException e) {
+                log.warn("Unable to adjust prefetch of {}: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    public class QueueConsumer extends DefaultConsumer implements MessageConsumer {
 
         private final String queue;
 
         private final Function<Message, Boolean> consume;
 
+        private final AtomicInteger inFlight = new AtomicInteger(0);
+
+        private volatile boolean autoAck;
+
         QueueConsumer(String queue, Function<Message, Boolean> consume) {
             super(channel);
             this.queue = queue;
@@ -165,16 +340,45 @@ public abstract class RabbitOperation implements AutoCloseable {
         @Override
         public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body)
                 throws IOException {
-            consume(body, envelope);
+            consume(body, envelope, properties);
         }
 
-        public void consume(byte[] body, Envelope envelope) {
-            executor.execute(() -> {
-                Boolean ingoreForNow = consume.apply(new Message(getChannel(), body, envelope));
-            });
+        public void consume(byte[] body, Envelope envelope, AMQP.BasicProperties properties) {
+            Message message = new Message(getChannel(), body, envelope, properties);
+            inFlight.incrementAndGet();
+
+            try {
+                executor.execute(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        Boolean ingoreForNow = consume.apply(message);
+                    } finally {
+                        inFlight.decrementAndGet();
+                        onProcessed(System.nanoTime() - start);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                inFlight.decrementAndGet();
+                reportRejected();
+
+                if (autoAck) {
+                    log.warn("[Consumer REJECTED] message of queue {} dropped since auto ack", queue);
+                    return;
+                }
+
+                message.sendNack(true);
+            }
+        }
+
+        @Override
+        public int getInFlight() {
+            return inFlight.get();
         }
 
+        @Override
         public String start(boolean autoAck) {
+            this.autoAck = autoAck;
+
             try {
                 String tag = getChannel().basicConsume(queue, autoAck, this);
                 log.info("[Consumer STARTED] queue {} with tag {}", queue, tag);
@@ -205,7 +409,7 @@ public abstract class RabbitOperation implements AutoCloseable {
     @Getter
     public static class Message {
 
-        public static final Message STOP_SIGN = new Message(null, new byte[0], null);
+        public static final Message STOP_SIGN = new Message(null, new byte[0], null, null);
 
         private final Channel channel;
 
@@ -213,10 +417,20 @@ public abstract class RabbitOperation implements AutoCloseable {
 
         private final Envelope envelope;
 
-        public Message(Channel channel, byte[] body, Envelope envelope) {
+        private final AMQP.BasicProperties properties;
+
+        public Message(Channel channel, byte[] body, Envelope envelope, AMQP.BasicProperties properties) {
             this.channel = channel;
             this.body = body;
             this.envelope = envelope;
+            this.properties = properties;
+        }
+
+        /**
+         * Content type of message body, null if not set by sender
+         */
+        public String getContentType() {
+            return properties == null ? null : properties.getContentType();
         }
 
         public boolean sendAck() {
@@ -227,5 +441,14 @@ public abstract class RabbitOperation implements AutoCloseable {
                 return false;
             }
         }
+
+        public boolean sendNack(boolean requeue) {
+            try {
+                getChannel().basicNack(envelope.getDeliveryTag(), false, requeue);
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
     }
 }
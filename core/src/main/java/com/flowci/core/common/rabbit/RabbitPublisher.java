@@ -0,0 +1,299 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.common.rabbit;
+
+import com.flowci.core.common.helper.ThreadHelper;
+import com.flowci.util.StringHelper;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ShutdownSignalException;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Publish messages through a pool of channels with publisher confirms
+ * - each channel is owned by one thread, since channel is not thread safe
+ * - messages to the same routing key go to the same channel to keep the order
+ * - queued messages are published in batch, and confirmed asynchronously by broker
+ * - the future of message is completed with true on ack, false on nack or failure
+ *
+ * @author yang
+ */
+@Log4j2
+public class RabbitPublisher implements AutoCloseable {
+
+    private static final int MaxQueueSize = 10000;
+
+    private final Connection conn;
+
+    private final int batchSize;
+
+    private final List<PublishChannel> channels;
+
+    private final ThreadPoolTaskExecutor executor;
+
+    private volatile boolean running = true;
+
+    public RabbitPublisher(Connection conn, int numOfChannels, int batchSize, String name) {
+        this.conn = conn;
+        this.batchSize = batchSize;
+        this.channels = new ArrayList<>(numOfChannels);
+        this.executor = ThreadHelper.createTaskExecutor(numOfChannels, numOfChannels, 0, name + "-");
+
+        for (int i = 0; i < numOfChannels; i++) {
+            PublishChannel channel = new PublishChannel();
+            channels.add(channel);
+            executor.execute(channel);
+        }
+    }
+
+    /**
+     * Publish to routing key with default exchange
+     */
+    public CompletableFuture<Boolean> publish(String routingKey, String contentType, byte[] body) {
+        AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
+                .contentType(contentType)
+                .build();
+
+        return publish(routingKey, props, body);
+    }
+
+    /**
+     * Publish to routing key with default exchange and priority
+     */
+    public CompletableFuture<Boolean> publish(String routingKey, String contentType, byte[] body,
+                                              Integer priority, Long expireInSecond) {
+        AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
+                .contentType(contentType)
+                .priority(priority)
+                .expiration(Long.toString(expireInSecond * 1000))
+                .build();
+
+        return publish(routingKey, props, body);
+    }
+
+    public CompletableFuture<Boolean> publish(String routingKey, AMQP.BasicProperties props, byte[] body) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        if (!running) {
+            future.complete(false);
+            return future;
+        }
+
+        int index = Math.abs(routingKey.hashCode() % channels.size());
+        if (!channels.get(index).queue.offer(new Pending(routingKey, props, body, future))) {
+            log.warn("Unable to publish to {} since too many messages waiting", routingKey);
+            future.complete(false);
+        }
+
+        return future;
+    }
+
+    /**
+     * Publish and wait for the confirm
+     *
+     * @return true if confirmed by broker within timeout
+     */
+    public boolean send(String routingKey, String contentType, byte[] body, long timeoutInMillis) {
+        return await(publish(routingKey, contentType, body), timeoutInMillis);
+    }
+
+    public boolean send(String routingKey, String contentType, byte[] body,
+                        Integer priority, Long expireInSecond, long timeoutInMillis) {
+        return await(publish(routingKey, contentType, body, priority, expireInSecond), timeoutInMillis);
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        executor.shutdown();
+
+        for (PublishChannel channel : channels) {
+            channel.close();
+        }
+    }
+
+    private static boolean await(CompletableFuture<Boolean> future, long timeoutInMillis) {
+        try {
+            return future.get(timeoutInMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    private class PublishChannel implements Runnable, ConfirmListener {
+
+        private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>(MaxQueueSize);
+
+        // key as publish sequence number
+        private final ConcurrentNavigableMap<Long, Pending> unconfirmed = new ConcurrentSkipListMap<>();
+
+        private final List<Pending> batch = new ArrayList<>(batchSize);
+
+        private volatile Channel channel;
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    Pending first = queue.poll(1, TimeUnit.SECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    publish(batch);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    // ex: AlreadyClosedException from closed connection, keep the thread for next batch
+                    log.warn("Unable to publish batch: {}", e.getMessage());
+                    for (Pending item : batch) {
+                        item.future.complete(false);
+                    }
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+
+        @Override
+        public void handleAck(long deliveryTag, boolean multiple) {
+            confirm(deliveryTag, multiple, true);
+        }
+
+        @Override
+        public void handleNack(long deliveryTag, boolean multiple) {
+            confirm(deliveryTag, multiple, false);
+        }
+
+        void close() {
+            try {
+                if (channel != null && channel.isOpen()) {
+                    channel.close();
+                }
+            } catch (Exception ignore) {
+
+            }
+
+            failAll();
+
+            Pending item;
+            while ((item = queue.poll()) != null) {
+                item.future.complete(false);
+            }
+        }
+
+        private void publish(List<Pending> batch) {
+            Channel ch;
+
+            try {
+                ch = getOrCreateChannel();
+            } catch (IOException e) {
+                log.warn("Unable to create publish channel: {}", e.getMessage());
+                for (Pending item : batch) {
+                    item.future.complete(false);
+                }
+                return;
+            }
+
+            for (Pending item : batch) {
+                long seq = ch.getNextPublishSeqNo();
+                unconfirmed.put(seq, item);
+
+                try {
+                    ch.basicPublish(StringHelper.EMPTY, item.routingKey, item.props, item.body);
+                } catch (IOException | ShutdownSignalException e) {
+                    log.warn("Unable to publish to {}: {}", item.routingKey, e.getMessage());
+                    unconfirmed.remove(seq);
+                    item.future.complete(false);
+                }
+            }
+        }
+
+        private Channel getOrCreateChannel() throws IOException {
+            if (channel != null && channel.isOpen()) {
+                return channel;
+            }
+
+            // messages published on the closed channel will never be confirmed
+            failAll();
+
+            Channel created = conn.createChannel();
+            created.confirmSelect();
+            created.addConfirmListener(this);
+            created.addShutdownListener(cause -> {
+                if (channel == created) {
+                    failAll();
+                }
+            });
+
+            channel = created;
+            return channel;
+        }
+
+        private void confirm(long deliveryTag, boolean multiple, boolean ack) {
+            if (!multiple) {
+                Pending item = unconfirmed.remove(deliveryTag);
+                if (item != null) {
+                    item.future.complete(ack);
+                }
+                return;
+            }
+
+            Map<Long, Pending> confirmed = unconfirmed.headMap(deliveryTag, true);
+            for (Pending item : confirmed.values()) {
+                item.future.complete(ack);
+            }
+            confirmed.clear();
+        }
+
+        private void failAll() {
+            for (Pending item : unconfirmed.values()) {
+                item.future.complete(false);
+            }
+            unconfirmed.clear();
+        }
+    }
+
+    private static class Pending {
+
+        private final String routingKey;
+
+        private final AMQP.BasicProperties props;
+
+        private final byte[] body;
+
+        private final CompletableFuture<Boolean> future;
+
+        Pending(String routingKey, AMQP.BasicProperties props, byte[] body, CompletableFuture<Boolean> future) {
+            this.routingKey = routingKey;
+            this.props = props;
+            this.body = body;
+            this.future = future;
+        }
+    }
+}
@@ -16,11 +16,9 @@
 
 package com.flowci.core.flow.service;
 
-import com.flowci.core.common.config.ConfigProperties;
 import com.flowci.core.common.domain.Variables;
 import com.flowci.core.common.manager.SessionManager;
 import com.flowci.core.common.manager.SpringEventManager;
-import com.flowci.core.common.rabbit.RabbitChannelOperation;
 import com.flowci.core.credential.domain.Credential;
 import com.flowci.core.credential.service.CredentialService;
 import com.flowci.core.flow.dao.FlowDao;
@@ -35,6 +33,7 @@ import com.flowci.core.flow.event.FlowDeletedEvent;
 import com.flowci.core.flow.event.FlowInitEvent;
 import com.flowci.core.job.domain.Job.Trigger;
 import com.flowci.core.job.event.CreateNewJobEvent;
+import com.flowci.core.job.manager.FlowJobQueueManager;
 import com.flowci.core.trigger.domain.GitPingTrigger;
 import com.flowci.core.trigger.domain.GitPushTrigger;
 import com.flowci.core.trigger.domain.GitTrigger;
@@ -49,6 +48,7 @@ import com.flowci.domain.VarValue;
 import com.flowci.domain.Vars;
 import com.flowci.exception.ArgumentException;
 import com.flowci.exception.DuplicateException;
+import com.flowci.exception.NotAvailableException;
 import com.flowci.exception.NotFoundException;
 import com.flowci.exception.StatusException;
 import com.flowci.store.FileManager;
@@ -84,9 +84,6 @@ public class FlowServiceImpl implements FlowService {
     @Autowired
     private String serverUrl;
 
-    @Autowired
-    private ConfigProperties.RabbitMQ rabbitProperties;
-
     @Autowired
     private FlowDao flowDao;
 
@@ -109,7 +106,7 @@ public class FlowServiceImpl implements FlowService {
     private CredentialService credentialService;
 
     @Autowired
-    private RabbitChannelOperation jobQueueManager;
+    private FlowJobQueueManager flowJobQueueManager;
 
     // ====================================================================
     // %% Public function
@@ -317,14 +314,12 @@ public class FlowServiceImpl implements FlowService {
     // %% Internal events
     // ====================================================================
 
+    /**
+     * Flow job queue will be declared when the consumer activated on first enqueue
+     */
     @EventListener
     public void initJobQueueForFlow(ContextRefreshedEvent ignore) {
         List<Flow> all = flowDao.findAll();
-
-        for (Flow flow : all) {
-            createFlowJobQueue(flow);
-        }
-
         eventManager.publish(new FlowInitEvent(this, all));
     }
 
@@ -392,14 +387,14 @@ public class FlowServiceImpl implements FlowService {
 
     private void createFlowJobQueue(Flow flow) {
         try {
-            jobQueueManager.declare(flow.getQueueName(), true, 255, rabbitProperties.getJobDlExchange());
-        } catch (IOException e) {
+            flowJobQueueManager.declare(flow.getQueueName());
+        } catch (NotAvailableException e) {
             log.warn(e.getMessage());
         }
     }
 
     private void removeFlowJobQueue(Flow flow) {
-        jobQueueManager.delete(flow.getQueueName());
+        flowJobQueueManager.remove(flow.getQueueName());
     }
 
     private String getWebhook(String name) {
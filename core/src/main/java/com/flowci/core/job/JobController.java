@@ -16,7 +16,9 @@
 
 package com.flowci.core.job;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.flowci.core.auth.annotation.Action;
+import com.flowci.core.common.helper.DownloadHelper;
 import com.flowci.core.common.manager.SessionManager;
 import com.flowci.core.flow.domain.Flow;
 import com.flowci.core.flow.domain.Yml;
@@ -29,19 +31,23 @@ import com.flowci.core.user.domain.User;
 import com.flowci.domain.CmdId;
 import com.flowci.domain.ExecutedCmd;
 import com.flowci.exception.ArgumentException;
+import com.flowci.store.FileContent;
 import com.flowci.tree.NodePath;
+import com.flowci.util.StringHelper;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.InputStreamResource;
-import org.springframework.core.io.Resource;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Base64;
 import java.util.List;
 import java.util.Objects;
@@ -59,6 +65,8 @@ public class JobController {
 
     private static final String ParameterLatest = "latest";
 
+    private static final String DefaultSearchLimit = "100";
+
     @Autowired
     private SessionManager sessionManager;
 
@@ -86,6 +94,9 @@ public class JobController {
     @Autowired
     private ThreadPoolTaskExecutor jobRunExecutor;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
     @GetMapping("/{flow}")
     @Action(JobAction.LIST)
     public Page<JobItem> list(@PathVariable("flow") String name,
@@ -138,27 +149,74 @@ public class JobController {
         return loggingService.read(stepService.get(executedCmdId), PageRequest.of(page, size));
     }
 
+    /**
+     * Recent lines of running step, for web socket subscriber to fill lines sent before subscribed
+     */
+    @GetMapping("/logs/{executedCmdId}/recent")
+    @Action(JobAction.RECENT_STEP_LOG)
+    public List<String> getRecentStepLog(@PathVariable String executedCmdId) {
+        return loggingService.readRecent(executedCmdId);
+    }
+
     @GetMapping("/logs/{executedCmdId}/download")
     @Action(JobAction.DOWNLOAD_STEP_LOG)
-    public ResponseEntity<Resource> downloadStepLog(@PathVariable String executedCmdId) {
+    public void downloadStepLog(@PathVariable String executedCmdId,
+                                HttpServletRequest request,
+                                HttpServletResponse response) throws IOException {
         CmdId cmdId = CmdId.parse(executedCmdId);
 
         if (Objects.isNull(cmdId)) {
             throw new ArgumentException("Illegal cmd id");
         }
 
-        Resource resource = loggingService.get(executedCmdId);
+        FileContent content = loggingService.getContent(executedCmdId);
 
         Job job = jobService.get(cmdId.getJobId());
         Flow flow = flowService.getById(job.getFlowId());
         NodePath path = NodePath.create(cmdId.getNodePath());
 
         String fileName = String.format("%s-#%s-%s.log", flow.getName(), job.getBuildNumber(), path.name());
+        DownloadHelper.write(content, fileName, request, response);
+    }
+
+    /**
+     * Search log lines of steps, matches are streamed as json per line once found,
+     * then the search result as the last line
+     */
+    @GetMapping(value = "/{flow}/{buildNumberOrLatest}/logs/search", produces = MediaType.APPLICATION_STREAM_JSON_VALUE)
+    @Action(JobAction.SEARCH_STEP_LOG)
+    public ResponseEntity<StreamingResponseBody> searchStepLog(
+            @PathVariable String flow,
+            @PathVariable String buildNumberOrLatest,
+            @RequestParam("q") String query,
+            @RequestParam(required = false, defaultValue = DefaultSearchLimit) int limit) {
+        if (!StringHelper.hasValue(query)) {
+            throw new ArgumentException("Search query is required");
+        }
+
+        Job job = get(flow, buildNumberOrLatest);
+        List<ExecutedCmd> steps = stepService.list(job);
+
+        StreamingResponseBody body = out -> {
+            LogSearchResult result = loggingService.search(steps, query, limit, match -> {
+                try {
+                    out.write(objectMapper.writeValueAsBytes(match));
+                    out.write('\n');
+                    out.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            // status line, results are incomplete if any step skipped
+            out.write(objectMapper.writeValueAsBytes(result));
+            out.write('\n');
+            out.flush();
+        };
 
         return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType(MediaType.APPLICATION_OCTET_STREAM_VALUE))
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
-                .body(resource);
+                .contentType(MediaType.APPLICATION_STREAM_JSON)
+                .body(body);
     }
 
     @PostMapping
@@ -212,15 +270,13 @@ public class JobController {
 
     @GetMapping(value = "/{flow}/{buildNumber}/artifacts/{artifactId}")
     @Action(JobAction.DOWNLOAD_ARTIFACT)
-    public ResponseEntity<Resource> downloadArtifact(@PathVariable String flow,
-                                @PathVariable String buildNumber,
-                                @PathVariable String artifactId) {
+    public void downloadArtifact(@PathVariable String flow,
+                                 @PathVariable String buildNumber,
+                                 @PathVariable String artifactId,
+                                 HttpServletRequest request,
+                                 HttpServletResponse response) throws IOException {
         Job job = get(flow, buildNumber);
         JobArtifact artifact = artifactService.fetch(job, artifactId);
-
-        return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType(MediaType.APPLICATION_OCTET_STREAM_VALUE))
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + artifact.getFileName() + "\"")
-                .body(new InputStreamResource(artifact.getSrc()));
+        DownloadHelper.write(artifact.getContent(), artifact.getFileName(), request, response);
     }
 }
@@ -16,13 +16,23 @@
 
 package com.flowci.core.job.config;
 
+import com.flowci.core.common.codec.BinaryInput;
+import com.flowci.core.common.codec.BinaryMessageCodec;
+import com.flowci.core.common.codec.BinaryOutput;
+import com.flowci.core.common.config.ConfigProperties;
 import com.flowci.core.common.helper.CacheHelper;
+import com.flowci.core.common.helper.StripedExecutor;
 import com.flowci.core.common.helper.ThreadHelper;
+import com.flowci.core.common.manager.MessageCodecManager;
+import com.flowci.core.job.domain.JobMessage;
 import com.flowci.domain.ExecutedCmd;
 import com.flowci.tree.NodeTree;
 import com.github.benmanes.caffeine.cache.Cache;
+import java.io.IOException;
 import java.util.List;
+import javax.annotation.PostConstruct;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
@@ -34,6 +44,30 @@ import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 @Configuration
 public class JobConfig {
 
+    private static final int JobMessageTag = 10;
+
+    @Autowired
+    private ConfigProperties.Job jobProperties;
+
+    @Autowired
+    private MessageCodecManager messageCodecManager;
+
+    @PostConstruct
+    public void registerJobMessageCodec() {
+        messageCodecManager.getBinaryCodec().register(JobMessageTag, JobMessage.class, new BinaryMessageCodec.Serializer<JobMessage>() {
+
+            @Override
+            public void write(BinaryOutput out, JobMessage value) {
+                out.writeString(value.getJobId()).writeInt(value.getPriority());
+            }
+
+            @Override
+            public JobMessage read(BinaryInput in) throws IOException {
+                return new JobMessage(in.readString(), in.readInt());
+            }
+        });
+    }
+
     /**
      * Consume http request
      */
@@ -47,6 +81,25 @@ public class JobConfig {
         return ThreadHelper.createTaskExecutor(1, 1, 10, "job-delete-");
     }
 
+    /**
+     * Scan step logs for log search
+     */
+    @Bean("logSearchExecutor")
+    public ThreadPoolTaskExecutor logSearchExecutor() {
+        int workers = jobProperties.getLogSearchWorkers();
+        return ThreadHelper.createTaskExecutor(workers, workers, 1000, "log-search-");
+    }
+
+    /**
+     * Handle cmd callbacks, callbacks of the same job will be handled in order
+     */
+    @Bean("jobCallbackExecutor")
+    public StripedExecutor jobCallbackExecutor() {
+        int stripes = jobProperties.getCallbackStripes();
+        int queueSize = jobProperties.getCallbackConcurrency();
+        return new StripedExecutor(stripes, queueSize, "job-callback-");
+    }
+
     @Bean("jobTreeCache")
     public Cache<String, NodeTree> jobTreeCache() {
         return CacheHelper.createLocalCache(50, 60);
@@ -21,9 +21,18 @@ import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface JobArtifactDao extends MongoRepository<JobArtifact, String> {
 
     List<JobArtifact> findAllByJobId(String jobId);
+
+    List<JobArtifact> findAllByFlowId(String flowId);
+
+    Optional<JobArtifact> findFirstByMd5AndBlob(String md5, boolean blob);
+
+    long countByMd5AndBlob(String md5, boolean blob);
+
+    Long deleteByFlowId(String flowId);
 }
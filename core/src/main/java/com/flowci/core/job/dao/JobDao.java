@@ -17,10 +17,14 @@
 package com.flowci.core.job.dao;
 
 import com.flowci.core.job.domain.Job;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
 
 /**
@@ -32,4 +36,16 @@ public interface JobDao extends MongoRepository<Job, String> {
     Optional<Job> findByKey(String key);
 
     Long deleteByFlowId(String flowId);
+
+    @Query(value = "{ 'status' : ?0 }", fields = "{ 'flow_id' : 1 }")
+    List<Job> findFlowIdByStatus(Job.Status status);
+
+    @Query(value = "{ 'status' : ?0 }", fields = "{ 'agent_selector' : 1 }")
+    List<Job> findAgentSelectorByStatus(Job.Status status);
+
+    @Query(value = "{ 'status' : ?0 }", fields = "{ 'flow_id' : 1, 'priority' : 1, 'timeout' : 1, 'expire_at' : 1 }")
+    List<Job> findQueueInfoByStatus(Job.Status status, Sort sort);
+
+    @Query(value = "{ 'flow_id' : ?0, 'status' : { $in : ?1 } }", fields = "{ 'agent_id' : 1 }")
+    List<Job> findAgentIdByFlowIdAndStatusIn(String flowId, Collection<Job.Status> statuses, Pageable pageable);
 }
\ No newline at end of file
@@ -173,6 +173,7 @@ public class Job extends Mongoable implements Pathable {
 
     private Trigger trigger;
 
+    @Indexed(name = "index_status")
     private Status status = Status.PENDING;
 
     private Selector agentSelector;
@@ -31,6 +31,10 @@ public abstract class JobAction {
 
     public static final String DOWNLOAD_STEP_LOG = "get_job_step_log";
 
+    public static final String SEARCH_STEP_LOG = "get_job_step_log";
+
+    public static final String RECENT_STEP_LOG = "get_job_step_log";
+
     public static final String CREATE = "create_job";
 
     public static final String RUN = "run_job";
@@ -52,6 +56,8 @@ public abstract class JobAction {
             LIST_STEPS,
             GET_STEP_LOG,
             DOWNLOAD_STEP_LOG,
+            SEARCH_STEP_LOG,
+            RECENT_STEP_LOG,
             CREATE,
             RUN,
             CANCEL,
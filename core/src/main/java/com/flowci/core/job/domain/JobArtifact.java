@@ -17,16 +17,16 @@
 package com.flowci.core.job.domain;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.flowci.store.FileContent;
 import com.flowci.store.Pathable;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.data.annotation.Transient;
 import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
-import java.io.InputStream;
-
 @Getter
 @Setter
 @EqualsAndHashCode(callSuper = true)
@@ -40,14 +40,32 @@ public class JobArtifact extends JobOutput {
 
     public static final Pathable ArtifactPath = () -> "artifacts";
 
+    public static final Pathable BlobPath = () -> "blobs";
+
+    public static final Pathable UploadPath = () -> "uploads";
+
+    @JsonIgnore
+    @Indexed(name = "index_job_artifact_flowid", sparse = true)
+    private String flowId;
+
     private String srcDir;
 
     /**
      * File md5
      */
+    @Indexed(name = "index_job_artifact_md5")
     private String md5;
 
+    /**
+     * File stored in blob store addressed by md5, and shared by artifacts with the same md5
+     */
+    @JsonIgnore
+    private boolean blob;
+
+    /**
+     * Content for ranged download
+     */
     @JsonIgnore
     @Transient
-    private InputStream src;
+    private FileContent content;
 }
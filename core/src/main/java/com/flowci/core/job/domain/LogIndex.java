@@ -0,0 +1,280 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.core.job.domain;
+
+import lombok.Getter;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Sparse index of line number to byte offset of log file, for every 'interval' lines
+ * - offsets are of raw content, the block index is used to find the block if log is compressed
+ *
+ * @author yang
+ */
+public class LogIndex {
+
+    private static final int Version = 2;
+
+    public static LogIndex decode(byte[] bytes) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            int version = in.readInt();
+            if (version < 1 || version > Version) {
+                throw new IOException("Unsupported log index version " + version);
+            }
+
+            int interval = in.readInt();
+            long numOfLines = in.readLong();
+            long numOfBytes = in.readLong();
+            long[] offsets = readLongs(in);
+
+            // version 1 is index of uncompressed log
+            int blockSize = version > 1 ? in.readInt() : 0;
+            long[] blocks = version > 1 ? readLongs(in) : new long[0];
+
+            LogIndex index = new LogIndex(interval, blockSize);
+            index.offsets = offsets;
+            index.size = offsets.length;
+            index.numOfLines = numOfLines;
+            index.numOfBytes = numOfBytes;
+            index.blocks = blocks;
+            index.numOfBlocks = blocks.length;
+            return index;
+        }
+    }
+
+    private static long[] readLongs(DataInput in) throws IOException {
+        long[] values = new long[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readLong();
+        }
+        return values;
+    }
+
+    private static void writeLongs(DataOutput out, long[] values, int size) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeLong(values[i]);
+        }
+    }
+
+    @Getter
+    private final int interval;
+
+    // raw size of compressed block, 0 if log is not compressed
+    @Getter
+    private final int blockSize;
+
+    // offsets[i] is byte offset of line (i * interval)
+    private long[] offsets = new long[16];
+
+    private int size = 0;
+
+    // blocks[i] is offset of block i in compressed log
+    private long[] blocks = new long[16];
+
+    private int numOfBlocks = 0;
+
+    @Getter
+    private long numOfLines;
+
+    @Getter
+    private long numOfBytes;
+
+    public LogIndex(int interval) {
+        this(interval, 0);
+    }
+
+    public LogIndex(int interval, int blockSize) {
+        this.interval = interval;
+        this.blockSize = blockSize;
+    }
+
+    public boolean isCompressed() {
+        return blockSize > 0;
+    }
+
+    /**
+     * Record offset of next block in compressed log
+     */
+    public void addBlock(long offset) {
+        if (numOfBlocks == blocks.length) {
+            blocks = Arrays.copyOf(blocks, numOfBlocks * 2);
+        }
+        blocks[numOfBlocks++] = offset;
+    }
+
+    /**
+     * Offset in compressed log of the block which contains the raw offset
+     */
+    public long blockOffset(long rawOffset) {
+        if (numOfBlocks == 0) {
+            return 0;
+        }
+        return blocks[(int) Math.min(rawOffset / blockSize, numOfBlocks - 1)];
+    }
+
+    /**
+     * Offset in compressed log of the end of block which contains the raw offset
+     *
+     * @return -1 if it's the last block, which ends at the end of compressed log
+     */
+    public long blockEnd(long rawOffset) {
+        long next = rawOffset / blockSize + 1;
+        if (next >= numOfBlocks) {
+            return -1;
+        }
+        return blocks[(int) next];
+    }
+
+    /**
+     * Raw offset of the beginning of block which contains the raw offset
+     */
+    public long blockStart(long rawOffset) {
+        if (numOfBlocks == 0) {
+            return 0;
+        }
+        return Math.min(rawOffset / blockSize, numOfBlocks - 1) * blockSize;
+    }
+
+    /**
+     * Byte offset of the indexed line which is the nearest one before or at the line
+     */
+    public long floorOffset(long line) {
+        if (size == 0) {
+            return 0;
+        }
+
+        int i = (int) Math.min(line / interval, size - 1);
+        return offsets[i];
+    }
+
+    /**
+     * Byte offset of the indexed line which is the nearest one after or at the line
+     *
+     * @return num of bytes if no indexed line after
+     */
+    public long ceilOffset(long line) {
+        long i = (line + interval - 1) / interval;
+        if (i >= size) {
+            return numOfBytes;
+        }
+        return offsets[(int) i];
+    }
+
+    /**
+     * Line number of the indexed line which is the nearest one before or at the line
+     */
+    public long floorLine(long line) {
+        if (size == 0) {
+            return 0;
+        }
+
+        return Math.min(line / interval, size - 1) * interval;
+    }
+
+    public byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(36 + (size + numOfBlocks) * 8);
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(Version);
+            out.writeInt(interval);
+            out.writeLong(numOfLines);
+            out.writeLong(numOfBytes);
+            writeLongs(out, offsets, size);
+            out.writeInt(blockSize);
+            writeLongs(out, blocks, numOfBlocks);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private void onLineStart(long offset) {
+        if (numOfLines % interval == 0) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            offsets[size++] = offset;
+        }
+        numOfLines++;
+    }
+
+    /**
+     * Build index while content passing through
+     */
+    public static class IndexingInputStream extends FilterInputStream {
+
+        @Getter
+        private final LogIndex index;
+
+        private boolean lineStart = true;
+
+        public IndexingInputStream(InputStream in, int interval) {
+            this(in, new LogIndex(interval));
+        }
+
+        public IndexingInputStream(InputStream in, LogIndex index) {
+            super(in);
+            this.index = index;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                onByte((byte) b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            for (int i = 0; i < n; i++) {
+                onByte(b[off + i]);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            throw new IOException("Skip is not supported while indexing");
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void onByte(byte b) {
+            if (lineStart) {
+                index.onLineStart(index.numOfBytes);
+                lineStart = false;
+            }
+
+            index.numOfBytes++;
+
+            if (b == '\n') {
+                lineStart = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.job.manager;
+
+import com.flowci.core.agent.event.AgentStatusEvent;
+import com.flowci.core.common.helper.CacheHelper;
+import com.flowci.core.job.dao.JobDao;
+import com.flowci.core.job.domain.Job;
+import com.flowci.core.job.event.JobStatusChangeEvent;
+import com.flowci.domain.Agent;
+import com.github.benmanes.caffeine.cache.Cache;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Agents which recently ran the flow, they have warm workspace at {agent dir}/{flow id}
+ * - history loaded from agent id of recent finished jobs, and updated when job finished
+ * - limited num of flows and agents per flow are kept in memory
+ * - offline agent will be removed from history
+ *
+ * @author yang
+ */
+@Log4j2
+@Component
+public class AgentAffinityManager {
+
+    private static final int MaxFlows = 1000;
+
+    private static final int MaxAgentsPerFlow = 3;
+
+    private static final int ExpireInSeconds = 3600 * 24;
+
+    private static final Sort SortByBuildNumber = Sort.by(Sort.Direction.DESC, "buildNumber");
+
+    @Autowired
+    private JobDao jobDao;
+
+    // key as flow id, value as agent ids, most recent first
+    private final Cache<String, LinkedList<String>> history = CacheHelper.createLocalCache(MaxFlows, ExpireInSeconds);
+
+    /**
+     * Get agent ids which recently ran the flow, most recent first
+     */
+    public List<String> getAgents(String flowId) {
+        LinkedList<String> agents = history.get(flowId, this::load);
+
+        synchronized (agents) {
+            return new ArrayList<>(agents);
+        }
+    }
+
+    @EventListener
+    public void onJobFinished(JobStatusChangeEvent event) {
+        Job job = event.getJob();
+
+        if (!job.isDone() || Objects.isNull(job.getAgentId())) {
+            return;
+        }
+
+        LinkedList<String> agents = history.get(job.getFlowId(), this::load);
+
+        synchronized (agents) {
+            agents.remove(job.getAgentId());
+            agents.addFirst(job.getAgentId());
+
+            while (agents.size() > MaxAgentsPerFlow) {
+                agents.removeLast();
+            }
+        }
+    }
+
+    @EventListener
+    public void onAgentOffline(AgentStatusEvent event) {
+        Agent agent = event.getAgent();
+
+        if (agent.getStatus() != Agent.Status.OFFLINE) {
+            return;
+        }
+
+        for (LinkedList<String> agents : history.asMap().values()) {
+            synchronized (agents) {
+                agents.remove(agent.getId());
+            }
+        }
+    }
+
+    private LinkedList<String> load(String flowId) {
+        PageRequest pageable = PageRequest.of(0, MaxAgentsPerFlow * 3, SortByBuildNumber);
+        LinkedList<String> agents = new LinkedList<>();
+
+        for (Job job : jobDao.findAgentIdByFlowIdAndStatusIn(flowId, Job.FINISH_STATUS, pageable)) {
+            if (Objects.isNull(job.getAgentId()) || agents.contains(job.getAgentId())) {
+                continue;
+            }
+
+            agents.add(job.getAgentId());
+
+            if (agents.size() == MaxAgentsPerFlow) {
+                break;
+            }
+        }
+
+        return agents;
+    }
+}
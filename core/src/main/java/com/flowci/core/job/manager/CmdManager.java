@@ -21,6 +21,8 @@ import com.flowci.core.job.domain.Job;
 import com.flowci.domain.CmdIn;
 import com.flowci.tree.Node;
 
+import java.util.List;
+
 /**
  * @author yang
  */
@@ -30,5 +32,16 @@ public interface CmdManager {
 
     CmdIn createShellCmd(Job job, Node node);
 
+    /**
+     * Create BATCH cmd that contains shell cmd of each node
+     */
+    CmdIn createBatchCmd(Job job, List<Node> nodes);
+
+    /**
+     * Node can be put in a batch if it's not depend on the result of previous steps
+     * from server side, which means no 'before' condition and no plugin inputs to verify
+     */
+    boolean isBatchable(Node node);
+
     CmdIn createKillCmd();
 }
@@ -16,6 +16,7 @@
 
 package com.flowci.core.job.manager;
 
+import com.flowci.core.common.helper.CacheHelper;
 import com.flowci.core.job.domain.Job;
 import com.flowci.core.plugin.domain.Plugin;
 import com.flowci.core.plugin.domain.Input;
@@ -23,15 +24,12 @@ import com.flowci.core.plugin.service.PluginService;
 import com.flowci.domain.*;
 import com.flowci.exception.ArgumentException;
 import com.flowci.tree.Node;
-import com.flowci.util.ObjectsHelper;
 import com.flowci.util.StringHelper;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import com.github.benmanes.caffeine.cache.Cache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
-import java.util.Set;
-import java.util.UUID;
+import java.util.*;
 
 /**
  * @author yang
@@ -39,9 +37,16 @@ import java.util.UUID;
 @Repository
 public class CmdManagerImpl implements CmdManager {
 
+    private static final int MaxTemplates = 1000;
+
+    private static final int TemplateExpireInSeconds = 3600;
+
     @Autowired
     private PluginService pluginService;
 
+    // key as flow id + node path
+    private final Cache<String, CmdTemplate> templates = CacheHelper.createLocalCache(MaxTemplates, TemplateExpireInSeconds);
+
     @Override
     public CmdId createId(Job job, Node node) {
         return new CmdId(job.getId(), node.getPath().getPathInStr());
@@ -49,33 +54,23 @@ public class CmdManagerImpl implements CmdManager {
 
     @Override
     public CmdIn createShellCmd(Job job, Node node) {
-        // node envs has top priority;
-        Vars<String> inputs = new StringVars()
-                .merge(job.getContext())
-                .merge(node.getEnvironments());
-
-        String script = node.getScript();
-        boolean allowFailure = node.isAllowFailure();
-        Set<String> exports = node.getExports();
-
-        if (node.hasPlugin()) {
-            Plugin plugin = pluginService.get(node.getPlugin());
-            verifyPluginInput(inputs, plugin);
+        CmdTemplate template = getTemplate(job, node);
+        Vars<String> context = job.getContext();
+        Vars<String> envs = node.getEnvironments();
 
-            script = plugin.getScript();
-            exports.addAll(plugin.getExports());
+        // node envs has top priority;
+        Vars<String> inputs = new StringVars(context.size() + envs.size() + template.inputs.size());
+        inputs.merge(context);
+        inputs.merge(envs);
 
-            if (plugin.getAllowFailure() != null) {
-                allowFailure = plugin.getAllowFailure();
-            }
-        }
+        verifyPluginInput(inputs, template);
 
-        // create cmd based on plugin
+        // create cmd based on template
         CmdIn cmd = new CmdIn(createId(job, node).toString(), CmdType.SHELL);
         cmd.setInputs(inputs);
-        cmd.setAllowFailure(allowFailure);
-        cmd.setEnvFilters(Sets.newHashSet(exports));
-        cmd.setScripts(Lists.newArrayList(script));
+        cmd.setAllowFailure(template.allowFailure);
+        cmd.setEnvFilters(template.exports);
+        cmd.setScripts(template.scripts);
         cmd.setPlugin(node.getPlugin());
 
         // default work dir is {agent dir}/{flow id}
@@ -84,13 +79,56 @@ public class CmdManagerImpl implements CmdManager {
         return cmd;
     }
 
+    @Override
+    public CmdIn createBatchCmd(Job job, List<Node> nodes) {
+        CmdIn batch = new CmdIn(UUID.randomUUID().toString(), CmdType.BATCH);
+        batch.setWorkDir(job.getFlowId());
+
+        for (Node node : nodes) {
+            batch.getCmds().add(createShellCmd(job, node));
+        }
+
+        return batch;
+    }
+
+    @Override
+    public boolean isBatchable(Node node) {
+        if (node.hasBefore()) {
+            return false;
+        }
+
+        if (!node.hasPlugin()) {
+            return true;
+        }
+
+        Plugin plugin = pluginService.get(node.getPlugin());
+        return plugin.getInputs().isEmpty();
+    }
+
     @Override
     public CmdIn createKillCmd() {
         return new CmdIn(UUID.randomUUID().toString(), CmdType.KILL);
     }
 
-    private void verifyPluginInput(Vars<String> context, Plugin plugin) {
-        for (Input input : plugin.getInputs()) {
+    /**
+     * Get compiled template of node, it will be recompiled if node or plugin changed
+     */
+    private CmdTemplate getTemplate(Job job, Node node) {
+        Plugin plugin = node.hasPlugin() ? pluginService.get(node.getPlugin()) : null;
+        String key = job.getFlowId() + "/" + node.getPathAsString();
+
+        CmdTemplate template = templates.getIfPresent(key);
+        if (template != null && template.isCompiledFrom(node, plugin)) {
+            return template;
+        }
+
+        template = new CmdTemplate(node, plugin);
+        templates.put(key, template);
+        return template;
+    }
+
+    private void verifyPluginInput(Vars<String> context, CmdTemplate template) {
+        for (Input input : template.inputs) {
             String value = context.get(input.getName());
 
             // setup plugin default value to context
@@ -102,8 +140,66 @@ public class CmdManagerImpl implements CmdManager {
             // verify value from context
             if (!input.verify(value)) {
                 throw new ArgumentException(
-                        "The illegal input {0} for plugin {1}", input.getName(), plugin.getName());
+                        "The illegal input {0} for plugin {1}", input.getName(), template.plugin.getName());
             }
         }
     }
+
+    /**
+     * Node script, exports and allow failure merged with plugin, which are shared by cmds of the node
+     */
+    private static class CmdTemplate {
+
+        // source of template
+        private final String script;
+
+        private final Set<String> nodeExports;
+
+        private final boolean nodeAllowFailure;
+
+        private final Plugin plugin;
+
+        // compiled
+        private final List<String> scripts;
+
+        private final Set<String> exports;
+
+        private final boolean allowFailure;
+
+        private final List<Input> inputs;
+
+        CmdTemplate(Node node, Plugin plugin) {
+            this.script = node.getScript();
+            this.nodeExports = new HashSet<>(node.getExports());
+            this.nodeAllowFailure = node.isAllowFailure();
+            this.plugin = plugin;
+
+            Set<String> exports = new HashSet<>(node.getExports());
+            String script = node.getScript();
+            boolean allowFailure = node.isAllowFailure();
+            List<Input> inputs = Collections.emptyList();
+
+            if (plugin != null) {
+                script = plugin.getScript();
+                exports.addAll(plugin.getExports());
+                inputs = new ArrayList<>(plugin.getInputs());
+
+                if (plugin.getAllowFailure() != null) {
+                    allowFailure = plugin.getAllowFailure();
+                }
+            }
+
+            this.scripts = Collections.singletonList(script);
+            this.exports = Collections.unmodifiableSet(exports);
+            this.allowFailure = allowFailure;
+            this.inputs = inputs;
+        }
+
+        boolean isCompiledFrom(Node node, Plugin plugin) {
+            return this.plugin == plugin
+                    && this.nodeAllowFailure == node.isAllowFailure()
+                    && Objects.equals(this.script, node.getScript())
+                    && Objects.equals(this.nodeExports, node.getExports());
+        }
+    }
 }
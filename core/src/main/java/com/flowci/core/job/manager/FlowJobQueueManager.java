@@ -17,52 +17,271 @@
 
 package com.flowci.core.job.manager;
 
-import com.flowci.core.common.rabbit.RabbitQueueOperation;
+import com.flowci.core.common.config.ConfigProperties;
+import com.flowci.core.common.rabbit.*;
 import com.flowci.exception.NotAvailableException;
 import com.flowci.exception.NotFoundException;
 import com.rabbitmq.client.Connection;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
 import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.stereotype.Component;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+/**
+ * Manage flow job queues and consumers
+ * - queue consumer is registered for each flow but only activated on first enqueue
+ * - consumer will be deactivated after idle for 'app.job.queue-idle-seconds',
+ * it's not idle while handling message or any job of the queue is pending in central job scheduler
+ * - consumers share a bounded set of channels if central job scheduler enabled,
+ * since the consumer will not block the thread, otherwise each active consumer has its own channel
+ * - queues are on in process broker if 'app.rabbitmq.in-process' enabled, messages are sent without network
+ */
+@Log4j2
 @Component
 public class FlowJobQueueManager implements AutoCloseable {
 
+    private static final Integer MaxPriority = 255;
+
     @Autowired
     private Connection rabbitConnection;
 
-    private final Map<String, RabbitQueueOperation> queueManagerMap = new ConcurrentHashMap<>();
+    @Autowired
+    private ConfigProperties.RabbitMQ rabbitProperties;
+
+    @Autowired
+    private ConfigProperties.Job jobProperties;
+
+    @Autowired
+    private RabbitPublisher rabbitPublisher;
+
+    @Autowired
+    private InMemoryBroker inMemoryBroker;
+
+    @Autowired
+    private JobScheduler jobScheduler;
+
+    // shared channels for declare and non-blocking consumers
+    private final List<QueueOperation> channels = new ArrayList<>();
+
+    // key as queue name
+    private final Map<String, FlowJobQueue> queueMap = new ConcurrentHashMap<>();
 
-    public RabbitQueueOperation create(String queueName) {
+    @PostConstruct
+    public void initSharedChannels() throws IOException {
+        for (int i = 0; i < jobProperties.getQueueChannels(); i++) {
+            String name = "flow-job-channel-" + i;
+            channels.add(isInProcess()
+                    ? new InMemoryQueueOperation(inMemoryBroker, 1, name)
+                    : new RabbitChannelOperation(rabbitConnection, 1, name));
+        }
+    }
+
+    public void declare(String queueName) {
         try {
-            RabbitQueueOperation manager = new RabbitQueueOperation(rabbitConnection, 1, queueName);
-            queueManagerMap.put(queueName, manager);
-            return manager;
+            getChannel(queueName).declare(queueName, true, MaxPriority, rabbitProperties.getJobDlExchange());
         } catch (IOException e) {
-            throw new NotAvailableException("Unable to create queue manager: {0}", e.getMessage());
+            throw new NotAvailableException("Unable to declare flow job queue {0}: {1}", queueName, e.getMessage());
+        }
+    }
+
+    /**
+     * Register consumer of flow job queue, the consumer will not be started until activated
+     *
+     * @param handlerSupplier create new handler for each activation
+     */
+    public FlowJobQueue register(String queueName, Supplier<Function<RabbitOperation.Message, Boolean>> handlerSupplier) {
+        FlowJobQueue queue = new FlowJobQueue(queueName, handlerSupplier);
+        FlowJobQueue exist = queueMap.put(queueName, queue);
+
+        if (exist != null) {
+            exist.deactivate();
         }
+
+        return queue;
     }
 
-    public RabbitQueueOperation get(String queueName) {
-        RabbitQueueOperation manager = queueManagerMap.get(queueName);
-        if (Objects.isNull(manager)) {
-            throw new NotFoundException("RabbitQueueManager not found for flow job queue {0}", queueName);
+    public FlowJobQueue get(String queueName) {
+        FlowJobQueue queue = queueMap.get(queueName);
+        if (Objects.isNull(queue)) {
+            throw new NotFoundException("Consumer not found for flow job queue {0}", queueName);
         }
-        return manager;
+        return queue;
+    }
+
+    /**
+     * Start consumer of flow job queue if it's not activated
+     */
+    public void activate(String queueName) {
+        get(queueName).activate();
+    }
+
+    /**
+     * Activate the consumer and send to flow job queue,
+     * the queue is declared on activation, so it has to be activated before sending
+     *
+     * @return true if the message been confirmed by broker
+     */
+    public boolean send(String queueName, String contentType, byte[] body, Integer priority, Long expireInSeconds) {
+        get(queueName).activate();
+
+        if (isInProcess()) {
+            return getChannel(queueName).send(queueName, contentType, body, priority, expireInSeconds);
+        }
+
+        long timeout = rabbitProperties.getPublishTimeoutInMillis();
+        return rabbitPublisher.send(queueName, contentType, body, priority, expireInSeconds, timeout);
     }
 
     public void remove(String queueName) {
-        RabbitQueueOperation manager = queueManagerMap.remove(queueName);
-        if (manager != null) {
-            manager.delete();
+        FlowJobQueue queue = queueMap.remove(queueName);
+        if (queue != null) {
+            queue.deactivate();
+        }
+
+        getChannel(queueName).delete(queueName);
+    }
+
+    @Scheduled(fixedDelay = 60 * 1000)
+    public void deactivateIdleConsumers() {
+        long idleSeconds = jobProperties.getQueueIdleSeconds();
+        Instant now = Instant.now();
+
+        for (FlowJobQueue queue : queueMap.values()) {
+            if (queue.isIdle(now, idleSeconds)) {
+                queue.deactivate();
+                log.debug("[Consumer IDLE] flow job queue {} been deactivated", queue.getQueueName());
+            }
         }
     }
 
     @Override
-    public void close() {
-        queueManagerMap.forEach((s, manager) -> manager.removeConsumer());
+    public void close() throws Exception {
+        queueMap.forEach((s, queue) -> queue.deactivate());
+
+        for (QueueOperation channel : channels) {
+            channel.close();
+        }
+    }
+
+    private QueueOperation getChannel(String queueName) {
+        int index = Math.abs(queueName.hashCode() % channels.size());
+        return channels.get(index);
+    }
+
+    private QueueOperation createOperation(String queueName) throws IOException {
+        if (isInProcess()) {
+            return new InMemoryQueueOperation(inMemoryBroker, 1, queueName);
+        }
+        return new RabbitQueueOperation(rabbitConnection, 1, queueName);
+    }
+
+    private boolean isShared() {
+        return jobProperties.isSchedulerEnabled();
+    }
+
+    private boolean isInProcess() {
+        return rabbitProperties.getInProcess();
+    }
+
+    public class FlowJobQueue {
+
+        @Getter
+        private final String queueName;
+
+        private final Supplier<Function<RabbitOperation.Message, Boolean>> handlerSupplier;
+
+        private final AtomicInteger inFlight = new AtomicInteger(0);
+
+        private volatile Instant lastActiveAt = Instant.now();
+
+        // not null if consumer activated
+        private QueueOperation operation;
+
+        FlowJobQueue(String queueName, Supplier<Function<RabbitOperation.Message, Boolean>> handlerSupplier) {
+            this.queueName = queueName;
+            this.handlerSupplier = handlerSupplier;
+        }
+
+        public synchronized boolean isActive() {
+            return operation != null;
+        }
+
+        synchronized void activate() {
+            lastActiveAt = Instant.now();
+
+            if (operation != null) {
+                return;
+            }
+
+            try {
+                QueueOperation op = isShared() ? getChannel(queueName) : createOperation(queueName);
+
+                op.declare(queueName, true, MaxPriority, rabbitProperties.getJobDlExchange());
+                op.createConsumer(queueName, track(handlerSupplier.get())).start(false);
+                operation = op;
+            } catch (IOException e) {
+                throw new NotAvailableException("Unable to activate flow job queue {0}: {1}", queueName, e.getMessage());
+            }
+        }
+
+        synchronized void deactivate() {
+            if (operation == null) {
+                return;
+            }
+
+            operation.removeConsumer(queueName);
+
+            if (!isShared()) {
+                try {
+                    operation.close();
+                } catch (Exception e) {
+                    log.warn("Unable to close channel of flow job queue {}: {}", queueName, e.getMessage());
+                }
+            }
+
+            operation = null;
+        }
+
+        synchronized boolean isIdle(Instant now, long idleSeconds) {
+            if (operation == null || inFlight.get() > 0) {
+                return false;
+            }
+
+            // message of pending job is not acked until dispatched
+            if (isShared() && jobScheduler.hasPending(queueName)) {
+                return false;
+            }
+
+            return lastActiveAt.plusSeconds(idleSeconds).isBefore(now);
+        }
+
+        private Function<RabbitOperation.Message, Boolean> track(Function<RabbitOperation.Message, Boolean> handler) {
+            return message -> {
+                if (message == RabbitOperation.Message.STOP_SIGN) {
+                    return handler.apply(message);
+                }
+
+                inFlight.incrementAndGet();
+                try {
+                    return handler.apply(message);
+                } finally {
+                    inFlight.decrementAndGet();
+                    lastActiveAt = Instant.now();
+                }
+            };
+        }
     }
 }
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.job.manager;
+
+import com.flowci.core.agent.event.AgentStatusEvent;
+import com.flowci.core.agent.manager.IdleAgentManager;
+import com.flowci.core.agent.service.AgentService;
+import com.flowci.core.common.config.ConfigProperties;
+import com.flowci.core.common.helper.ThreadHelper;
+import com.flowci.core.common.manager.SpringEventManager;
+import com.flowci.core.common.rabbit.RabbitOperation;
+import com.flowci.core.job.domain.Job;
+import com.flowci.core.job.event.NoIdleAgentEvent;
+import com.flowci.core.job.service.JobService;
+import com.flowci.domain.Agent;
+import com.flowci.exception.NotFoundException;
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Central job scheduler, enabled by 'app.job.scheduler-enabled'
+ * - flow queue consumers put the received job into pending set without blocking
+ * - pending jobs are ordered by priority and enqueue time
+ * - a fixed number of workers match pending jobs to idle agents and dispatch them
+ * - the job message will be acked after dispatched or finished while pending
+ *
+ * @author yang
+ */
+@Log4j2
+@Component
+public class JobScheduler implements AutoCloseable {
+
+    private final static long RetryIntervalOnNotFound = 30 * 1000; // 30 seconds
+
+    private final static long AffinityCheckInterval = 1000; // 1 seconds
+
+    private final static Comparator<PendingJob> PendingOrder = Comparator
+            .comparing((PendingJob p) -> p.job.getPriority(), Comparator.reverseOrder())
+            .thenComparing(p -> p.sequence);
+
+    @FunctionalInterface
+    public interface Dispatcher {
+
+        void dispatch(Job job, Agent agent);
+    }
+
+    @Autowired
+    private ConfigProperties.Job jobProperties;
+
+    @Autowired
+    private SpringEventManager eventManager;
+
+    @Autowired
+    private IdleAgentManager idleAgentManager;
+
+    @Autowired
+    private AgentAffinityManager agentAffinityManager;
+
+    @Autowired
+    private AgentService agentService;
+
+    @Autowired
+    private JobService jobService;
+
+    private final Object lock = new Object();
+
+    private final TreeSet<PendingJob> pending = new TreeSet<>(PendingOrder);
+
+    private final AtomicLong sequence = new AtomicLong(0);
+
+    private ThreadPoolTaskExecutor executor;
+
+    private Dispatcher dispatcher;
+
+    private volatile boolean running = false;
+
+    public boolean isEnabled() {
+        return jobProperties.isSchedulerEnabled();
+    }
+
+    public void start(Dispatcher dispatcher) {
+        if (running) {
+            return;
+        }
+
+        int workers = jobProperties.getSchedulerWorkers();
+        this.dispatcher = dispatcher;
+        this.executor = ThreadHelper.createTaskExecutor(workers, workers, 0, "job-scheduler-");
+        this.running = true;
+
+        for (int i = 0; i < workers; i++) {
+            executor.execute(new Worker());
+        }
+
+        log.info("[Job Scheduler] started with {} workers", workers);
+    }
+
+    /**
+     * Put job to pending set, it will not block the caller
+     */
+    public void submit(Job job, RabbitOperation.Message message) {
+        List<String> warm = agentAffinityManager.getAgents(job.getFlowId());
+        PendingJob item = new PendingJob(job, message, sequence.incrementAndGet(), warm, System.currentTimeMillis());
+
+        synchronized (lock) {
+            pending.add(item);
+            lock.notify();
+        }
+
+        if (idleAgentManager.find(job.getAgentSelector().getTags()).isEmpty()) {
+            log.info("[Job] {} waiting for agent...", job.getKey());
+            eventManager.publish(new NoIdleAgentEvent(this, job));
+        }
+    }
+
+    /**
+     * Remove pending jobs of the flow, the message will be acked since the flow queue is going to be removed
+     */
+    public void remove(String flowId) {
+        List<PendingJob> removed = new LinkedList<>();
+
+        synchronized (lock) {
+            Iterator<PendingJob> iterator = pending.iterator();
+            while (iterator.hasNext()) {
+                PendingJob item = iterator.next();
+                if (Objects.equals(item.job.getFlowId(), flowId)) {
+                    iterator.remove();
+                    removed.add(item);
+                }
+            }
+        }
+
+        for (PendingJob item : removed) {
+            item.message.sendAck();
+        }
+    }
+
+    /**
+     * Check is there any pending job from the flow job queue
+     */
+    public boolean hasPending(String queueName) {
+        synchronized (lock) {
+            for (PendingJob item : pending) {
+                if (Objects.equals(item.job.getQueueName(), queueName)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    public int size() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    @EventListener
+    public void onAgentStatusChange(AgentStatusEvent event) {
+        if (event.getAgent().getStatus() != Agent.Status.IDLE) {
+            return;
+        }
+
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Check pending jobs expiration and notify no idle agent for the rest
+     */
+    @Scheduled(fixedDelay = RetryIntervalOnNotFound)
+    public void checkPending() {
+        if (!running) {
+            return;
+        }
+
+        List<PendingJob> copy;
+        synchronized (lock) {
+            copy = new ArrayList<>(pending);
+        }
+
+        for (PendingJob item : copy) {
+            if (!jobService.isExpired(item.job)) {
+                eventManager.publish(new NoIdleAgentEvent(this, item.job));
+                continue;
+            }
+
+            synchronized (lock) {
+                if (!pending.remove(item)) {
+                    continue;
+                }
+            }
+
+            jobService.setJobStatusAndSave(item.job, Job.Status.TIMEOUT, "expired while waiting for agent");
+            item.message.sendAck();
+            log.info("[Job] {} expired", item.job.getKey());
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Find the first pending job that has an idle agent, both job and agent will be taken out
+     */
+    private Optional<Matched> nextMatched() {
+        if (idleAgentManager.isEmpty()) {
+            return Optional.empty();
+        }
+
+        long affinityWaitInMillis = jobProperties.getAffinityWaitSeconds() * 1000;
+        long now = System.currentTimeMillis();
+
+        Iterator<PendingJob> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            PendingJob item = iterator.next();
+            Set<String> tags = item.job.getAgentSelector().getTags();
+
+            // prefer agent which recently ran the flow, use any agent after affinity wait
+            Optional<Agent> agent = idleAgentManager.take(tags, item.warm);
+            if (!agent.isPresent() && (item.warm.isEmpty() || now - item.submittedAt >= affinityWaitInMillis)) {
+                agent = idleAgentManager.take(tags);
+            }
+
+            if (agent.isPresent()) {
+                iterator.remove();
+                return Optional.of(new Matched(item, agent.get()));
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    private long waitInterval() {
+        return jobProperties.getAffinityWaitSeconds() > 0 ? AffinityCheckInterval : RetryIntervalOnNotFound;
+    }
+
+    private void dispatch(Matched matched) {
+        PendingJob item = matched.item;
+        Agent agent = matched.agent;
+
+        Job job;
+        try {
+            job = jobService.get(item.job.getId());
+        } catch (NotFoundException e) {
+            idleAgentManager.onStatusChange(agent);
+            item.message.sendAck();
+            return;
+        }
+
+        // job may be cancelled while pending
+        if (!job.isQueuing()) {
+            idleAgentManager.onStatusChange(agent);
+            item.message.sendAck();
+            log.info("[Job] {} can't handle it since status is not in queuing", job.getKey());
+            return;
+        }
+
+        agent.setJobId(job.getId());
+        if (!agentService.tryLock(agent)) {
+            synchronized (lock) {
+                pending.add(item);
+            }
+            return;
+        }
+
+        try {
+            dispatcher.dispatch(job, agent);
+        } catch (Throwable e) {
+            log.warn("[Job Scheduler] unable to dispatch job {}: {}", job.getKey(), e.getMessage());
+
+            // unlock agent and put it back to idle agent index
+            agent.setJobId(null);
+            agentService.tryRelease(agent);
+
+            try {
+                jobService.setJobStatusAndSave(job, Job.Status.FAILURE, e.getMessage());
+            } catch (Throwable ignore) {
+                // job will be consumed again if the status cannot be saved
+                item.message.sendNack(true);
+                return;
+            }
+        }
+
+        item.message.sendAck();
+    }
+
+    /**
+     * Give back the agent and the job message if failed before the agent was locked
+     */
+    private void giveBack(Matched matched) {
+        matched.agent.setJobId(null);
+        idleAgentManager.onStatusChange(matched.agent);
+        matched.item.message.sendNack(true);
+    }
+
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            while (running) {
+                Optional<Matched> matched = Optional.empty();
+
+                synchronized (lock) {
+                    while (running) {
+                        matched = nextMatched();
+                        if (matched.isPresent()) {
+                            break;
+                        }
+
+                        ThreadHelper.wait(lock, waitInterval());
+                    }
+                }
+
+                if (!matched.isPresent()) {
+                    return;
+                }
+
+                try {
+                    dispatch(matched.get());
+                } catch (Throwable e) {
+                    log.warn("[Job Scheduler] unable to dispatch job: {}", e.getMessage());
+                    giveBack(matched.get());
+                }
+            }
+        }
+    }
+
+    @AllArgsConstructor
+    private static class PendingJob {
+
+        private final Job job;
+
+        private final RabbitOperation.Message message;
+
+        private final long sequence;
+
+        // ids of agents which recently ran the flow
+        private final List<String> warm;
+
+        private final long submittedAt;
+    }
+
+    @AllArgsConstructor
+    private static class Matched {
+
+        private final PendingJob item;
+
+        private final Agent agent;
+    }
+}
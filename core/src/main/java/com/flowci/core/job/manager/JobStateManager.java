@@ -0,0 +1,429 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.job.manager;
+
+import com.flowci.core.common.config.ConfigProperties;
+import com.flowci.core.job.domain.Job;
+import com.flowci.domain.Agent;
+import com.flowci.domain.CmdId;
+import com.flowci.domain.ExecutedCmd;
+import lombok.EqualsAndHashCode;
+import lombok.extern.log4j.Log4j2;
+import org.bson.Document;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In memory state of running jobs, it's authoritative while job is running
+ * - job, steps and the locked agent are loaded once when job dispatched
+ * - job and steps are kept as mongo document, a new instance is returned for each get,
+ * so instances are not shared between threads, changes are applied to the state by update
+ * - changed fields are recorded as snapshot and coalesced per document
+ * - dirty fields are written by partial '$set' from flusher every 'app.job.flush-interval-in-millis'
+ * - state will be flushed and removed when job finished
+ *
+ * @author yang
+ */
+@Log4j2
+@Component
+public class JobStateManager implements AutoCloseable {
+
+    private static final String UpdatedAt = "updatedAt";
+
+    @Autowired
+    private ConfigProperties.Job jobProperties;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    // key as job id
+    private final Map<String, JobState> states = new ConcurrentHashMap<>();
+
+    // key as job key
+    private final Map<String, String> keyIndex = new ConcurrentHashMap<>();
+
+    // dirty fields of document, value as field name to mongo value
+    private final Map<DocKey, Map<String, Object>> dirty = new LinkedHashMap<>();
+
+    private final Object dirtyLock = new Object();
+
+    private final Object writeLock = new Object();
+
+    private ThreadPoolTaskScheduler flusher;
+
+    @PostConstruct
+    public void startFlusher() {
+        flusher = new ThreadPoolTaskScheduler();
+        flusher.setPoolSize(1);
+        flusher.setThreadNamePrefix("job-state-flush-");
+        flusher.setDaemon(true);
+        flusher.initialize();
+        flusher.scheduleWithFixedDelay(this::flush, jobProperties.getFlushIntervalInMillis());
+    }
+
+    /**
+     * Start to track running job
+     */
+    public void start(Job job, List<ExecutedCmd> steps, Agent agent) {
+        Map<String, Document> stepMap = new LinkedHashMap<>(steps.size());
+        for (ExecutedCmd step : steps) {
+            stepMap.put(step.getId(), toDocument(step));
+        }
+
+        states.put(job.getId(), new JobState(toDocument(job), stepMap, agent));
+        keyIndex.put(job.getKey(), job.getId());
+    }
+
+    /**
+     * Flush dirty fields of the job and steps, and stop to track
+     */
+    public void finish(String jobId) {
+        JobState state = states.remove(jobId);
+        if (state == null) {
+            return;
+        }
+
+        keyIndex.remove(state.job.getString("key"));
+        flush();
+    }
+
+    public boolean isTracked(String jobId) {
+        return states.containsKey(jobId);
+    }
+
+    public Optional<Job> getJob(String jobId) {
+        JobState state = states.get(jobId);
+        if (state == null) {
+            return Optional.empty();
+        }
+
+        synchronized (state) {
+            return Optional.of(fromDocument(Job.class, state.job));
+        }
+    }
+
+    public Optional<Job> getJobByKey(String key) {
+        String jobId = keyIndex.get(key);
+        return jobId == null ? Optional.empty() : getJob(jobId);
+    }
+
+    public Optional<Agent> getAgent(String jobId) {
+        JobState state = states.get(jobId);
+        return state == null ? Optional.empty() : Optional.of(state.agent);
+    }
+
+    public Optional<ExecutedCmd> getStep(String cmdId) {
+        CmdId id = CmdId.parse(cmdId);
+        if (id == null) {
+            return Optional.empty();
+        }
+
+        JobState state = states.get(id.getJobId());
+        if (state == null) {
+            return Optional.empty();
+        }
+
+        synchronized (state) {
+            Document step = state.steps.get(cmdId);
+            return step == null ? Optional.empty() : Optional.of(fromDocument(ExecutedCmd.class, step));
+        }
+    }
+
+    public Optional<List<ExecutedCmd>> getSteps(String jobId) {
+        JobState state = states.get(jobId);
+        if (state == null) {
+            return Optional.empty();
+        }
+
+        synchronized (state) {
+            List<ExecutedCmd> steps = new ArrayList<>(state.steps.size());
+            for (Document step : state.steps.values()) {
+                steps.add(fromDocument(ExecutedCmd.class, step));
+            }
+            return Optional.of(steps);
+        }
+    }
+
+    /**
+     * Record the agent which the node is running on
+     */
+    public void assign(String jobId, String path, Agent agent) {
+        JobState state = states.get(jobId);
+        if (state == null) {
+            return;
+        }
+
+        synchronized (state.assigned) {
+            state.assigned.put(path, agent);
+        }
+    }
+
+    /**
+     * Remove the agent which the node is running on
+     */
+    public Optional<Agent> release(String jobId, String path) {
+        JobState state = states.get(jobId);
+        if (state == null) {
+            return Optional.empty();
+        }
+
+        synchronized (state.assigned) {
+            return Optional.ofNullable(state.assigned.remove(path));
+        }
+    }
+
+    public boolean isAssigned(String jobId, String agentId) {
+        for (Agent agent : getAssigned(jobId)) {
+            if (Objects.equals(agent.getId(), agentId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get agents that have node running on
+     */
+    public List<Agent> getAssigned(String jobId) {
+        JobState state = states.get(jobId);
+        if (state == null) {
+            return Collections.emptyList();
+        }
+
+        synchronized (state.assigned) {
+            return new ArrayList<>(state.assigned.values());
+        }
+    }
+
+    /**
+     * Set node paths that have been sent to agent in a batch but not started yet
+     */
+    public void setBatched(String jobId, List<String> paths) {
+        JobState state = states.get(jobId);
+        if (state == null) {
+            return;
+        }
+
+        synchronized (state.batched) {
+            state.batched.clear();
+            state.batched.addAll(paths);
+        }
+    }
+
+    /**
+     * Remove node path from batched paths
+     *
+     * @return true if the node path is batched
+     */
+    public boolean removeBatched(String jobId, String path) {
+        JobState state = states.get(jobId);
+        if (state == null) {
+            return false;
+        }
+
+        synchronized (state.batched) {
+            return state.batched.remove(path);
+        }
+    }
+
+    public void clearBatched(String jobId) {
+        setBatched(jobId, Collections.emptyList());
+    }
+
+    /**
+     * Apply current value of fields to the state, and record them as dirty, it will be written to db by flusher
+     *
+     * @param entity job or step
+     * @param fields property names of entity
+     */
+    public void update(Object entity, String... fields) {
+        MongoConverter converter = mongoTemplate.getConverter();
+        MongoPersistentEntity<?> persistentEntity = converter.getMappingContext()
+                .getRequiredPersistentEntity(entity.getClass());
+
+        BeanWrapper wrapper = PropertyAccessorFactory.forBeanPropertyAccess(entity);
+        Object id = wrapper.getPropertyValue(persistentEntity.getRequiredIdProperty().getName());
+
+        // set modified time since partial update is not going through repository
+        MongoPersistentProperty updatedAt = persistentEntity.getPersistentProperty(UpdatedAt);
+        if (updatedAt != null) {
+            wrapper.setPropertyValue(UpdatedAt, new Date());
+        }
+
+        // convert to mongo type immediately as snapshot since entity could be changed while flushing
+        Map<String, Object> values = new LinkedHashMap<>(fields.length + 1);
+        for (String field : fields) {
+            MongoPersistentProperty property = persistentEntity.getRequiredPersistentProperty(field);
+            Object value = wrapper.getPropertyValue(field);
+            values.put(property.getFieldName(), converter.convertToMongoType(value, property.getTypeInformation()));
+        }
+
+        if (updatedAt != null) {
+            values.put(updatedAt.getFieldName(), wrapper.getPropertyValue(UpdatedAt));
+        }
+
+        apply(entity, id, values);
+
+        synchronized (dirtyLock) {
+            dirty.computeIfAbsent(new DocKey(entity.getClass(), id), k -> new LinkedHashMap<>()).putAll(values);
+        }
+    }
+
+    /**
+     * Write all dirty fields to db with one bulk operation per collection
+     */
+    public void flush() {
+        // writes are serialized to keep the order of values for the same field
+        synchronized (writeLock) {
+            Map<DocKey, Map<String, Object>> copy;
+            synchronized (dirtyLock) {
+                if (dirty.isEmpty()) {
+                    return;
+                }
+
+                copy = new LinkedHashMap<>(dirty);
+                dirty.clear();
+            }
+
+            Map<Class<?>, Map<DocKey, Map<String, Object>>> byClass = new HashMap<>();
+            copy.forEach((key, values) -> byClass.computeIfAbsent(key.clazz, k -> new LinkedHashMap<>()).put(key, values));
+
+            for (Map.Entry<Class<?>, Map<DocKey, Map<String, Object>>> entry : byClass.entrySet()) {
+                try {
+                    BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, entry.getKey());
+
+                    entry.getValue().forEach((key, values) -> {
+                        Update update = new Update();
+                        values.forEach(update::set);
+                        bulk.updateOne(Query.query(Criteria.where("_id").is(key.id)), update);
+                    });
+
+                    bulk.execute();
+                } catch (Throwable e) {
+                    log.warn("Unable to flush {} state: {}", entry.getKey().getSimpleName(), e.getMessage());
+                    requeue(entry.getValue());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+
+        flush();
+    }
+
+    /**
+     * Apply changed values to document of the job or step if it's tracked
+     */
+    private void apply(Object entity, Object id, Map<String, Object> values) {
+        String jobId = null;
+        if (entity instanceof Job) {
+            jobId = (String) id;
+        } else if (entity instanceof ExecutedCmd) {
+            CmdId cmdId = CmdId.parse((String) id);
+            jobId = cmdId == null ? null : cmdId.getJobId();
+        }
+
+        JobState state = jobId == null ? null : states.get(jobId);
+        if (state == null) {
+            return;
+        }
+
+        synchronized (state) {
+            Document doc = entity instanceof Job ? state.job : state.steps.get(id);
+            if (doc != null) {
+                doc.putAll(values);
+            }
+        }
+    }
+
+    private Document toDocument(Object entity) {
+        Document doc = new Document();
+        mongoTemplate.getConverter().write(entity, doc);
+        return doc;
+    }
+
+    private <T> T fromDocument(Class<T> clazz, Document doc) {
+        return mongoTemplate.getConverter().read(clazz, doc);
+    }
+
+    /**
+     * Put failed values back to dirty map for next flush, newer values will not be overwritten
+     */
+    private void requeue(Map<DocKey, Map<String, Object>> failed) {
+        synchronized (dirtyLock) {
+            failed.forEach((key, values) -> {
+                Map<String, Object> current = dirty.computeIfAbsent(key, k -> new LinkedHashMap<>());
+                values.forEach(current::putIfAbsent);
+            });
+        }
+    }
+
+    private static class JobState {
+
+        private final Document job;
+
+        // key as step (executed cmd) id
+        private final Map<String, Document> steps;
+
+        private final Agent agent;
+
+        // node paths sent to agent in batch
+        private final Set<String> batched = new HashSet<>();
+
+        // key as node path, value as agent which node running on, for parallel nodes
+        private final Map<String, Agent> assigned = new HashMap<>();
+
+        JobState(Document job, Map<String, Document> steps, Agent agent) {
+            this.job = job;
+            this.steps = steps;
+            this.agent = agent;
+        }
+    }
+
+    @EqualsAndHashCode
+    private static class DocKey {
+
+        private final Class<?> clazz;
+
+        private final Object id;
+
+        DocKey(Class<?> clazz, Object id) {
+            this.clazz = clazz;
+            this.id = id;
+        }
+    }
+}
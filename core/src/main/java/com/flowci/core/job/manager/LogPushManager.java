@@ -0,0 +1,243 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.core.job.manager;
+
+import com.flowci.core.common.config.ConfigProperties;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Push real time logs to web socket in batch
+ * - lines of a cmd are sent as one frame of string array every 'app.job.log-push-interval-in-millis'
+ * or once 'app.job.log-push-batch-size' lines buffered
+ * - lines of cmd without subscriber are dropped, or sampled by 'app.job.log-push-sample-rate' if policy is 'sample'
+ * - subscribers are counted from stomp subscribe, unsubscribe and disconnect events
+ *
+ * @author yang
+ */
+@Log4j2
+@Component
+public class LogPushManager implements AutoCloseable {
+
+    public static final String PolicyDrop = "drop";
+
+    public static final String PolicySample = "sample";
+
+    @Autowired
+    private String topicForLogs;
+
+    @Autowired
+    private SimpMessagingTemplate simpMessagingTemplate;
+
+    @Autowired
+    private ConfigProperties.Job jobProperties;
+
+    // key as cmd id
+    private final Map<String, Batch> batches = new ConcurrentHashMap<>();
+
+    // key as cmd id, value as num of subscriptions
+    private final Map<String, AtomicInteger> subscribers = new ConcurrentHashMap<>();
+
+    // key as session id, value as subscription id to cmd id
+    private final Map<String, Map<String, String>> sessions = new ConcurrentHashMap<>();
+
+    private String topicPrefix;
+
+    private ThreadPoolTaskScheduler flusher;
+
+    @PostConstruct
+    public void startFlusher() {
+        topicPrefix = topicForLogs + "/";
+
+        flusher = new ThreadPoolTaskScheduler();
+        flusher.setPoolSize(1);
+        flusher.setThreadNamePrefix("log-push-");
+        flusher.setDaemon(true);
+        flusher.initialize();
+        flusher.scheduleWithFixedDelay(this::flush, jobProperties.getLogPushIntervalInMillis());
+    }
+
+    /**
+     * Buffer log line of cmd, it will be sent with other lines of the cmd in one frame
+     */
+    public void push(String cmdId, String line) {
+        while (true) {
+            Batch batch = batches.computeIfAbsent(cmdId, Batch::new);
+
+            synchronized (batch) {
+                // removed by flusher, retry with new batch
+                if (batch.closed) {
+                    continue;
+                }
+
+                if (!batch.accept()) {
+                    return;
+                }
+
+                batch.lines.add(line);
+
+                if (batch.lines.size() >= jobProperties.getLogPushBatchSize()) {
+                    batch.send();
+                }
+                return;
+            }
+        }
+    }
+
+    public boolean hasSubscriber(String cmdId) {
+        AtomicInteger num = subscribers.get(cmdId);
+        return num != null && num.get() > 0;
+    }
+
+    /**
+     * Lines of cmd will be dropped since no subscriber and policy is 'drop'
+     */
+    public boolean isDropped(String cmdId) {
+        return !hasSubscriber(cmdId) && PolicyDrop.equals(jobProperties.getLogPushUnsubscribed());
+    }
+
+    /**
+     * Send all buffered lines, and remove batches which have nothing to send
+     */
+    public void flush() {
+        for (Batch batch : batches.values()) {
+            try {
+                synchronized (batch) {
+                    if (batch.lines.isEmpty()) {
+                        batch.closed = true;
+                        batches.remove(batch.cmdId, batch);
+                        continue;
+                    }
+
+                    batch.send();
+                }
+            } catch (Throwable e) {
+                log.warn("Unable to push logs of {}: {}", batch.cmdId, e.getMessage());
+            }
+        }
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        String destination = accessor.getDestination();
+
+        if (destination == null || !destination.startsWith(topicPrefix)) {
+            return;
+        }
+
+        String cmdId = destination.substring(topicPrefix.length());
+        sessions.computeIfAbsent(accessor.getSessionId(), k -> new ConcurrentHashMap<>())
+                .put(accessor.getSubscriptionId(), cmdId);
+
+        subscribers.computeIfAbsent(cmdId, k -> new AtomicInteger(0)).incrementAndGet();
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        Map<String, String> subscriptions = sessions.get(accessor.getSessionId());
+
+        if (subscriptions == null) {
+            return;
+        }
+
+        String cmdId = subscriptions.remove(accessor.getSubscriptionId());
+        if (cmdId != null) {
+            unsubscribe(cmdId);
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        Map<String, String> subscriptions = sessions.remove(event.getSessionId());
+        if (subscriptions == null) {
+            return;
+        }
+
+        subscriptions.values().forEach(this::unsubscribe);
+    }
+
+    @Override
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+
+        flush();
+    }
+
+    private void unsubscribe(String cmdId) {
+        subscribers.computeIfPresent(cmdId, (k, num) -> num.decrementAndGet() <= 0 ? null : num);
+    }
+
+    private class Batch {
+
+        private final String cmdId;
+
+        private final String destination;
+
+        private final List<String> lines = new ArrayList<>();
+
+        // num of lines received while no subscriber, for sampling
+        private int skipped = 0;
+
+        private boolean closed = false;
+
+        Batch(String cmdId) {
+            this.cmdId = cmdId;
+            this.destination = topicPrefix + cmdId;
+        }
+
+        /**
+         * Apply policy for cmd without subscriber
+         */
+        boolean accept() {
+            if (hasSubscriber(cmdId)) {
+                skipped = 0;
+                return true;
+            }
+
+            if (!PolicySample.equals(jobProperties.getLogPushUnsubscribed())) {
+                return false;
+            }
+
+            return skipped++ % jobProperties.getLogPushSampleRate() == 0;
+        }
+
+        void send() {
+            simpMessagingTemplate.convertAndSend(destination, new ArrayList<>(lines));
+            lines.clear();
+        }
+    }
+}
@@ -0,0 +1,513 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.core.job.manager;
+
+import com.flowci.core.common.config.ConfigProperties;
+import com.flowci.core.common.helper.CacheHelper;
+import com.flowci.util.FileHelper;
+import com.github.benmanes.caffeine.cache.Cache;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+
+import javax.annotation.PostConstruct;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Append only log store of running steps on local disk, logs are available before uploaded by agent
+ * - lines of cmd are buffered and appended to segment files {workspace}/logs/{cmd id}/{n}.log in batch
+ * - segment rolled after 'app.job.log-segment-max-bytes'
+ * - sparse index of line number to segment and byte offset for every 'app.job.log-index-interval' lines,
+ * and the first line of each segment, it's appended to {workspace}/logs/{cmd id}/index
+ * - logs of cmd will be removed after uploaded, or expired without write for 'app.job.log-segment-expire-hours'
+ * - lines of uploaded cmd received later are ignored, since the uploaded log is complete
+ *
+ * @author yang
+ */
+@Log4j2
+@Component
+public class LogSegmentManager implements AutoCloseable {
+
+    private static final String IndexFile = "index";
+
+    private static final int IndexEntrySize = 20; // long line, int segment, long offset
+
+    private static final byte NewLine = '\n';
+
+    private static final int MaxUploaded = 10000;
+
+    @Autowired
+    private ConfigProperties appProperties;
+
+    @Autowired
+    private ConfigProperties.Job jobProperties;
+
+    // key as cmd id
+    private final Map<String, CmdLog> logs = new ConcurrentHashMap<>();
+
+    // ids of cmd which log been uploaded
+    private Cache<String, Boolean> uploaded;
+
+    private Path logDir;
+
+    private ThreadPoolTaskScheduler flusher;
+
+    @PostConstruct
+    public void init() throws IOException {
+        logDir = Paths.get(appProperties.getWorkspace().toString(), "logs");
+        FileHelper.createDirectory(logDir);
+
+        int expireInSeconds = (int) (jobProperties.getLogSegmentExpireHours() * 3600);
+        uploaded = CacheHelper.createLocalCache(MaxUploaded, expireInSeconds);
+
+        flusher = new ThreadPoolTaskScheduler();
+        flusher.setPoolSize(1);
+        flusher.setThreadNamePrefix("log-segment-");
+        flusher.setDaemon(true);
+        flusher.initialize();
+        flusher.scheduleWithFixedDelay(this::flush, jobProperties.getLogFlushIntervalInMillis());
+        flusher.scheduleWithFixedDelay(this::expire, 3600 * 1000);
+    }
+
+    /**
+     * Buffer line of cmd, it will be appended to segment by flusher
+     *
+     * @param number line number from agent, lines in a batch are sorted by it
+     */
+    public void append(String cmdId, long number, String line) {
+        if (isUploaded(cmdId)) {
+            return;
+        }
+
+        CmdLog cmdLog = logs.computeIfAbsent(cmdId, this::load);
+        synchronized (cmdLog) {
+            if (cmdLog.removed) {
+                return;
+            }
+            cmdLog.pending.add(new Line(number, line));
+        }
+    }
+
+    /**
+     * Remove logs of cmd since log uploaded, lines received after it will be ignored
+     */
+    public void uploaded(String cmdId) {
+        uploaded.put(cmdId, Boolean.TRUE);
+        remove(cmdId);
+    }
+
+    public boolean isUploaded(String cmdId) {
+        return uploaded.getIfPresent(cmdId) != null;
+    }
+
+    public boolean exist(String cmdId) {
+        return logs.containsKey(cmdId) || Files.exists(logDir.resolve(cmdId));
+    }
+
+    /**
+     * Num of lines of cmd, including lines not flushed
+     */
+    public long size(String cmdId) {
+        CmdLog cmdLog = get(cmdId);
+        if (cmdLog == null) {
+            return 0;
+        }
+
+        synchronized (cmdLog) {
+            return cmdLog.numOfLines + cmdLog.pending.size();
+        }
+    }
+
+    /**
+     * Read lines from line number (start from 0)
+     */
+    public List<String> read(String cmdId, long fromLine, int size) throws IOException {
+        CmdLog cmdLog = get(cmdId);
+        if (cmdLog == null) {
+            return Collections.emptyList();
+        }
+
+        synchronized (cmdLog) {
+            flush(cmdLog);
+
+            if (fromLine >= cmdLog.numOfLines || size <= 0) {
+                return Collections.emptyList();
+            }
+
+            IndexEntry entry = cmdLog.floor(fromLine);
+            List<String> lines = new ArrayList<>(size);
+
+            int segment = entry.segment;
+            long offset = entry.offset;
+            long skip = fromLine - entry.line;
+
+            while (lines.size() < size && segment <= cmdLog.segment) {
+                try (BufferedReader reader = openReader(cmdLog, segment, offset)) {
+                    String line;
+                    while (lines.size() < size && (line = reader.readLine()) != null) {
+                        if (skip > 0) {
+                            skip--;
+                            continue;
+                        }
+                        lines.add(line);
+                    }
+                }
+
+                segment++;
+                offset = 0;
+            }
+
+            return lines;
+        }
+    }
+
+    /**
+     * Stream all flushed lines of cmd
+     */
+    public InputStream stream(String cmdId) throws IOException {
+        CmdLog cmdLog = get(cmdId);
+        if (cmdLog == null) {
+            throw new FileNotFoundException(cmdId);
+        }
+
+        List<InputStream> segments = new LinkedList<>();
+        synchronized (cmdLog) {
+            flush(cmdLog);
+
+            for (int i = 0; i <= cmdLog.segment; i++) {
+                Path path = segmentPath(cmdLog, i);
+                if (Files.exists(path)) {
+                    segments.add(Files.newInputStream(path));
+                }
+            }
+        }
+
+        return new SequenceInputStream(Collections.enumeration(segments));
+    }
+
+    /**
+     * Remove logs of cmd from disk
+     */
+    public void remove(String cmdId) {
+        CmdLog cmdLog = logs.remove(cmdId);
+
+        if (cmdLog != null) {
+            synchronized (cmdLog) {
+                cmdLog.pending.clear();
+                cmdLog.removed = true;
+            }
+        }
+
+        try {
+            FileSystemUtils.deleteRecursively(logDir.resolve(cmdId));
+        } catch (IOException e) {
+            log.warn("Unable to remove log segments of {}: {}", cmdId, e.getMessage());
+        }
+    }
+
+    /**
+     * Append pending lines of all cmds to segments
+     */
+    public void flush() {
+        for (CmdLog cmdLog : logs.values()) {
+            // created by append racing with upload
+            if (isUploaded(cmdLog.cmdId)) {
+                remove(cmdLog.cmdId);
+                continue;
+            }
+
+            synchronized (cmdLog) {
+                try {
+                    flush(cmdLog);
+                } catch (Throwable e) {
+                    log.warn("Unable to flush log of {}: {}", cmdLog.cmdId, e.getMessage());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+
+        flush();
+    }
+
+    /**
+     * Release cmd logs not written for a while from memory, and remove from disk
+     */
+    private void expire() {
+        long expireAt = System.currentTimeMillis() - jobProperties.getLogSegmentExpireHours() * 3600 * 1000;
+
+        try {
+            forEachCmdDir(dir -> {
+                try {
+                    if (lastModified(dir) < expireAt) {
+                        remove(dir.getFileName().toString());
+                        log.debug("Log segments of {} expired", dir.getFileName());
+                    }
+                } catch (IOException ignore) {
+
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Unable to expire log segments: {}", e.getMessage());
+        }
+    }
+
+    private static long lastModified(Path dir) throws IOException {
+        long last = Files.getLastModifiedTime(dir).toMillis();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                last = Math.max(last, Files.getLastModifiedTime(file).toMillis());
+            }
+        }
+
+        return last;
+    }
+
+    private void forEachCmdDir(Consumer<Path> consumer) throws IOException {
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(logDir)) {
+            for (Path dir : dirs) {
+                consumer.accept(dir);
+            }
+        }
+    }
+
+    private CmdLog get(String cmdId) {
+        CmdLog cmdLog = logs.get(cmdId);
+        if (cmdLog != null) {
+            return cmdLog;
+        }
+
+        if (!Files.exists(logDir.resolve(cmdId))) {
+            return null;
+        }
+
+        return logs.computeIfAbsent(cmdId, this::load);
+    }
+
+    private void flush(CmdLog cmdLog) throws IOException {
+        if (cmdLog.pending.isEmpty() || cmdLog.removed) {
+            return;
+        }
+
+        cmdLog.pending.sort(Comparator.comparingLong(line -> line.number));
+
+        FileHelper.createDirectory(cmdLog.dir);
+        long maxBytes = jobProperties.getLogSegmentMaxBytes();
+        int interval = jobProperties.getLogIndexInterval();
+
+        ByteArrayOutputStream indexBuffer = new ByteArrayOutputStream();
+        DataOutputStream index = new DataOutputStream(indexBuffer);
+
+        OutputStream out = null;
+        try {
+            for (Line line : cmdLog.pending) {
+                boolean roll = cmdLog.segmentSize >= maxBytes;
+                if (roll) {
+                    cmdLog.segment++;
+                    cmdLog.segmentSize = 0;
+                }
+
+                if (out == null || roll) {
+                    if (out != null) {
+                        out.close();
+                    }
+                    out = openWriter(cmdLog);
+                }
+
+                if (roll || cmdLog.numOfLines % interval == 0) {
+                    IndexEntry entry = new IndexEntry(cmdLog.numOfLines, cmdLog.segment, cmdLog.segmentSize);
+                    cmdLog.index.add(entry);
+                    entry.write(index);
+                }
+
+                byte[] bytes = line.content.getBytes(StandardCharsets.UTF_8);
+                out.write(bytes);
+                out.write(NewLine);
+
+                cmdLog.segmentSize += bytes.length + 1;
+                cmdLog.numOfLines++;
+            }
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+            cmdLog.pending.clear();
+        }
+
+        if (indexBuffer.size() > 0) {
+            Files.write(cmdLog.dir.resolve(IndexFile), indexBuffer.toByteArray(),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    /**
+     * Load index and count lines after the last index entry if cmd dir existed
+     */
+    private CmdLog load(String cmdId) {
+        CmdLog cmdLog = new CmdLog(cmdId, logDir.resolve(cmdId));
+        Path indexPath = cmdLog.dir.resolve(IndexFile);
+
+        if (!Files.exists(indexPath)) {
+            return cmdLog;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            long num = Files.size(indexPath) / IndexEntrySize;
+            for (long i = 0; i < num; i++) {
+                cmdLog.index.add(IndexEntry.read(in));
+            }
+
+            if (cmdLog.index.isEmpty()) {
+                return cmdLog;
+            }
+
+            IndexEntry last = cmdLog.index.get(cmdLog.index.size() - 1);
+            cmdLog.segment = last.segment;
+            cmdLog.numOfLines = last.line;
+
+            Path segment = segmentPath(cmdLog, last.segment);
+            cmdLog.segmentSize = Files.size(segment);
+
+            try (BufferedReader reader = openReader(cmdLog, last.segment, last.offset)) {
+                while (reader.readLine() != null) {
+                    cmdLog.numOfLines++;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Unable to load log index of {}: {}", cmdId, e.getMessage());
+        }
+
+        return cmdLog;
+    }
+
+    private BufferedReader openReader(CmdLog cmdLog, int segment, long offset) throws IOException {
+        FileChannel channel = FileChannel.open(segmentPath(cmdLog, segment), StandardOpenOption.READ);
+        channel.position(offset);
+        return new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+    }
+
+    private OutputStream openWriter(CmdLog cmdLog) throws IOException {
+        Path path = segmentPath(cmdLog, cmdLog.segment);
+        OutputStream stream = Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        return new BufferedOutputStream(stream);
+    }
+
+    private static Path segmentPath(CmdLog cmdLog, int segment) {
+        return cmdLog.dir.resolve(segment + ".log");
+    }
+
+    private static class CmdLog {
+
+        private final String cmdId;
+
+        private final Path dir;
+
+        private final List<Line> pending = new ArrayList<>();
+
+        // sorted by line number
+        private final List<IndexEntry> index = new ArrayList<>();
+
+        private long numOfLines = 0;
+
+        private int segment = 0;
+
+        private long segmentSize = 0;
+
+        private boolean removed = false;
+
+        CmdLog(String cmdId, Path dir) {
+            this.cmdId = cmdId;
+            this.dir = dir;
+        }
+
+        /**
+         * Index entry with the largest line number less than or equal to the line
+         */
+        IndexEntry floor(long line) {
+            int low = 0;
+            int high = index.size() - 1;
+
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (index.get(mid).line <= line) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+
+            return index.get(low);
+        }
+    }
+
+    private static class Line {
+
+        private final long number;
+
+        private final String content;
+
+        Line(long number, String content) {
+            this.number = number;
+            this.content = content;
+        }
+    }
+
+    private static class IndexEntry {
+
+        static IndexEntry read(DataInput in) throws IOException {
+            return new IndexEntry(in.readLong(), in.readInt(), in.readLong());
+        }
+
+        private final long line;
+
+        private final int segment;
+
+        private final long offset;
+
+        IndexEntry(long line, int segment, long offset) {
+            this.line = line;
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+        void write(DataOutput out) throws IOException {
+            out.writeLong(line);
+            out.writeInt(segment);
+            out.writeLong(offset);
+        }
+    }
+}
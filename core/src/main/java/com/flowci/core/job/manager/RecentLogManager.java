@@ -0,0 +1,257 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.core.job.manager;
+
+import com.flowci.core.common.config.ConfigProperties;
+import com.flowci.core.common.helper.CacheHelper;
+import com.flowci.core.job.event.StepStatusChangeEvent;
+import com.flowci.domain.ExecutedCmd;
+import com.github.benmanes.caffeine.cache.Cache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keep recent log lines of steps in memory, for web socket subscriber to replay lines sent before subscribed
+ * - up to 'app.job.log-recent-lines' lines of each cmd
+ * - total size of lines is limited by 'app.job.log-recent-max-bytes', lines of finished cmd are evicted
+ * in least recently used order, then the oldest lines of running cmd
+ * - lines are locked per cmd, eviction runs on one thread at a time down to 90% of max bytes,
+ * so it's not applied on every line once over limit
+ * - lines of finished cmd still on the logging queue are kept as finished, the finished cmd ids are
+ * cached for 'app.job.log-segment-expire-hours'
+ *
+ * @author yang
+ */
+@Component
+public class RecentLogManager {
+
+    private static final int LineOverhead = 32;
+
+    private static final double EvictTo = 0.9;
+
+    private static final int MaxFinished = 10000;
+
+    @Autowired
+    private ConfigProperties.Job jobProperties;
+
+    // key as cmd id
+    private final Map<String, Tail> tails = new ConcurrentHashMap<>();
+
+    private final AtomicLong numOfBytes = new AtomicLong(0);
+
+    private final AtomicBoolean evicting = new AtomicBoolean(false);
+
+    // ids of finished cmd, for lines received after finished
+    private Cache<String, Boolean> finished;
+
+    @PostConstruct
+    public void init() {
+        int expireInSeconds = (int) (jobProperties.getLogSegmentExpireHours() * 3600);
+        finished = CacheHelper.createLocalCache(MaxFinished, expireInSeconds);
+    }
+
+    /**
+     * Keep line of cmd, the oldest line of cmd will be removed if it has more than max num of lines
+     */
+    public void add(String cmdId, String line) {
+        while (true) {
+            Tail tail = tails.computeIfAbsent(cmdId, this::newTail);
+
+            synchronized (tail) {
+                // removed by eviction, retry with new tail
+                if (tail.removed) {
+                    continue;
+                }
+
+                tail.add(line);
+
+                if (tail.lines.size() > jobProperties.getLogRecentLines()) {
+                    tail.poll();
+                }
+            }
+
+            break;
+        }
+
+        if (numOfBytes.get() > jobProperties.getLogRecentMaxBytes()) {
+            evict();
+        }
+    }
+
+    /**
+     * Get buffered lines of cmd from the oldest, empty if nothing buffered or evicted
+     */
+    public List<String> get(String cmdId) {
+        Tail tail = tails.get(cmdId);
+        if (tail == null) {
+            return Collections.emptyList();
+        }
+
+        synchronized (tail) {
+            tail.accessedAt = System.nanoTime();
+            return new ArrayList<>(tail.lines);
+        }
+    }
+
+    /**
+     * Mark lines of cmd as evictable
+     */
+    public void finish(String cmdId) {
+        finished.put(cmdId, Boolean.TRUE);
+
+        Tail tail = tails.get(cmdId);
+        if (tail != null) {
+            tail.finished = true;
+        }
+    }
+
+    public void remove(String cmdId) {
+        finished.invalidate(cmdId);
+
+        Tail tail = tails.remove(cmdId);
+        if (tail != null) {
+            synchronized (tail) {
+                tail.clear();
+            }
+        }
+    }
+
+    /**
+     * Estimated memory of buffered lines
+     */
+    public long getNumOfBytes() {
+        return numOfBytes.get();
+    }
+
+    @EventListener
+    public void onStepStatusChange(StepStatusChangeEvent event) {
+        ExecutedCmd cmd = event.getExecutedCmd();
+        if (cmd.isFinished()) {
+            finish(cmd.getId());
+        }
+    }
+
+    /**
+     * Evict down to 90% of max bytes, skipped if other thread is evicting
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            long target = (long) (jobProperties.getLogRecentMaxBytes() * EvictTo);
+
+            List<Map.Entry<String, Tail>> lru = new ArrayList<>(tails.entrySet());
+            lru.sort(Comparator.comparingLong(entry -> entry.getValue().accessedAt));
+
+            // remove finished cmd from least recently used
+            for (Map.Entry<String, Tail> entry : lru) {
+                if (numOfBytes.get() <= target) {
+                    return;
+                }
+
+                if (entry.getValue().finished) {
+                    removeTail(entry.getKey(), entry.getValue());
+                }
+            }
+
+            // remove the oldest lines of running cmd from least recently used, and the tail once empty
+            for (Map.Entry<String, Tail> entry : lru) {
+                Tail tail = entry.getValue();
+
+                synchronized (tail) {
+                    while (!tail.lines.isEmpty() && numOfBytes.get() > target) {
+                        tail.poll();
+                    }
+
+                    if (tail.lines.isEmpty() && tails.remove(entry.getKey(), tail)) {
+                        tail.removed = true;
+                    }
+                }
+
+                if (numOfBytes.get() <= target) {
+                    return;
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private Tail newTail(String cmdId) {
+        Tail tail = new Tail();
+        tail.finished = finished.getIfPresent(cmdId) != null;
+        return tail;
+    }
+
+    private void removeTail(String cmdId, Tail tail) {
+        if (tails.remove(cmdId, tail)) {
+            synchronized (tail) {
+                tail.clear();
+            }
+        }
+    }
+
+    private static long sizeOf(String line) {
+        return 2L * line.length() + LineOverhead;
+    }
+
+    private class Tail {
+
+        private final ArrayDeque<String> lines = new ArrayDeque<>();
+
+        private volatile long accessedAt = System.nanoTime();
+
+        private volatile boolean finished = false;
+
+        private boolean removed = false;
+
+        void add(String line) {
+            lines.add(line);
+            accessedAt = System.nanoTime();
+            numOfBytes.addAndGet(sizeOf(line));
+        }
+
+        void poll() {
+            String line = lines.poll();
+            if (line != null) {
+                numOfBytes.addAndGet(-sizeOf(line));
+            }
+        }
+
+        void clear() {
+            while (!lines.isEmpty()) {
+                poll();
+            }
+            removed = true;
+        }
+    }
+}
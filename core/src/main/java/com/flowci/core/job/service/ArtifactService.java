@@ -35,6 +35,13 @@ public interface ArtifactService {
      */
     void save(Job job, String srcDir, String md5, MultipartFile file);
 
+    /**
+     * Create artifact from file uploaded by other jobs with the same md5, the file doesn't need to upload again
+     *
+     * @return false if file of md5 not existed
+     */
+    boolean link(Job job, String srcDir, String md5, String fileName, String contentType, long contentSize);
+
     /**
      * Fetch report from file store
      *
@@ -19,17 +19,24 @@ package com.flowci.core.job.service;
 import com.flowci.core.job.dao.JobArtifactDao;
 import com.flowci.core.job.domain.Job;
 import com.flowci.core.job.domain.JobArtifact;
+import com.flowci.core.job.event.JobDeletedEvent;
+import com.flowci.exception.ArgumentException;
 import com.flowci.exception.DuplicateException;
 import com.flowci.exception.NotAvailableException;
 import com.flowci.exception.NotFoundException;
+import com.flowci.store.FileContent;
 import com.flowci.store.FileManager;
 import com.flowci.store.Pathable;
 import com.flowci.store.StringPath;
 import com.flowci.util.StringHelper;
 import com.google.api.client.util.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.util.concurrent.Striped;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.event.EventListener;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
@@ -37,8 +44,14 @@ import org.springframework.web.multipart.MultipartFile;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+import java.util.regex.Pattern;
 
 @Log4j2
 @Service
@@ -46,6 +59,11 @@ public class ArtifactServiceImpl implements ArtifactService {
 
     private static final String Separator = "/";
 
+    private static final Pattern Md5Pattern = Pattern.compile("^[0-9a-fA-F]{32}$");
+
+    // existence check of blob and the removal of unreferenced blob are exclusive on the same md5
+    private final Striped<Lock> blobLocks = Striped.lock(64);
+
     @Autowired
     private JobArtifactDao jobArtifactDao;
 
@@ -60,31 +78,58 @@ public class ArtifactServiceImpl implements ArtifactService {
 
     @Override
     public void save(Job job, String srcDir, String md5, MultipartFile file) {
-        srcDir = formatSrcDir(srcDir);
-        Pathable[] artifactPath = getArtifactPath(job, srcDir);
-
-        try (InputStream reportRaw = file.getInputStream()) {
-            // save to file manager by file name
-            String path = fileManager.save(file.getOriginalFilename(), reportRaw, artifactPath);
-
-            JobArtifact artifact = new JobArtifact();
-            artifact.setJobId(job.getId());
-            artifact.setFileName(file.getOriginalFilename());
-            artifact.setContentType(file.getContentType());
-            artifact.setContentSize(file.getSize());
-            artifact.setPath(path);
-            artifact.setSrcDir(srcDir);
-            artifact.setMd5(md5);
-            artifact.setCreatedAt(new Date());
-
-            jobArtifactDao.save(artifact);
+        md5 = formatMd5(md5);
+        JobArtifact artifact = create(job, formatSrcDir(srcDir), md5, file.getOriginalFilename(),
+                file.getContentType(), file.getSize());
+
+        // reference the blob before writing, so it will not be removed by deleting jobs of other flows
+        insert(artifact);
+
+        if (isBlobExisted(md5)) {
+            return;
+        }
+
+        // write to upload path and verify md5, the blob path is shared by concurrent uploads of the same md5
+        String uploadFile = md5 + "-" + UUID.randomUUID();
+        try (InputStream raw = file.getInputStream()) {
+            HashingInputStream hashing = new HashingInputStream(Hashing.md5(), raw);
+            fileManager.save(uploadFile, hashing, file.getSize(), JobArtifact.UploadPath);
+
+            if (!Objects.equals(md5, hashing.hash().toString())) {
+                removeUpload(uploadFile);
+                jobArtifactDao.delete(artifact);
+                throw new ArgumentException("Artifact md5 not matched");
+            }
+
+            moveToBlob(uploadFile, md5);
         } catch (IOException e) {
+            removeUpload(uploadFile);
+            jobArtifactDao.delete(artifact);
             throw new NotAvailableException("Invalid artifact data");
-        } catch (DuplicateKeyException e) {
-            throw new DuplicateException("Duplicate job artifact");
         }
     }
 
+    @Override
+    public boolean link(Job job, String srcDir, String md5, String fileName, String contentType, long contentSize) {
+        md5 = formatMd5(md5);
+
+        Optional<JobArtifact> existed = jobArtifactDao.findFirstByMd5AndBlob(md5, true);
+        if (!existed.isPresent()) {
+            return false;
+        }
+
+        JobArtifact artifact = create(job, formatSrcDir(srcDir), md5, fileName, contentType, contentSize);
+        insert(artifact);
+
+        // blob could be removed or not written yet
+        if (!isBlobExisted(md5)) {
+            jobArtifactDao.delete(artifact);
+            return false;
+        }
+
+        return true;
+    }
+
     @Override
     public JobArtifact fetch(Job job, String artifactId) {
         Optional<JobArtifact> optional = jobArtifactDao.findById(artifactId);
@@ -94,15 +139,144 @@ public class ArtifactServiceImpl implements ArtifactService {
 
         try {
             JobArtifact artifact = optional.get();
-            Pathable[] artifactPath = getArtifactPath(job, artifact.getSrcDir());
-            InputStream stream = fileManager.read(artifact.getFileName(), artifactPath);
-            artifact.setSrc(stream);
+            FileContent content;
+
+            if (artifact.isBlob()) {
+                content = fileManager.getContent(artifact.getMd5(), getBlobPath(artifact.getMd5()));
+            } else {
+                Pathable[] artifactPath = getArtifactPath(job, artifact.getSrcDir());
+                content = fileManager.getContent(artifact.getFileName(), artifactPath);
+            }
+
+            artifact.setContent(content);
             return artifact;
         } catch (IOException e) {
             throw new NotAvailableException("Invalid job artifact");
         }
     }
 
+    /**
+     * Remove artifacts of deleted flow, and blobs no longer referenced by any artifact
+     */
+    @EventListener
+    public void onJobDeleted(JobDeletedEvent event) {
+        String flowId = event.getFlow().getId();
+
+        Set<String> blobs = new HashSet<>();
+        for (JobArtifact artifact : jobArtifactDao.findAllByFlowId(flowId)) {
+            if (artifact.isBlob()) {
+                blobs.add(artifact.getMd5());
+            }
+        }
+
+        Long numOfDeleted = jobArtifactDao.deleteByFlowId(flowId);
+        log.info("Deleted: {} artifacts of flow {}", numOfDeleted, event.getFlow().getName());
+
+        for (String md5 : blobs) {
+            Lock lock = blobLocks.get(md5);
+            lock.lock();
+
+            try {
+                // artifact referenced the blob before the lock will be counted
+                if (jobArtifactDao.countByMd5AndBlob(md5, true) > 0) {
+                    continue;
+                }
+
+                fileManager.remove(md5, getBlobPath(md5));
+            } catch (IOException e) {
+                log.warn("Unable to remove artifact blob {}: {}", md5, e.getMessage());
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private JobArtifact create(Job job, String srcDir, String md5, String fileName, String contentType, long size) {
+        JobArtifact artifact = new JobArtifact();
+        artifact.setJobId(job.getId());
+        artifact.setFlowId(job.getFlowId());
+        artifact.setFileName(fileName);
+        artifact.setContentType(contentType);
+        artifact.setContentSize(size);
+        artifact.setSrcDir(srcDir);
+        artifact.setMd5(md5);
+        artifact.setBlob(true);
+        artifact.setPath(getBlobFile(md5));
+        artifact.setCreatedAt(new Date());
+        return artifact;
+    }
+
+    private void insert(JobArtifact artifact) {
+        try {
+            jobArtifactDao.insert(artifact);
+        } catch (DuplicateKeyException e) {
+            throw new DuplicateException("Duplicate job artifact");
+        }
+    }
+
+    /**
+     * Check blob existence after the artifact inserted, the blob will not be removed after checked
+     * since the artifact is counted as reference
+     */
+    private boolean isBlobExisted(String md5) {
+        Lock lock = blobLocks.get(md5);
+        lock.lock();
+
+        try {
+            return fileManager.exist(md5, getBlobPath(md5));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Move verified upload to blob path, the upload is removed if blob been written by other upload
+     */
+    private void moveToBlob(String uploadFile, String md5) throws IOException {
+        Lock lock = blobLocks.get(md5);
+        lock.lock();
+
+        try {
+            if (fileManager.exist(md5, getBlobPath(md5))) {
+                removeUpload(uploadFile);
+                return;
+            }
+
+            fileManager.move(uploadFile, new Pathable[]{JobArtifact.UploadPath}, md5, getBlobPath(md5));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void removeUpload(String uploadFile) {
+        try {
+            fileManager.remove(uploadFile, JobArtifact.UploadPath);
+        } catch (IOException e) {
+            log.warn("Unable to remove artifact upload {}: {}", uploadFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Blob file path as blobs/{first 2 chars of md5}/{md5}
+     */
+    private static String getBlobFile(String md5) {
+        return JobArtifact.BlobPath.pathName() + Separator + md5.substring(0, 2) + Separator + md5;
+    }
+
+    /**
+     * Blob path as blobs/{first 2 chars of md5}
+     */
+    private static Pathable[] getBlobPath(String md5) {
+        return new Pathable[]{JobArtifact.BlobPath, new StringPath(md5.substring(0, 2))};
+    }
+
+    private static String formatMd5(String md5) {
+        if (md5 == null || !Md5Pattern.matcher(md5).matches()) {
+            throw new ArgumentException("Invalid artifact md5");
+        }
+        return md5.toLowerCase();
+    }
+
     private static Pathable[] getArtifactPath(Job job, String srcDir) {
         String[] split = srcDir.split(Separator);
         List<Pathable> list = Lists.newArrayListWithCapacity(split.length + 3);
@@ -16,12 +16,17 @@
 
 package com.flowci.core.job.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.flowci.core.agent.event.AgentStatusEvent;
+import com.flowci.core.agent.manager.IdleAgentManager;
 import com.flowci.core.agent.service.AgentService;
+import com.flowci.core.common.codec.MessageCodec;
+import com.flowci.core.common.config.ConfigProperties;
 import com.flowci.core.common.domain.Variables;
+import com.flowci.core.common.helper.StripedExecutor;
 import com.flowci.core.common.helper.ThreadHelper;
+import com.flowci.core.common.manager.MessageCodecManager;
 import com.flowci.core.common.manager.SpringEventManager;
+import com.flowci.core.common.rabbit.QueueOperation;
 import com.flowci.core.common.rabbit.RabbitChannelOperation;
 import com.flowci.core.common.rabbit.RabbitOperation;
 import com.flowci.core.common.rabbit.RabbitQueueOperation;
@@ -30,14 +35,20 @@ import com.flowci.core.flow.event.FlowCreatedEvent;
 import com.flowci.core.flow.event.FlowDeletedEvent;
 import com.flowci.core.flow.event.FlowInitEvent;
 import com.flowci.core.job.domain.Job;
+import com.flowci.core.job.domain.JobMessage;
 import com.flowci.core.job.event.CreateNewJobEvent;
 import com.flowci.core.job.event.JobReceivedEvent;
 import com.flowci.core.job.event.NoIdleAgentEvent;
+import com.flowci.core.job.manager.AgentAffinityManager;
 import com.flowci.core.job.manager.CmdManager;
 import com.flowci.core.job.manager.FlowJobQueueManager;
+import com.flowci.core.job.manager.JobScheduler;
+import com.flowci.core.job.manager.JobStateManager;
 import com.flowci.core.job.manager.YmlManager;
 import com.flowci.core.job.util.StatusHelper;
 import com.flowci.domain.*;
+import com.flowci.exception.NotAvailableException;
+import com.flowci.exception.NotFoundException;
 import com.flowci.tree.GroovyRunner;
 import com.flowci.tree.Node;
 import com.flowci.tree.NodePath;
@@ -53,6 +64,7 @@ import org.springframework.stereotype.Service;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 
@@ -62,11 +74,16 @@ public class JobEventServiceImpl implements JobEventService {
 
     private static final Integer DefaultBeforeTimeout = 5;
 
+    private static final long CallbackRequeueDelayInMillis = 100;
+
+    @Autowired
+    private ConfigProperties.Job jobProperties;
+
     @Autowired
     private SpringEventManager eventManager;
 
     @Autowired
-    private ObjectMapper objectMapper;
+    private MessageCodecManager messageCodecManager;
 
     @Autowired
     private YmlManager ymlManager;
@@ -77,11 +94,23 @@ public class JobEventServiceImpl implements JobEventService {
     @Autowired
     private FlowJobQueueManager flowJobQueueManager;
 
+    @Autowired
+    private JobScheduler jobScheduler;
+
+    @Autowired
+    private JobStateManager jobStateManager;
+
     @Autowired
     private RabbitQueueOperation callbackQueueManager;
 
     @Autowired
-    private RabbitQueueOperation deadLetterQueueManager;
+    private StripedExecutor jobCallbackExecutor;
+
+    @Autowired
+    private QueueOperation deadLetterQueueManager;
+
+    @Autowired
+    private ConfigProperties.RabbitMQ rabbitProperties;
 
     @Autowired
     private JobService jobService;
@@ -89,6 +118,12 @@ public class JobEventServiceImpl implements JobEventService {
     @Autowired
     private AgentService agentService;
 
+    @Autowired
+    private IdleAgentManager idleAgentManager;
+
+    @Autowired
+    private AgentAffinityManager agentAffinityManager;
+
     @Autowired
     private StepService stepService;
 
@@ -101,7 +136,34 @@ public class JobEventServiceImpl implements JobEventService {
     @EventListener(FlowInitEvent.class)
     public void startJobQueueConsumers(FlowInitEvent event) {
         for (Flow flow : event.getFlows()) {
-            startJobConsumer(flow);
+            registerJobConsumer(flow);
+        }
+
+        // messages of in process broker are not persisted
+        if (rabbitProperties.getInProcess()) {
+            log.info("{} queued jobs been sent to in process broker", jobService.resendQueued());
+        }
+
+        // activate consumers only for flows that have jobs in queue
+        Set<String> flowIdsInQueue = jobService.listFlowIdsInQueue();
+
+        for (Flow flow : event.getFlows()) {
+            if (!flowIdsInQueue.contains(flow.getId())) {
+                continue;
+            }
+
+            try {
+                flowJobQueueManager.activate(flow.getQueueName());
+            } catch (NotAvailableException e) {
+                log.warn(e.getMessage());
+            }
+        }
+    }
+
+    @EventListener(value = ContextRefreshedEvent.class)
+    public void startJobScheduler(ContextRefreshedEvent event) {
+        if (jobScheduler.isEnabled()) {
+            jobScheduler.start(this::dispatch);
         }
     }
 
@@ -113,12 +175,46 @@ public class JobEventServiceImpl implements JobEventService {
             }
 
             try {
-                ExecutedCmd executedCmd = objectMapper.readValue(message.getBody(), ExecutedCmd.class);
+                MessageCodec codec = messageCodecManager.get(message.getContentType());
+                ExecutedCmd executedCmd = codec.decode(message.getBody(), ExecutedCmd.class);
                 CmdId cmdId = CmdId.parse(executedCmd.getId());
-                log.info("[Callback]: {}-{} = {}", cmdId.getJobId(), cmdId.getNodePath(), executedCmd.getStatus());
 
-                handleCallback(executedCmd);
-                return message.sendAck();
+                if (Objects.isNull(cmdId)) {
+                    log.debug("Illegal cmd callback: {}", executedCmd.getId());
+                    return message.sendAck();
+                }
+
+                // callbacks of the same job will be handled in order, requeue if callback executor is full
+                long handedAt = System.nanoTime();
+                jobCallbackExecutor.execute(cmdId.getJobId(), () -> {
+                    try {
+                        log.info("[Callback]: {}-{} = {}", cmdId.getJobId(), cmdId.getNodePath(), executedCmd.getStatus());
+
+                        if (isDuplicated(executedCmd)) {
+                            log.info("[Callback]: {} duplicated, ignored", executedCmd.getId());
+                            message.sendAck();
+                            return;
+                        }
+
+                        handleCallback(executedCmd);
+                        message.sendAck();
+                    } catch (Throwable e) {
+                        // reject without requeue, otherwise the prefetch slot is held until channel closed
+                        log.warn("[Callback]: unable to handle {}: {}", executedCmd.getId(), e.getMessage());
+                        message.sendNack(false);
+                    } finally {
+                        callbackQueueManager.reportProcessed(System.nanoTime() - handedAt);
+                    }
+                });
+
+                return true;
+            } catch (RejectedExecutionException e) {
+                log.warn("[Callback]: executor is full, requeue the callback");
+
+                // decrease prefetch and delay the requeue, otherwise it will be redelivered immediately
+                callbackQueueManager.reportRejected();
+                ThreadHelper.sleep(CallbackRequeueDelayInMillis);
+                return message.sendNack(true);
             } catch (IOException e) {
                 log.error(e.getMessage());
                 return false;
@@ -130,14 +226,15 @@ public class JobEventServiceImpl implements JobEventService {
 
     @EventListener(value = ContextRefreshedEvent.class)
     public void startJobTimeoutQueueConsumer(ContextRefreshedEvent e) {
-        RabbitOperation.QueueConsumer consumer = deadLetterQueueManager.createConsumer(message -> {
+        String queue = rabbitProperties.getJobDlQueue();
+        QueueOperation.MessageConsumer consumer = deadLetterQueueManager.createConsumer(queue, message -> {
             if (message == RabbitOperation.Message.STOP_SIGN) {
                 log.info("[Job Timeout Consumer] will be stopped");
                 return true;
             }
 
-            Optional<Job> optional = convert(objectMapper, message);
-            if (!optional.isPresent()) {
+            Optional<Job> optional = convert(message);
+            if (!optional.isPresent() || !optional.get().isQueuing()) {
                 return true;
             }
 
@@ -156,7 +253,7 @@ public class JobEventServiceImpl implements JobEventService {
 
     @EventListener
     public void startJobConsumer(FlowCreatedEvent event) {
-        startJobConsumer(event.getFlow());
+        registerJobConsumer(event.getFlow());
     }
 
     @EventListener
@@ -165,22 +262,6 @@ public class JobEventServiceImpl implements JobEventService {
         jobService.start(job);
     }
 
-    @EventListener
-    public void notifyToFindAvailableAgent(AgentStatusEvent event) {
-        Agent agent = event.getAgent();
-
-        if (agent.getStatus() != Agent.Status.IDLE) {
-            return;
-        }
-
-        if (!agent.hasJob()) {
-            return;
-        }
-
-        // notify all consumer to find agent
-        consumeHandlers.forEach((s, handler) -> handler.resume());
-    }
-
     @EventListener(value = AgentStatusEvent.class)
     public void updateJobAndStep(AgentStatusEvent event) {
         Agent agent = event.getAgent();
@@ -202,6 +283,13 @@ public class JobEventServiceImpl implements JobEventService {
             }
         }
 
+        // release other agents which running parallel nodes of the job
+        for (Agent assigned : jobStateManager.getAssigned(job.getId())) {
+            if (!Objects.equals(assigned.getId(), agent.getId())) {
+                agentService.tryRelease(assigned);
+            }
+        }
+
         // update job status
         jobService.setJobStatusAndSave(job, Job.Status.CANCELLED, "Agent unexpected offline");
     }
@@ -222,12 +310,6 @@ public class JobEventServiceImpl implements JobEventService {
         Job job = jobService.get(cmdId.getJobId());
         NodePath currentPath = NodePath.create(cmdId.getNodePath());
 
-        // verify job node path is match cmd node path
-        if (!currentPath.equals(currentNodePath(job))) {
-            log.error("Invalid executed cmd callback: does not match job current node path");
-            return;
-        }
-
         // verify job status
         if (!job.isRunning()) {
             log.error("Cannot handle cmd callback since job is not running: {}", job.getStatus());
@@ -237,35 +319,226 @@ public class JobEventServiceImpl implements JobEventService {
         NodeTree tree = ymlManager.getTree(job);
         Node node = tree.get(currentPath);
 
+        // regular nodes could be running in parallel
+        if (tree.isParallel() && !node.isTail()) {
+            handleParallelCallback(job, tree, node, execCmd);
+            return;
+        }
+
+        // verify job node path is match cmd node path
+        if (!currentPath.equals(currentNodePath(job))) {
+            log.error("Invalid executed cmd callback: does not match job current node path");
+            return;
+        }
+
         // save executed cmd
         stepService.resultUpdate(execCmd);
         log.debug("Executed cmd {} been recorded", execCmd);
 
+        // agent will skip the rest of batch if cmd failed
+        if (!execCmd.isSuccess()) {
+            jobStateManager.clearBatched(job.getId());
+        }
+
         updateJobTime(job, tree, node, execCmd);
 
         setJobContext(job, node, execCmd);
 
         // find next node
         Node next = findNext(job, tree, node, execCmd.isSuccess());
-        Agent current = agentService.get(job.getAgentId());
+        Agent current = jobStateManager.getAgent(job.getId()).orElseGet(() -> agentService.get(job.getAgentId()));
 
         // job finished
         if (Objects.isNull(next)) {
-            Job.Status statusFromContext = Job.Status.valueOf(job.getContext().get(Variables.Job.Status));
-            jobService.setJobStatusAndSave(job, statusFromContext, execCmd.getError());
-
-            agentService.tryRelease(current);
-            logInfo(job, "finished with status {}", statusFromContext);
+            finishJob(job, current, execCmd.getError());
             return;
         }
 
         // continue to run next node
         job.setCurrentPath(next.getPathAsString());
 
+        // next node has been sent to agent within batch
+        if (jobStateManager.removeBatched(job.getId(), next.getPathAsString())) {
+            stepService.statusChange(job, next, ExecutedCmd.Status.RUNNING, null);
+            jobService.setJobStatusAndSave(job, job.getStatus(), null);
+            return;
+        }
+
         log.debug("Send job {} step {} to agent", job.getKey(), node.getName());
         saveJobAndSendToAgent(job, next, current);
     }
 
+    //====================================================================
+    //        %% Parallel nodes
+    //====================================================================
+
+    private void handleParallelCallback(Job job, NodeTree tree, Node node, ExecutedCmd execCmd) {
+        // verify node is running on agent
+        Optional<Agent> agent = jobStateManager.release(job.getId(), node.getPathAsString());
+        if (!agent.isPresent()) {
+            log.error("Invalid executed cmd callback: node {} is not running", node.getPathAsString());
+            return;
+        }
+
+        stepService.resultUpdate(execCmd);
+        log.debug("Executed cmd {} been recorded", execCmd);
+
+        updateJobTime(job, tree, node, execCmd);
+        joinJobContext(job, execCmd);
+        jobService.setJobStatusAndSave(job, job.getStatus(), null);
+
+        // release the agent if it's not the agent assigned to job
+        if (!Objects.equals(agent.get().getId(), job.getAgentId())) {
+            agentService.tryRelease(agent.get());
+        }
+
+        runFrontier(job, tree);
+    }
+
+    /**
+     * Send runnable regular nodes to agents, and run final nodes after all regular nodes finished,
+     * new nodes will not be started once a node failed
+     */
+    private void runFrontier(Job job, NodeTree tree) {
+        while (true) {
+            Set<NodePath> finished = new HashSet<>();
+            Set<NodePath> running = new HashSet<>();
+            boolean failed = false;
+
+            for (ExecutedCmd step : stepService.list(job)) {
+                NodePath path = NodePath.create(step.getNodePath());
+
+                if (step.isRunning()) {
+                    running.add(path);
+                    continue;
+                }
+
+                if (step.isFinished()) {
+                    finished.add(path);
+                    failed = failed || !step.isSuccess();
+                }
+            }
+
+            boolean skipped = false;
+
+            if (!failed) {
+                for (Node node : tree.frontier(finished)) {
+                    if (running.contains(node.getPath())) {
+                        continue;
+                    }
+
+                    if (!executeBeforeCondition(job, node)) {
+                        skipped = true;
+                        continue;
+                    }
+
+                    // wait for running nodes if no more agent available
+                    Optional<Agent> agent = acquireAgent(job);
+                    if (!agent.isPresent()) {
+                        break;
+                    }
+
+                    if (!sendToAgent(job, node, agent.get())) {
+                        failed = true;
+                        break;
+                    }
+
+                    running.add(node.getPath());
+                }
+            }
+
+            // skipped nodes may make more nodes runnable
+            if (skipped && !failed) {
+                continue;
+            }
+
+            if (running.isEmpty()) {
+                runFinal(job, tree);
+                return;
+            }
+
+            jobService.setJobStatusAndSave(job, job.getStatus(), null);
+            return;
+        }
+    }
+
+    /**
+     * Run final nodes in order with the agent assigned to job
+     */
+    private void runFinal(Job job, NodeTree tree) {
+        Agent current = jobStateManager.getAgent(job.getId()).orElseGet(() -> agentService.get(job.getAgentId()));
+
+        Node next = tree.firstFinal();
+        if (next != null && !executeBeforeCondition(job, next)) {
+            next = findNext(job, tree, next, true);
+        }
+
+        if (Objects.isNull(next)) {
+            finishJob(job, current, null);
+            return;
+        }
+
+        job.setCurrentPath(next.getPathAsString());
+        saveJobAndSendToAgent(job, next, current);
+    }
+
+    /**
+     * Use the agent assigned to job if it's free, otherwise try to lock an idle agent
+     */
+    private Optional<Agent> acquireAgent(Job job) {
+        Agent current = jobStateManager.getAgent(job.getId()).orElseGet(() -> agentService.get(job.getAgentId()));
+        if (!jobStateManager.isAssigned(job.getId(), current.getId())) {
+            return Optional.of(current);
+        }
+
+        Optional<Agent> idle = idleAgentManager.take(job.getAgentSelector().getTags());
+        if (!idle.isPresent()) {
+            return Optional.empty();
+        }
+
+        return Optional.ofNullable(lockAvailableAgent(job, idle.get()));
+    }
+
+    private boolean sendToAgent(Job job, Node node, Agent agent) {
+        job.setCurrentPath(node.getPathAsString());
+        jobStateManager.assign(job.getId(), node.getPathAsString(), agent);
+
+        try {
+            stepService.statusChange(job, node, ExecutedCmd.Status.RUNNING, null);
+
+            CmdIn cmd = cmdManager.createShellCmd(job, node);
+            agentService.dispatch(cmd, agent);
+            logInfo(job, "send to agent: step={}, agent={}", node.getName(), agent.getName());
+            return true;
+        } catch (Throwable e) {
+            log.debug("Fail to dispatch job {} to agent {}", job.getId(), agent.getId(), e);
+            stepService.statusChange(job, node, ExecutedCmd.Status.EXCEPTION, e.getMessage());
+            jobStateManager.release(job.getId(), node.getPathAsString());
+
+            if (!Objects.equals(agent.getId(), job.getAgentId())) {
+                agentService.tryRelease(agent);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Merge outputs to job context, the failure status from any node will be kept
+     */
+    private void joinJobContext(Job job, ExecutedCmd cmd) {
+        Vars<String> context = job.getContext();
+        context.merge(cmd.getOutput());
+
+        context.put(Variables.Job.StartAt, job.startAtInStr());
+        context.put(Variables.Job.FinishAt, job.finishAtInStr());
+        context.put(Variables.Job.Steps, stepService.toVarString(job, null));
+
+        Job.Status current = Job.Status.valueOf(context.get(Variables.Job.Status));
+        if (current == Job.Status.RUNNING || current == Job.Status.SUCCESS) {
+            context.put(Variables.Job.Status, StatusHelper.convert(cmd).name());
+        }
+    }
+
     //====================================================================
     //        %% Utils
     //====================================================================
@@ -274,6 +547,25 @@ public class JobEventServiceImpl implements JobEventService {
         log.info("[Job] " + job.getKey() + " " + message, params);
     }
 
+    private void finishJob(Job job, Agent current, String message) {
+        Job.Status statusFromContext = Job.Status.valueOf(job.getContext().get(Variables.Job.Status));
+        jobService.setJobStatusAndSave(job, statusFromContext, message);
+
+        agentService.tryRelease(current);
+        logInfo(job, "finished with status {}", statusFromContext);
+    }
+
+    /**
+     * The callback is duplicated if the step already finished
+     */
+    private boolean isDuplicated(ExecutedCmd execCmd) {
+        try {
+            return stepService.get(execCmd.getId()).isFinished();
+        } catch (NotFoundException e) {
+            return false;
+        }
+    }
+
     private void updateJobTime(Job job, NodeTree tree, Node node, ExecutedCmd cmd) {
         if (tree.isFirst(node.getPath())) {
             job.setStartAt(cmd.getStartAt());
@@ -311,17 +603,17 @@ public class JobEventServiceImpl implements JobEventService {
         return findNext(job, tree, next, true);
     }
 
-    private void startJobConsumer(Flow flow) {
+    /**
+     * Register job consumer for flow, it will be activated on first enqueue
+     */
+    private void registerJobConsumer(Flow flow) {
         String queueName = flow.getQueueName();
 
-        JobConsumerHandler handler = new JobConsumerHandler(queueName);
-        consumeHandlers.put(queueName, handler);
-
-        RabbitQueueOperation manager = flowJobQueueManager.create(queueName);
-        RabbitOperation.QueueConsumer consumer = manager.createConsumer(queueName, handler);
-
-        // start consumer
-        consumer.start(false);
+        flowJobQueueManager.register(queueName, () -> {
+            JobConsumerHandler handler = new JobConsumerHandler(queueName);
+            consumeHandlers.put(queueName, handler);
+            return handler;
+        });
     }
 
     /**
@@ -345,6 +637,14 @@ public class JobEventServiceImpl implements JobEventService {
         job.setAgentSnapshot(available);
         jobService.setJobStatusAndSave(job, Job.Status.RUNNING, null);
 
+        // hold job, steps and agent in memory until job finished
+        jobStateManager.start(job, stepService.list(job), available);
+
+        if (tree.isParallel()) {
+            runFrontier(job, tree);
+            return;
+        }
+
         // execute condition script
         Boolean executed = executeBeforeCondition(job, next);
         if (!executed) {
@@ -384,26 +684,14 @@ public class JobEventServiceImpl implements JobEventService {
         }
     }
 
-    private Agent findAvailableAgent(Job job) {
-        Set<String> agentTags = job.getAgentSelector().getTags();
-        List<Agent> agents = agentService.find(Agent.Status.IDLE, agentTags);
-
-        if (agents.isEmpty()) {
-            return null;
-        }
-
-        Iterator<Agent> availableList = agents.iterator();
-
-        // try to lock it
-        while (availableList.hasNext()) {
-            Agent agent = availableList.next();
-            agent.setJobId(job.getId());
-
-            if (agentService.tryLock(agent)) {
-                return agent;
-            }
+    /**
+     * Try to lock the agent assigned from idle agent index
+     */
+    private Agent lockAvailableAgent(Job job, Agent agent) {
+        agent.setJobId(job.getId());
 
-            availableList.remove();
+        if (agentService.tryLock(agent)) {
+            return agent;
         }
 
         return null;
@@ -423,11 +711,27 @@ public class JobEventServiceImpl implements JobEventService {
 
             jobService.setJobStatusAndSave(job, job.getStatus(), null);
 
-            CmdIn cmd = cmdManager.createShellCmd(job, node);
+            List<Node> batch = collectBatch(job, node);
+            if (batch.size() == 1) {
+                CmdIn cmd = cmdManager.createShellCmd(job, node);
+                agentService.dispatch(cmd, agent);
+                logInfo(job, "send to agent: step={}, agent={}", node.getName(), agent.getName());
+                return;
+            }
+
+            List<String> batchedPaths = new ArrayList<>(batch.size() - 1);
+            for (Node batched : batch.subList(1, batch.size())) {
+                batchedPaths.add(batched.getPathAsString());
+            }
+
+            CmdIn cmd = cmdManager.createBatchCmd(job, batch);
+            jobStateManager.setBatched(job.getId(), batchedPaths);
             agentService.dispatch(cmd, agent);
-            logInfo(job, "send to agent: step={}, agent={}", node.getName(), agent.getName());
+            logInfo(job, "send to agent: step={} with {} following steps, agent={}",
+                    node.getName(), batchedPaths.size(), agent.getName());
         } catch (Throwable e) {
             log.debug("Fail to dispatch job {} to agent {}", job.getId(), agent.getId(), e);
+            jobStateManager.clearBatched(job.getId());
 
             // set current step to exception
             stepService.statusChange(job, node, ExecutedCmd.Status.EXCEPTION, null);
@@ -438,6 +742,29 @@ public class JobEventServiceImpl implements JobEventService {
         }
     }
 
+    /**
+     * Collect following batchable nodes with the node, up to 'app.job.step-batch-size'
+     */
+    private List<Node> collectBatch(Job job, Node node) {
+        List<Node> batch = new LinkedList<>();
+        batch.add(node);
+
+        int max = jobProperties.getStepBatchSize();
+        if (max <= 1) {
+            return batch;
+        }
+
+        NodeTree tree = ymlManager.getTree(job);
+        Node next = tree.next(node.getPath());
+
+        while (next != null && batch.size() < max && cmdManager.isBatchable(next)) {
+            batch.add(next);
+            next = tree.next(next.getPath());
+        }
+
+        return batch;
+    }
+
     private NodePath currentNodePath(Job job) {
         return NodePath.create(job.getCurrentPath());
     }
@@ -445,6 +772,9 @@ public class JobEventServiceImpl implements JobEventService {
     private void stopJobConsumer(Flow flow) {
         String queueName = flow.getQueueName();
 
+        // ack pending jobs before queue removed
+        jobScheduler.remove(flow.getId());
+
         // remove queue manager and send Message.STOP_SIGN to consumer
         flowJobQueueManager.remove(queueName);
 
@@ -464,14 +794,14 @@ public class JobEventServiceImpl implements JobEventService {
 
         private final static long RetryIntervalOnNotFound = 30 * 1000; // 60 seconds
 
-        private final Object lock = new Object();
-
         @Getter
         private final String queueName;
 
         // Message.STOP_SIGN will be coming from other thread
         private final AtomicBoolean isStop = new AtomicBoolean(false);
 
+        private volatile IdleAgentManager.Waiter waiter;
+
         JobConsumerHandler(String queueName) {
             this.queueName = queueName;
         }
@@ -485,7 +815,7 @@ public class JobEventServiceImpl implements JobEventService {
                 return true;
             }
 
-            Optional<Job> optional = convert(objectMapper, message);
+            Optional<Job> optional = convert(message);
             if (!optional.isPresent()) {
                 return true;
             }
@@ -499,20 +829,42 @@ public class JobEventServiceImpl implements JobEventService {
                 return false;
             }
 
-            Agent available;
+            // hand over to central scheduler, the message will be acked after dispatched
+            if (jobScheduler.isEnabled()) {
+                jobScheduler.submit(job, message);
+                return true;
+            }
+
+            Set<String> agentTags = job.getAgentSelector().getTags();
+            Agent available = acquireWarmAgent(job);
 
-            while ((available = findAvailableAgent(job)) == null) {
-                logInfo(job, "waiting for agent...");
-                eventManager.publish(new NoIdleAgentEvent(this, job));
+            while (available == null) {
+                waiter = idleAgentManager.acquire(agentTags);
 
-                synchronized (lock) {
-                    ThreadHelper.wait(lock, RetryIntervalOnNotFound);
+                // stop sign may come before the waiter been created
+                if (isStop.get()) {
+                    idleAgentManager.cancel(waiter);
                 }
 
+                if (!waiter.isAssigned()) {
+                    logInfo(job, "waiting for agent...");
+                    eventManager.publish(new NoIdleAgentEvent(this, job));
+                }
+
+                Optional<Agent> assigned = waiter.get(RetryIntervalOnNotFound);
+                waiter = null;
+
                 if (isStop.get()) {
+                    // put assigned agent back to idle index
+                    assigned.ifPresent(idleAgentManager::onStatusChange);
                     return false;
                 }
 
+                if (assigned.isPresent()) {
+                    available = lockAvailableAgent(job, assigned.get());
+                    continue;
+                }
+
                 if (jobService.isExpired(job)) {
                     jobService.setJobStatusAndSave(job, Job.Status.TIMEOUT, "expired while waiting for agent");
                     logInfo(job, "expired");
@@ -524,17 +876,62 @@ public class JobEventServiceImpl implements JobEventService {
             return message.sendAck();
         }
 
+        /**
+         * Wait for agent which recently ran the flow up to 'app.job.affinity-wait-seconds'
+         */
+        private Agent acquireWarmAgent(Job job) {
+            List<String> warm = agentAffinityManager.getAgents(job.getFlowId());
+            if (warm.isEmpty()) {
+                return null;
+            }
+
+            waiter = idleAgentManager.acquire(job.getAgentSelector().getTags(), warm);
+            long waitInMillis = jobProperties.getAffinityWaitSeconds() * 1000;
+
+            if (isStop.get() || (!waiter.isAssigned() && waitInMillis <= 0)) {
+                idleAgentManager.cancel(waiter);
+            }
+
+            Optional<Agent> assigned = waiter.get(waitInMillis);
+            waiter = null;
+
+            if (!assigned.isPresent()) {
+                return null;
+            }
+
+            if (isStop.get()) {
+                idleAgentManager.onStatusChange(assigned.get());
+                return null;
+            }
+
+            return lockAvailableAgent(job, assigned.get());
+        }
+
         void resume() {
-            synchronized (lock) {
-                lock.notifyAll();
+            IdleAgentManager.Waiter current = waiter;
+            if (current != null) {
+                idleAgentManager.cancel(current);
             }
         }
     }
 
-    private static Optional<Job> convert(ObjectMapper mapper, RabbitChannelOperation.Message message) {
+    /**
+     * Load job from flow job queue message, the message before job message introduced contains whole job in json
+     */
+    private Optional<Job> convert(RabbitChannelOperation.Message message) {
         try {
-            return Optional.of(mapper.readValue(message.getBody(), Job.class));
-        } catch (IOException e) {
+            MessageCodec codec = messageCodecManager.get(message.getContentType());
+            String jobId;
+
+            if (Objects.isNull(message.getContentType())) {
+                jobId = codec.decode(message.getBody(), Job.class).getId();
+            } else {
+                jobId = codec.decode(message.getBody(), JobMessage.class).getJobId();
+            }
+
+            return Optional.of(jobService.get(jobId));
+        } catch (IOException | NotFoundException e) {
+            log.warn("Unable to load job from queue message: {}", e.getMessage());
             return Optional.empty();
         }
     }
@@ -24,6 +24,7 @@ import com.flowci.core.job.domain.JobItem;
 import com.flowci.core.job.domain.JobYml;
 import com.flowci.domain.ExecutedCmd;
 import com.flowci.domain.StringVars;
+import java.util.Set;
 import org.springframework.data.domain.Page;
 
 /**
@@ -56,6 +57,19 @@ public interface JobService {
      */
     Page<JobItem> list(Flow flow, int page, int size);
 
+    /**
+     * List flow ids which have jobs in queue
+     */
+    Set<String> listFlowIdsInQueue();
+
+    /**
+     * Send jobs in queue to flow job queues again with remaining expiry, since messages of in process broker
+     * are lost on restart, expired job will be dead lettered as timeout
+     *
+     * @return num of jobs sent
+     */
+    int resendQueued();
+
     /**
      * Create job by flow and yml
      */
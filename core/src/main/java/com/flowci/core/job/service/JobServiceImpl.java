@@ -18,13 +18,13 @@ package com.flowci.core.job.service;
 
 import static com.flowci.core.trigger.domain.Variables.GIT_AUTHOR;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.flowci.core.agent.service.AgentService;
+import com.flowci.core.common.codec.MessageCodec;
 import com.flowci.core.common.config.ConfigProperties;
 import com.flowci.core.common.domain.Variables;
+import com.flowci.core.common.manager.MessageCodecManager;
 import com.flowci.core.common.manager.SessionManager;
 import com.flowci.core.common.manager.SpringEventManager;
-import com.flowci.core.common.rabbit.RabbitQueueOperation;
 import com.flowci.core.flow.domain.Flow;
 import com.flowci.core.flow.domain.Yml;
 import com.flowci.core.job.dao.JobDao;
@@ -33,6 +33,7 @@ import com.flowci.core.job.dao.JobNumberDao;
 import com.flowci.core.job.domain.Job;
 import com.flowci.core.job.domain.Job.Trigger;
 import com.flowci.core.job.domain.JobItem;
+import com.flowci.core.job.domain.JobMessage;
 import com.flowci.core.job.domain.JobNumber;
 import com.flowci.core.job.domain.JobYml;
 import com.flowci.core.job.event.JobCreatedEvent;
@@ -40,11 +41,13 @@ import com.flowci.core.job.event.JobDeletedEvent;
 import com.flowci.core.job.event.JobStatusChangeEvent;
 import com.flowci.core.job.manager.CmdManager;
 import com.flowci.core.job.manager.FlowJobQueueManager;
+import com.flowci.core.job.manager.JobStateManager;
 import com.flowci.core.job.manager.YmlManager;
 import com.flowci.core.job.util.JobKeyBuilder;
 import com.flowci.domain.Agent;
 import com.flowci.domain.CmdIn;
 import com.flowci.domain.StringVars;
+import com.flowci.exception.NotAvailableException;
 import com.flowci.exception.NotFoundException;
 import com.flowci.exception.StatusException;
 import com.flowci.store.FileManager;
@@ -54,8 +57,10 @@ import java.io.IOException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -75,6 +80,13 @@ public class JobServiceImpl implements JobService {
 
     private static final Sort SortByBuildNumber = Sort.by(Direction.DESC, "buildNumber");
 
+    private static final Sort SortByCreatedAt = Sort.by(Direction.ASC, "createdAt");
+
+    // fields could be changed while job is running
+    private static final String[] JobStateFields = {
+        "status", "message", "context", "currentPath", "agentId", "agentInfo", "startAt", "finishAt"
+    };
+
     //====================================================================
     //        %% Spring injection
     //====================================================================
@@ -86,7 +98,7 @@ public class JobServiceImpl implements JobService {
     private ConfigProperties.Job jobProperties;
 
     @Autowired
-    private ObjectMapper objectMapper;
+    private MessageCodecManager messageCodecManager;
 
     @Autowired
     private JobDao jobDao;
@@ -125,12 +137,20 @@ public class JobServiceImpl implements JobService {
     @Autowired
     private FlowJobQueueManager flowJobQueueManager;
 
+    @Autowired
+    private JobStateManager jobStateManager;
+
     //====================================================================
     //        %% Public functions
     //====================================================================
 
     @Override
     public Job get(String jobId) {
+        Optional<Job> running = jobStateManager.getJob(jobId);
+        if (running.isPresent()) {
+            return running.get();
+        }
+
         Optional<Job> job = jobDao.findById(jobId);
 
         if (job.isPresent()) {
@@ -143,6 +163,11 @@ public class JobServiceImpl implements JobService {
     @Override
     public Job get(Flow flow, Long buildNumber) {
         String key = JobKeyBuilder.build(flow, buildNumber);
+        Optional<Job> running = jobStateManager.getJobByKey(key);
+        if (running.isPresent()) {
+            return running.get();
+        }
+
         Optional<Job> optional = jobDao.findByKey(key);
 
         if (optional.isPresent()) {
@@ -176,6 +201,41 @@ public class JobServiceImpl implements JobService {
         return jobItemDao.findAllByFlowId(flow.getId(), pageable);
     }
 
+    @Override
+    public Set<String> listFlowIdsInQueue() {
+        Set<String> flowIds = new HashSet<>();
+        for (Job job : jobDao.findFlowIdByStatus(Job.Status.QUEUED)) {
+            flowIds.add(job.getFlowId());
+        }
+        return flowIds;
+    }
+
+    @Override
+    public int resendQueued() {
+        MessageCodec codec = messageCodecManager.getJobCodec();
+        long now = Instant.now().getEpochSecond();
+        int numOfSent = 0;
+
+        for (Job job : jobDao.findQueueInfoByStatus(Job.Status.QUEUED, SortByCreatedAt)) {
+            // expire at includes execution timeout
+            long expireAt = job.getExpireAt().getTime() / 1000 - job.getTimeout();
+            long remaining = Math.max(0, expireAt - now);
+
+            try {
+                byte[] body = codec.encode(new JobMessage(job.getId(), job.getPriority()));
+                String queueName = job.getQueueName();
+
+                if (flowJobQueueManager.send(queueName, codec.getContentType(), body, job.getPriority(), remaining)) {
+                    numOfSent++;
+                }
+            } catch (Throwable e) {
+                log.warn("Unable to resend queued job {}: {}", job.getId(), e.getMessage());
+            }
+        }
+
+        return numOfSent;
+    }
+
     @Override
     public Job create(Flow flow, Yml yml, Trigger trigger, StringVars input) {
         // verify yml and parse to Node
@@ -266,6 +326,19 @@ public class JobServiceImpl implements JobService {
                 CmdIn killCmd = cmdManager.createKillCmd();
                 agentService.dispatch(killCmd, agent);
                 logInfo(job, " cancel cmd been send to {}", agent.getName());
+
+                // kill parallel nodes running on other agents
+                for (Agent assigned : jobStateManager.getAssigned(job.getId())) {
+                    if (Objects.equals(assigned.getId(), agent.getId())) {
+                        continue;
+                    }
+
+                    try {
+                        agentService.dispatch(cmdManager.createKillCmd(), assigned);
+                    } catch (NotAvailableException e) {
+                        log.warn("Unable to send cancel cmd to {}: {}", assigned.getName(), e.getMessage());
+                    }
+                }
             } else {
                 setJobStatusAndSave(job, Job.Status.CANCELLED, "cancel while agent offline");
             }
@@ -301,13 +374,13 @@ public class JobServiceImpl implements JobService {
     @Override
     public Job setJobStatusAndSave(Job job, Job.Status newStatus, String message) {
         if (job.getStatus() == newStatus) {
-            return jobDao.save(job);
+            return save(job);
         }
 
         job.setStatus(newStatus);
         job.setMessage(message);
         job.getContext().put(Variables.Job.Status, newStatus.name());
-        jobDao.save(job);
+        save(job);
         eventManager.publish(new JobStatusChangeEvent(this, job));
         return job;
     }
@@ -346,12 +419,16 @@ public class JobServiceImpl implements JobService {
         }
 
         try {
-            RabbitQueueOperation manager = flowJobQueueManager.get(job.getQueueName());
-
             setJobStatusAndSave(job, Job.Status.QUEUED, null);
-            byte[] body = objectMapper.writeValueAsBytes(job);
+            // only job id in queue, the job will be loaded when consumed
+            MessageCodec codec = messageCodecManager.getJobCodec();
+            byte[] body = codec.encode(new JobMessage(job.getId(), job.getPriority()));
+            String contentType = codec.getContentType();
+
+            if (!flowJobQueueManager.send(job.getQueueName(), contentType, body, job.getPriority(), job.getExpire())) {
+                throw new StatusException("message not confirmed by queue");
+            }
 
-            manager.send(body, job.getPriority(), job.getExpire());
             logInfo(job, "enqueue");
 
             return job;
@@ -360,6 +437,23 @@ public class JobServiceImpl implements JobService {
         }
     }
 
+    /**
+     * Save job, it will be written behind by state manager if the job is running
+     */
+    private Job save(Job job) {
+        if (!jobStateManager.isTracked(job.getId())) {
+            return jobDao.save(job);
+        }
+
+        jobStateManager.update(job, JobStateFields);
+
+        if (job.isDone()) {
+            jobStateManager.finish(job.getId());
+        }
+
+        return job;
+    }
+
     private void logInfo(Job job, String message, Object... params) {
         log.info("[Job] " + job.getKey() + " " + message, params);
     }
@@ -16,10 +16,15 @@
 
 package com.flowci.core.job.service;
 
+import com.flowci.core.job.domain.LogMatch;
+import com.flowci.core.job.domain.LogSearchResult;
 import com.flowci.domain.ExecutedCmd;
+import com.flowci.store.FileContent;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
 import org.springframework.core.io.Resource;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -39,6 +44,14 @@ public interface LoggingService {
      */
     Page<String> read(ExecutedCmd cmd, Pageable pageable);
 
+    /**
+     * Get recent lines of running or recently finished step from memory, in the same format as web socket frame
+     *
+     * @param cmdId cmd id
+     * @return lines from the oldest, empty if not available
+     */
+    List<String> readRecent(String cmdId);
+
     /**
      * Save log into file system, return the id of file
      *
@@ -55,4 +68,19 @@ public interface LoggingService {
      */
     Resource get(String cmdId);
 
+    /**
+     * Get log content with length for ranged download, length is unknown if step is running
+     *
+     * @param cmdId cmd id
+     */
+    FileContent getContent(String cmdId);
+
+    /**
+     * Search lines contain the query from logs of steps in parallel,
+     * matches are sent to consumer from worker threads once found
+     *
+     * @param limit max num of matches, up to 'app.job.log-search-max-matches'
+     * @return num of matches and steps skipped
+     */
+    LogSearchResult search(List<ExecutedCmd> steps, String query, int limit, Consumer<LogMatch> consumer);
 }
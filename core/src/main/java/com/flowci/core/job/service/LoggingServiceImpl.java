@@ -16,29 +16,48 @@
 
 package com.flowci.core.job.service;
 
+import com.flowci.core.common.config.ConfigProperties;
+import com.flowci.core.common.helper.BlockDeflateHelper;
 import com.flowci.core.common.helper.CacheHelper;
 import com.flowci.core.common.rabbit.RabbitChannelOperation;
 import com.flowci.core.common.rabbit.RabbitOperation;
 import com.flowci.core.common.rabbit.RabbitQueueOperation;
 import com.flowci.core.flow.domain.Flow;
 import com.flowci.core.job.domain.Job;
+import com.flowci.core.job.domain.LogIndex;
+import com.flowci.core.job.domain.LogMatch;
+import com.flowci.core.job.domain.LogSearchResult;
+import com.flowci.core.job.manager.LogPushManager;
+import com.flowci.core.job.manager.LogSegmentManager;
+import com.flowci.core.job.manager.RecentLogManager;
 import com.flowci.domain.ExecutedCmd;
 import com.flowci.domain.LogItem;
 import com.flowci.exception.NotFoundException;
+import com.flowci.store.FileContent;
 import com.flowci.store.FileManager;
+import com.flowci.store.LimitedInputStream;
 import com.flowci.store.Pathable;
 import com.flowci.util.FileHelper;
 import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.RemovalCause;
-import com.github.benmanes.caffeine.cache.RemovalListener;
 import com.google.common.collect.ImmutableList;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import lombok.extern.log4j.Log4j2;
@@ -51,8 +70,9 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
 
 /**
  * @author yang
@@ -71,14 +91,23 @@ public class LoggingServiceImpl implements LoggingService {
 
     private static final Pathable LogPath = () -> "logs";
 
-    private Cache<String, BufferedReader> logReaderCache =
-        CacheHelper.createLocalCache(10, 60, new ReaderCleanUp());
+    // key as cmd id
+    private final Cache<String, LogIndex> logIndexCache = CacheHelper.createLocalCache(1000, 3600);
 
     @Autowired
-    private String topicForLogs;
+    private ConfigProperties.Job jobProperties;
 
     @Autowired
-    private SimpMessagingTemplate simpMessagingTemplate;
+    private LogPushManager logPushManager;
+
+    @Autowired
+    private LogSegmentManager logSegmentManager;
+
+    @Autowired
+    private RecentLogManager recentLogManager;
+
+    @Autowired
+    private ThreadPoolTaskExecutor logSearchExecutor;
 
     @Autowired
     private FileManager fileManager;
@@ -98,10 +127,11 @@ public class LoggingServiceImpl implements LoggingService {
 
             final String msg = new String(message.getBody(), StandardCharsets.UTF_8);
             handleLoggingItem(msg);
-            return true;
+            return message.sendAck();
         });
 
-        consumer.start(true);
+        // manual ack to apply prefetch limit on log bursts
+        consumer.start(false);
     }
 
     @Override
@@ -111,75 +141,286 @@ public class LoggingServiceImpl implements LoggingService {
         // find cmd id from log item string
         int firstIndex = message.indexOf(LogItem.SPLITTER);
         String cmdId = message.substring(0, firstIndex);
-        String destination = topicForLogs + "/" + cmdId;
 
-        // send string message without cmd id
-        String body = message.substring(firstIndex + 1);
-        simpMessagingTemplate.convertAndSend(destination, body);
+        appendToSegment(cmdId, message, firstIndex);
+
+        // string message without cmd id, kept for late subscriber
+        String line = message.substring(firstIndex + 1);
+        recentLogManager.add(cmdId, line);
+
+        if (logPushManager.isDropped(cmdId)) {
+            return;
+        }
+
+        // push in batch
+        logPushManager.push(cmdId, line);
     }
 
     @Override
     public Page<String> read(ExecutedCmd cmd, Pageable pageable) {
-        BufferedReader reader = getReader(cmd.getId());
+        String cmdId = cmd.getId();
+        Pathable[] logDir = getLogDir(cmd);
+        LogIndex index = getIndex(cmdId, logDir);
 
-        if (Objects.isNull(reader)) {
-            return LogNotFound;
+        // uploaded log is complete, live segments are used before uploaded
+        if (Objects.isNull(index)) {
+            return logSegmentManager.exist(cmdId) ? readFromSegment(cmdId, pageable) : LogNotFound;
         }
 
-        try (Stream<String> lines = reader.lines()) {
-            int i = pageable.getPageNumber() * pageable.getPageSize();
+        long from = (long) pageable.getPageNumber() * pageable.getPageSize();
+        if (from >= index.getNumOfLines()) {
+            return new PageImpl<>(Collections.emptyList(), pageable, index.getNumOfLines());
+        }
 
-            List<String> logs = lines.skip(i)
-                .limit(pageable.getPageSize())
-                .collect(Collectors.toList());
+        // only lines between the nearest indexed lines of the page are read
+        long offset = index.floorOffset(from);
+        long length = index.ceilOffset(from + pageable.getPageSize()) - offset;
 
-            return new PageImpl<>(logs, pageable, cmd.getLogSize());
-        } finally {
-            try {
-                reader.reset();
-            } catch (IOException e) {
-                // reset will be failed if all lines been read
-                logReaderCache.invalidate(cmd.getId());
+        try (InputStream stream = open(cmdId, logDir, index, offset, length)) {
+            InputStreamReader streamReader = new InputStreamReader(stream, StandardCharsets.UTF_8);
+            BufferedReader reader = new BufferedReader(streamReader, FileBufferSize);
+
+            try (Stream<String> lines = reader.lines()) {
+                List<String> logs = lines.skip(from - index.floorLine(from))
+                    .limit(pageable.getPageSize())
+                    .collect(Collectors.toList());
+
+                return new PageImpl<>(logs, pageable, index.getNumOfLines());
             }
+        } catch (IOException e) {
+            log.warn("Unable to read log of {}: {}", cmdId, e.getMessage());
+            return LogNotFound;
         }
     }
 
+    @Override
+    public List<String> readRecent(String cmdId) {
+        return recentLogManager.get(cmdId);
+    }
+
     @Override
     public String save(String fileName, InputStream stream) throws IOException {
         String cmdId = FileHelper.getName(fileName);
         Pathable[] logDir = getLogDir(cmdId);
-        return fileManager.save(fileName, stream, logDir);
+
+        // build line index while saving, pages can be read from offset without scanning
+        LogIndex index = new LogIndex(getIndexInterval(), jobProperties.getLogBlockSize());
+        LogIndex.IndexingInputStream indexing = new LogIndex.IndexingInputStream(stream, index);
+
+        // compress to blocks, only blocks of the page will be decompressed when reading
+        InputStream compressed = BlockDeflateHelper.compress(indexing, index.getBlockSize(), index::addBlock);
+        String path = fileManager.save(getCompressedLogFile(cmdId), compressed, logDir);
+
+        fileManager.save(getIndexFile(cmdId), new ByteArrayInputStream(index.encode()), logDir);
+        logIndexCache.put(cmdId, index);
+
+        // uploaded log is complete, live segments are not needed
+        logSegmentManager.uploaded(cmdId);
+        recentLogManager.finish(cmdId);
+        return path;
     }
 
     @Override
     public Resource get(String cmdId) {
         try {
-            String fileName = getLogFile(cmdId);
-            InputStream stream = fileManager.read(fileName, getLogDir(cmdId));
-            return new InputStreamResource(stream);
+            return new InputStreamResource(open(stepService.get(cmdId)));
+        } catch (IOException e) {
+            throw new NotFoundException("Log not available");
+        }
+    }
+
+    @Override
+    public FileContent getContent(String cmdId) {
+        Pathable[] logDir = getLogDir(cmdId);
+        LogIndex index = getIndex(cmdId, logDir);
+
+        if (Objects.isNull(index)) {
+            if (logSegmentManager.exist(cmdId)) {
+                return new FileContent(FileContent.UnknownLength, (offset, length) -> logSegmentManager.stream(cmdId));
+            }
+            throw new NotFoundException("Log not available");
+        }
+
+        try {
+            // uploaded raw log could be sent from file directly
+            if (!index.isCompressed()) {
+                return fileManager.getContent(getLogFile(cmdId), logDir);
+            }
         } catch (IOException e) {
             throw new NotFoundException("Log not available");
         }
+
+        return new FileContent(index.getNumOfBytes(), (offset, length) -> open(cmdId, logDir, index, offset, length));
     }
 
-    private BufferedReader getReader(String cmdId) {
-        return logReaderCache.get(cmdId, key -> {
+    @Override
+    public LogSearchResult search(List<ExecutedCmd> steps, String query, int limit, Consumer<LogMatch> consumer) {
+        int max = Math.min(limit, jobProperties.getLogSearchMaxMatches());
+        LogSearch search = new LogSearch(query, max, consumer);
+        CountDownLatch latch = new CountDownLatch(steps.size());
+
+        for (ExecutedCmd step : steps) {
             try {
-                String fileName = getLogFile(cmdId);
-                InputStream stream = fileManager.read(fileName, getLogDir(cmdId));
-                InputStreamReader streamReader = new InputStreamReader(stream);
-                BufferedReader reader = new BufferedReader(streamReader, FileBufferSize);
-                reader.mark(1);
-                return reader;
+                logSearchExecutor.execute(() -> {
+                    try {
+                        search.scan(step);
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                log.warn("Unable to search log of {} since too many searches", step.getId());
+                latch.countDown();
+            }
+        }
+
+        try {
+            if (!latch.await(jobProperties.getLogSearchTimeoutInSeconds(), TimeUnit.SECONDS)) {
+                log.debug("Log search of '{}' timeout", query);
+            }
+        } catch (InterruptedException ignore) {
+
+        } finally {
+            search.stop();
+        }
+
+        return search.getResult(steps);
+    }
+
+    /**
+     * Log item string without cmd id: type#number#content
+     */
+    private void appendToSegment(String cmdId, String message, int firstIndex) {
+        int secondIndex = message.indexOf(LogItem.SPLITTER, firstIndex + 1);
+        int thirdIndex = secondIndex < 0 ? -1 : message.indexOf(LogItem.SPLITTER, secondIndex + 1);
+
+        if (thirdIndex < 0) {
+            logSegmentManager.append(cmdId, Long.MAX_VALUE, message.substring(firstIndex + 1));
+            return;
+        }
+
+        try {
+            long number = Long.parseLong(message.substring(secondIndex + 1, thirdIndex));
+            logSegmentManager.append(cmdId, number, message.substring(thirdIndex + 1));
+        } catch (NumberFormatException e) {
+            logSegmentManager.append(cmdId, Long.MAX_VALUE, message.substring(firstIndex + 1));
+        }
+    }
+
+    private Page<String> readFromSegment(String cmdId, Pageable pageable) {
+        try {
+            long from = (long) pageable.getPageNumber() * pageable.getPageSize();
+            List<String> logs = logSegmentManager.read(cmdId, from, pageable.getPageSize());
+            return new PageImpl<>(logs, pageable, logSegmentManager.size(cmdId));
+        } catch (IOException e) {
+            log.warn("Unable to read log segments of {}: {}", cmdId, e.getMessage());
+            return LogNotFound;
+        }
+    }
+
+    /**
+     * Load index of uploaded log, index will be built by scanning if log uploaded without index
+     * - storage is not looked up while log of running step is in live segments
+     *
+     * @return null if log not uploaded
+     */
+    private LogIndex getIndex(String cmdId, Pathable[] logDir) {
+        LogIndex cached = logIndexCache.getIfPresent(cmdId);
+        if (cached != null) {
+            return cached;
+        }
+
+        if (!logSegmentManager.isUploaded(cmdId) && logSegmentManager.exist(cmdId)) {
+            return null;
+        }
+
+        return logIndexCache.get(cmdId, key -> {
+            try (InputStream stream = fileManager.read(getIndexFile(cmdId), logDir)) {
+                return LogIndex.decode(StreamUtils.copyToByteArray(stream));
+            } catch (IOException ignore) {
+                // index not existed
+            }
+
+            try (InputStream stream = fileManager.read(getLogFile(cmdId), logDir)) {
+                LogIndex.IndexingInputStream indexing = new LogIndex.IndexingInputStream(stream, getIndexInterval());
+                StreamUtils.drain(indexing);
+                return indexing.getIndex();
             } catch (IOException e) {
                 return null;
             }
         });
     }
 
+    /**
+     * Open whole log of step from uploaded log, or live segments if not uploaded
+     */
+    private InputStream open(ExecutedCmd cmd) throws IOException {
+        String cmdId = cmd.getId();
+        Pathable[] logDir = getLogDir(cmd);
+        LogIndex index = getIndex(cmdId, logDir);
+
+        if (Objects.isNull(index)) {
+            if (logSegmentManager.exist(cmdId)) {
+                return logSegmentManager.stream(cmdId);
+            }
+            throw new FileNotFoundException(getLogFile(cmdId));
+        }
+
+        return open(cmdId, logDir, index, 0, -1);
+    }
+
+    /**
+     * Open uploaded log from raw offset up to length of bytes, or to the end if length is negative
+     * - only blocks of the range will be read and decompressed if log is compressed
+     */
+    private InputStream open(String cmdId, Pathable[] logDir, LogIndex index, long offset, long length)
+            throws IOException {
+        if (!index.isCompressed()) {
+            return fileManager.read(getLogFile(cmdId), offset, length, logDir);
+        }
+
+        long start = index.blockOffset(offset);
+        long end = length < 0 ? -1 : index.blockEnd(offset + Math.max(length, 1) - 1);
+
+        InputStream stream = fileManager.read(getCompressedLogFile(cmdId), start, end < 0 ? -1 : end - start, logDir);
+        InputStream raw = skipOrClose(BlockDeflateHelper.decompress(stream), offset - index.blockStart(offset));
+        return length < 0 ? raw : new LimitedInputStream(raw, length);
+    }
+
+    private static InputStream skipOrClose(InputStream stream, long n) throws IOException {
+        try {
+            skipFully(stream, n);
+            return stream;
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+    }
+
+    private int getIndexInterval() {
+        return jobProperties.getLogIndexInterval();
+    }
+
+    private static void skipFully(InputStream stream, long n) throws IOException {
+        while (n > 0) {
+            long skipped = stream.skip(n);
+
+            if (skipped <= 0) {
+                if (stream.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+
+            n -= skipped;
+        }
+    }
+
     private Pathable[] getLogDir(String cmdId) {
-        ExecutedCmd cmd = stepService.get(cmdId);
+        return getLogDir(stepService.get(cmdId));
+    }
 
+    private Pathable[] getLogDir(ExecutedCmd cmd) {
         return new Pathable[]{
             Flow.path(cmd.getFlowId()),
             Job.path(cmd.getBuildNumber()),
@@ -187,23 +428,120 @@ public class LoggingServiceImpl implements LoggingService {
         };
     }
 
-    private String getLogFile(String cmdId) {
-        return cmdId + ".log";
-    }
+    /**
+     * Search state shared by scan of steps, consumer is called one by one and not called after stopped
+     */
+    private class LogSearch {
+
+        private final String query;
+
+        private final int max;
+
+        private final Consumer<LogMatch> consumer;
+
+        private final Set<String> scanned = ConcurrentHashMap.newKeySet();
 
-    private static class ReaderCleanUp implements RemovalListener<String, BufferedReader> {
+        private int numOfMatches = 0;
 
-        @Override
-        public void onRemoval(String key, BufferedReader reader, RemovalCause cause) {
-            if (Objects.isNull(reader)) {
+        private volatile boolean stopped = false;
+
+        LogSearch(String query, int max, Consumer<LogMatch> consumer) {
+            this.query = query;
+            this.max = max;
+            this.consumer = consumer;
+        }
+
+        void scan(ExecutedCmd step) {
+            if (isStopped()) {
                 return;
             }
 
-            try {
-                reader.close();
+            try (InputStream stream = open(step)) {
+                InputStreamReader streamReader = new InputStreamReader(stream, StandardCharsets.UTF_8);
+                BufferedReader reader = new BufferedReader(streamReader, FileBufferSize);
+
+                String line;
+                long number = 0;
+
+                while ((line = reader.readLine()) != null) {
+                    number++;
+
+                    if (line.contains(query) && !onMatch(new LogMatch(step.getId(), number, line))) {
+                        return;
+                    }
+
+                    if (isStopped()) {
+                        return;
+                    }
+                }
+
+                scanned.add(step.getId());
+            } catch (FileNotFoundException e) {
+                // step without log
+                scanned.add(step.getId());
             } catch (IOException e) {
-                log.debug(e);
+                log.debug("Unable to search log of {}: {}", step.getId(), e.getMessage());
             }
         }
+
+        /**
+         * @return false if search stopped
+         */
+        synchronized boolean onMatch(LogMatch match) {
+            if (stopped) {
+                return false;
+            }
+
+            try {
+                consumer.accept(match);
+            } catch (RuntimeException e) {
+                log.debug("Log search of '{}' stopped: {}", query, e.getMessage());
+                stopped = true;
+                return false;
+            }
+
+            if (++numOfMatches >= max) {
+                stopped = true;
+            }
+
+            return !stopped;
+        }
+
+        boolean isStopped() {
+            return stopped;
+        }
+
+        synchronized void stop() {
+            stopped = true;
+        }
+
+        /**
+         * Steps not scanned to the end are skipped, unless stopped by max num of matches
+         */
+        synchronized LogSearchResult getResult(List<ExecutedCmd> steps) {
+            List<String> skipped = new ArrayList<>();
+
+            if (numOfMatches < max) {
+                for (ExecutedCmd step : steps) {
+                    if (!scanned.contains(step.getId())) {
+                        skipped.add(step.getId());
+                    }
+                }
+            }
+
+            return new LogSearchResult(numOfMatches, skipped);
+        }
+    }
+
+    private String getLogFile(String cmdId) {
+        return cmdId + ".log";
+    }
+
+    private String getCompressedLogFile(String cmdId) {
+        return cmdId + ".logz";
+    }
+
+    private String getIndexFile(String cmdId) {
+        return cmdId + ".idx";
     }
 }
@@ -23,6 +23,7 @@ import com.flowci.core.job.dao.ExecutedCmdDao;
 import com.flowci.core.job.domain.Job;
 import com.flowci.core.job.event.StepStatusChangeEvent;
 import com.flowci.core.job.manager.CmdManager;
+import com.flowci.core.job.manager.JobStateManager;
 import com.flowci.core.job.manager.YmlManager;
 import com.flowci.domain.CmdId;
 import com.flowci.domain.ExecutedCmd;
@@ -49,6 +50,11 @@ import org.springframework.stereotype.Service;
 @Service
 public class StepServiceImpl implements StepService {
 
+    // fields reported from agent
+    private static final String[] StepResultFields = {
+        "processId", "code", "startAt", "finishAt", "logSize", "output"
+    };
+
     @Autowired
     private Cache<String, List<ExecutedCmd>> jobStepCache;
 
@@ -64,6 +70,9 @@ public class StepServiceImpl implements StepService {
     @Autowired
     private SpringEventManager eventManager;
 
+    @Autowired
+    private JobStateManager jobStateManager;
+
     @Override
     public List<ExecutedCmd> init(Job job) {
         NodeTree tree = ymlManager.getTree(job);
@@ -88,6 +97,11 @@ public class StepServiceImpl implements StepService {
 
     @Override
     public ExecutedCmd get(String cmdId) {
+        Optional<ExecutedCmd> running = jobStateManager.getStep(cmdId);
+        if (running.isPresent()) {
+            return running.get();
+        }
+
         Optional<ExecutedCmd> optional = executedCmdDao.findById(cmdId);
 
         if (optional.isPresent()) {
@@ -99,6 +113,11 @@ public class StepServiceImpl implements StepService {
 
     @Override
     public List<ExecutedCmd> list(Job job) {
+        Optional<List<ExecutedCmd>> running = jobStateManager.getSteps(job.getId());
+        if (running.isPresent()) {
+            return running.get();
+        }
+
         return jobStepCache.get(job.getId(),
                 s -> executedCmdDao.findByFlowIdAndBuildNumber(job.getFlowId(), job.getBuildNumber()));
     }
@@ -136,7 +155,7 @@ public class StepServiceImpl implements StepService {
 
         entity.setStatus(status);
         entity.setError(err);
-        executedCmdDao.save(entity);
+        save(entity, "status", "error");
 
         jobStepCache.invalidate(entity.getJobId());
         eventManager.publish(new StepStatusChangeEvent(this, entity));
@@ -155,6 +174,10 @@ public class StepServiceImpl implements StepService {
         entity.setLogSize(cmd.getLogSize());
         entity.setOutput(cmd.getOutput());
 
+        if (jobStateManager.isTracked(entity.getJobId())) {
+            jobStateManager.update(entity, StepResultFields);
+        }
+
         // change status and save
         statusChange(entity, cmd.getStatus(), cmd.getError());
     }
@@ -163,4 +186,16 @@ public class StepServiceImpl implements StepService {
     public Long delete(String flowId) {
         return executedCmdDao.deleteByFlowId(flowId);
     }
+
+    /**
+     * Save step, only given fields will be written behind by state manager if the job is running
+     */
+    private void save(ExecutedCmd entity, String... fields) {
+        if (jobStateManager.isTracked(entity.getJobId())) {
+            jobStateManager.update(entity, fields);
+            return;
+        }
+
+        executedCmdDao.save(entity);
+    }
 }
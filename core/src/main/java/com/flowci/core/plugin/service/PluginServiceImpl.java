@@ -38,13 +38,16 @@ import java.time.Instant;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import lombok.extern.log4j.Log4j2;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
@@ -84,6 +87,11 @@ public class PluginServiceImpl implements PluginService {
 
     private final Object reloadLock = new Object();
 
+    // in memory plugin registry, key as plugin name, loaded once and refreshed by RepoCloneEvent
+    private final Map<String, Plugin> registry = new ConcurrentHashMap<>();
+
+    private volatile boolean registryLoaded = false;
+
     @Override
     public Collection<Plugin> list() {
         return pluginDao.findAll();
@@ -91,10 +99,19 @@ public class PluginServiceImpl implements PluginService {
 
     @Override
     public Plugin get(String name) {
+        loadRegistry();
+
+        Plugin plugin = registry.get(name);
+        if (plugin != null) {
+            return plugin;
+        }
+
         Optional<Plugin> optional = pluginDao.findByName(name);
         if (!optional.isPresent()) {
             throw new NotFoundException("The plugin {0} is not found", name);
         }
+
+        registry.put(name, optional.get());
         return optional.get();
     }
 
@@ -141,8 +158,7 @@ public class PluginServiceImpl implements PluginService {
         for (PluginRepoInfo repo : repos) {
             repoCloneExecutor.execute(() -> {
                 try {
-                    Plugin plugin = clone(repo);
-                    saveOrUpdate(plugin);
+                    Plugin plugin = saveOrUpdate(clone(repo));
                     context.publishEvent(new RepoCloneEvent(this, plugin));
                     log.info("Plugin {} been clone", plugin);
                 } catch (CIException e) {
@@ -158,6 +174,7 @@ public class PluginServiceImpl implements PluginService {
     public void reload() {
         synchronized (reloadLock) {
             pluginDao.deleteAll();
+            registry.clear();
 
             String repoUrl = pluginProperties.getDefaultRepo();
             List<PluginRepoInfo> repos = load(repoUrl);
@@ -172,17 +189,40 @@ public class PluginServiceImpl implements PluginService {
         }
     }
 
-    private void saveOrUpdate(Plugin pluginFromRepo) {
+    @EventListener
+    public void onRepoCloned(RepoCloneEvent event) {
+        Plugin plugin = event.getPlugin();
+        registry.put(plugin.getName(), plugin);
+    }
+
+    private void loadRegistry() {
+        if (registryLoaded) {
+            return;
+        }
+
+        synchronized (registry) {
+            if (registryLoaded) {
+                return;
+            }
+
+            for (Plugin plugin : pluginDao.findAll()) {
+                registry.putIfAbsent(plugin.getName(), plugin);
+            }
+
+            registryLoaded = true;
+        }
+    }
+
+    private Plugin saveOrUpdate(Plugin pluginFromRepo) {
         Optional<Plugin> optional = pluginDao.findByName(pluginFromRepo.getName());
 
         if (optional.isPresent()) {
             Plugin exist = optional.get();
             exist.update(pluginFromRepo);
-            pluginDao.save(exist);
-            return;
+            return pluginDao.save(exist);
         }
 
-        pluginDao.save(pluginFromRepo);
+        return pluginDao.save(pluginFromRepo);
     }
 
     private Plugin clone(PluginRepoInfo repo) throws GitAPIException, IOException {
@@ -91,6 +91,24 @@ public class AgentHostServiceTest extends ZookeeperScenario {
         Assert.assertEquals(0, agentService.list().size());
     }
 
+    @Test
+    public void should_start_num_of_agents_within_max_size() {
+        AgentHost host = new LocalUnixAgentHost();
+        host.setName("test-host");
+        host.setTags(Sets.newHashSet("local", "test"));
+        host.setMaxSize(2);
+        agentHostService.createOrUpdate(host);
+
+        // when: start 3 agents on host
+        List<Agent> started = agentHostService.start(host, 3);
+
+        // then: only 2 agents started since max size
+        Assert.assertEquals(2, started.size());
+        Assert.assertEquals(2, agentHostService.size(host));
+
+        agentHostService.removeAll(host);
+    }
+
     @Test
     public void should_should_over_time_limit() {
         AgentHost host = new LocalUnixAgentHost();
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.test.agent;
+
+import com.flowci.core.agent.manager.IdleAgentManager;
+import com.flowci.domain.Agent;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class IdleAgentManagerTest {
+
+    private final IdleAgentManager manager = new IdleAgentManager();
+
+    @Test
+    public void should_index_idle_agent_by_tags() {
+        Agent agent = createAgent("1", "linux", "java");
+        manager.onStatusChange(agent);
+
+        Assert.assertEquals(1, manager.find(ImmutableSet.of("java")).size());
+        Assert.assertEquals(1, manager.find(Collections.emptySet()).size());
+        Assert.assertEquals(0, manager.find(ImmutableSet.of("windows")).size());
+
+        agent.setStatus(Agent.Status.BUSY);
+        manager.onStatusChange(agent);
+        Assert.assertEquals(0, manager.find(ImmutableSet.of("java")).size());
+    }
+
+    @Test
+    public void should_assign_agent_to_waiter_directly() {
+        Agent agent = createAgent("1", "linux");
+        manager.onStatusChange(agent);
+
+        IdleAgentManager.Waiter waiter = manager.acquire(ImmutableSet.of("linux"));
+        Assert.assertTrue(waiter.isAssigned());
+        Assert.assertEquals(agent, waiter.get(0).get());
+
+        // agent should be removed from index after assigned
+        Assert.assertEquals(0, manager.find(Collections.emptySet()).size());
+    }
+
+    @Test
+    public void should_hand_idle_agent_to_one_waiter() throws InterruptedException {
+        IdleAgentManager.Waiter forWindows = manager.acquire(ImmutableSet.of("windows"));
+        IdleAgentManager.Waiter forLinux = manager.acquire(ImmutableSet.of("linux"));
+        Assert.assertEquals(2, manager.waiting());
+
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<Optional<Agent>> assigned = new AtomicReference<>();
+
+        new Thread(() -> {
+            assigned.set(forLinux.get(5000));
+            latch.countDown();
+        }).start();
+
+        Agent agent = createAgent("1", "linux");
+        manager.onStatusChange(agent);
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(agent, assigned.get().get());
+        Assert.assertFalse(forWindows.isAssigned());
+        Assert.assertEquals(0, manager.find(Collections.emptySet()).size());
+    }
+
+    @Test
+    public void should_wakeup_waiter_when_cancelled() {
+        IdleAgentManager.Waiter waiter = manager.acquire(Collections.emptySet());
+        manager.cancel(waiter);
+
+        Assert.assertFalse(waiter.get(5000).isPresent());
+        Assert.assertEquals(0, manager.waiting());
+    }
+
+    @Test
+    public void should_take_preferred_agent_first() {
+        Agent cold = createAgent("1", "linux");
+        Agent warm = createAgent("2", "linux");
+        manager.onStatusChange(cold);
+        manager.onStatusChange(warm);
+
+        Optional<Agent> taken = manager.take(ImmutableSet.of("linux"), ImmutableList.of("3", "2"));
+        Assert.assertEquals(warm, taken.get());
+
+        // then: should not take agent which is not in the given list
+        Assert.assertFalse(manager.take(ImmutableSet.of("linux"), ImmutableList.of("2")).isPresent());
+    }
+
+    @Test
+    public void should_assign_only_given_agent_to_waiter() {
+        IdleAgentManager.Waiter waiter = manager.acquire(Collections.emptySet(), ImmutableList.of("2"));
+        Assert.assertFalse(waiter.isAssigned());
+
+        manager.onStatusChange(createAgent("1", "linux"));
+        Assert.assertFalse(waiter.isAssigned());
+
+        Agent warm = createAgent("2", "linux");
+        manager.onStatusChange(warm);
+        Assert.assertEquals(warm, waiter.get(0).get());
+    }
+
+    private static Agent createAgent(String id, String... tags) {
+        Agent agent = new Agent("agent-" + id, ImmutableSet.copyOf(tags));
+        agent.setId(id);
+        agent.setStatus(Agent.Status.IDLE);
+        return agent;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.core.test.common;
+
+import com.flowci.core.common.rabbit.RabbitChannelOperation;
+import com.flowci.core.common.rabbit.RabbitOperation;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Envelope;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class AdaptivePrefetchTest {
+
+    private final Channel channel = Mockito.mock(Channel.class);
+
+    private final AtomicReference<Double> saturation = new AtomicReference<>(0.0);
+
+    private RabbitChannelOperation operation;
+
+    @Before
+    public void init() throws Exception {
+        Connection conn = Mockito.mock(Connection.class);
+        Mockito.when(conn.createChannel()).thenReturn(channel);
+        Mockito.when(channel.isOpen()).thenReturn(true);
+
+        operation = new RabbitChannelOperation(conn, 4, "prefetch-test");
+    }
+
+    @After
+    public void close() throws Exception {
+        operation.close();
+    }
+
+    @Test
+    public void should_increase_additively_and_decrease_multiplicatively() throws Exception {
+        operation.enableAdaptivePrefetch(1, 16, saturation::get);
+        Assert.assertEquals(4, operation.getPrefetch());
+
+        // when: downstream is idle
+        adjust(1000);
+
+        // then: increased by concurrency
+        Assert.assertEquals(8, operation.getPrefetch());
+        Mockito.verify(channel).basicQos(8, true);
+
+        // when: downstream queue over half full
+        saturation.set(0.8);
+        adjust(1000);
+
+        // then: halved
+        Assert.assertEquals(4, operation.getPrefetch());
+
+        // when: rejected by downstream
+        operation.reportRejected();
+        operation.reportRejected();
+        operation.reportRejected();
+
+        // then: halved but not less than min
+        Assert.assertEquals(1, operation.getPrefetch());
+    }
+
+    @Test
+    public void should_not_measure_on_consumer_executor_if_downstream() throws Exception {
+        operation.enableAdaptivePrefetch(1, 16, saturation::get);
+        saturation.set(0.8);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        RabbitOperation.QueueConsumer consumer = operation.createConsumer("test", message -> {
+            latch.countDown();
+            return true;
+        });
+
+        // when: message handed over without reporting after adjust interval
+        Thread.sleep(1100);
+        consumer.consume(new byte[0], new Envelope(1L, false, "", "test"), null);
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        // then: prefetch should not be adjusted by the consumer executor
+        Assert.assertEquals(4, operation.getPrefetch());
+    }
+
+    @Test
+    public void should_nack_with_requeue_and_decrease_when_rejected() throws Exception {
+        operation.enableAdaptivePrefetch(1, 16);
+
+        CountDownLatch blocked = new CountDownLatch(1);
+        RabbitOperation.QueueConsumer consumer = operation.createConsumer("test", message -> {
+            try {
+                blocked.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ignore) {
+            }
+            return true;
+        });
+
+        // when: consume more than consumer executor threads and queue
+        long numOfMessages = 4 + 1000 + 1;
+        for (long tag = 1; tag <= numOfMessages; tag++) {
+            consumer.consume(new byte[0], new Envelope(tag, false, "", "test"), null);
+        }
+
+        // then: the last one should be requeued and prefetch decreased
+        Mockito.verify(channel).basicNack(numOfMessages, false, true);
+        Assert.assertEquals(2, operation.getPrefetch());
+        blocked.countDown();
+    }
+
+    private void adjust(long waitInMillis) throws InterruptedException {
+        Thread.sleep(waitInMillis + 100);
+        operation.reportProcessed(TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.flowci.core.test.common;
+
+import com.flowci.core.common.codec.BinaryMessageCodec;
+import com.flowci.core.common.codec.CmdSerializers;
+import com.flowci.domain.CmdId;
+import com.flowci.domain.CmdIn;
+import com.flowci.domain.CmdType;
+import com.flowci.domain.ExecutedCmd;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Date;
+
+public class BinaryMessageCodecTest {
+
+    private final BinaryMessageCodec codec = new BinaryMessageCodec()
+            .register(CmdSerializers.CmdInTag, CmdIn.class, CmdSerializers.CmdInSerializer)
+            .register(CmdSerializers.ExecutedCmdTag, ExecutedCmd.class, CmdSerializers.ExecutedCmdSerializer);
+
+    @Test
+    public void should_encode_and_decode_batch_cmd() throws IOException {
+        CmdIn shell = new CmdIn("shell-1", CmdType.SHELL);
+        shell.setScripts(Lists.newArrayList("echo ${HELLO}"));
+        shell.setAllowFailure(true);
+        shell.setPlugin("gittest");
+        shell.setEnvFilters(Sets.newHashSet("FLOW_OUTPUT"));
+        shell.getInputs().put("HELLO", "world");
+        shell.getInputs().put("EMPTY", null);
+
+        CmdIn batch = new CmdIn("batch-1", CmdType.BATCH);
+        batch.setWorkDir("flow-id");
+        batch.getCmds().add(shell);
+
+        CmdIn decoded = codec.decode(codec.encode(batch), CmdIn.class);
+        Assert.assertEquals(CmdType.BATCH, decoded.getType());
+        Assert.assertEquals("flow-id", decoded.getWorkDir());
+        Assert.assertEquals(1, decoded.getCmds().size());
+
+        CmdIn decodedShell = decoded.getCmds().get(0);
+        Assert.assertEquals("shell-1", decodedShell.getId());
+        Assert.assertEquals("echo ${HELLO}", decodedShell.getScripts().get(0));
+        Assert.assertTrue(decodedShell.getAllowFailure());
+        Assert.assertEquals("gittest", decodedShell.getPlugin());
+        Assert.assertEquals(1800, decodedShell.getTimeout().intValue());
+        Assert.assertTrue(decodedShell.getEnvFilters().contains("FLOW_OUTPUT"));
+        Assert.assertEquals("world", decodedShell.getInputs().get("HELLO"));
+        Assert.assertTrue(decodedShell.getInputs().containsKey("EMPTY"));
+    }
+
+    @Test
+    public void should_encode_and_decode_executed_cmd() throws IOException {
+        CmdId cmdId = new CmdId("job-id", "root/step-1");
+        ExecutedCmd cmd = new ExecutedCmd(cmdId, "flow-id", false);
+        cmd.setStatus(ExecutedCmd.Status.EXCEPTION);
+        cmd.setCode(-1);
+        cmd.setBuildNumber(10L);
+        cmd.setStartAt(new Date(1000L));
+        cmd.setError("failure");
+        cmd.getOutput().put("OUTPUT", "value");
+
+        ExecutedCmd decoded = codec.decode(codec.encode(cmd), ExecutedCmd.class);
+        Assert.assertEquals(cmd.getId(), decoded.getId());
+        Assert.assertEquals(cmdId, decoded.getCmdId());
+        Assert.assertEquals(ExecutedCmd.Status.EXCEPTION, decoded.getStatus());
+        Assert.assertEquals(-1, decoded.getCode().intValue());
+        Assert.assertEquals(10L, decoded.getBuildNumber().longValue());
+        Assert.assertEquals(new Date(1000L), decoded.getStartAt());
+        Assert.assertNull(decoded.getFinishAt());
+        Assert.assertNull(decoded.getProcessId());
+        Assert.assertEquals(-1L, decoded.getLogSize().longValue());
+        Assert.assertEquals("failure", decoded.getError());
+        Assert.assertEquals("value", decoded.getOutput().get("OUTPUT"));
+    }
+
+    @Test(expected = IOException.class)
+    public void should_throw_exception_if_decode_to_other_type() throws IOException {
+        byte[] body = codec.encode(new CmdIn("shell-1", CmdType.SHELL));
+        codec.decode(body, ExecutedCmd.class);
+    }
+}
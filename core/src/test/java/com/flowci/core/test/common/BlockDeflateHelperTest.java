@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.core.test.common;
+
+import com.flowci.core.common.helper.BlockDeflateHelper;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BlockDeflateHelperTest {
+
+    @Test
+    public void should_decompress_from_any_block() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            builder.append("log line ").append(i).append('\n');
+        }
+        byte[] raw = builder.toString().getBytes(StandardCharsets.UTF_8);
+
+        // when: compress with 1k block
+        int blockSize = 1024;
+        List<Long> blocks = new ArrayList<>();
+        InputStream compress = BlockDeflateHelper.compress(new ByteArrayInputStream(raw), blockSize, blocks::add);
+        byte[] compressed = StreamUtils.copyToByteArray(compress);
+
+        Assert.assertEquals((raw.length + blockSize - 1) / blockSize, blocks.size());
+        Assert.assertTrue(compressed.length < raw.length / 2);
+
+        // then: should decompress all
+        byte[] all = StreamUtils.copyToByteArray(BlockDeflateHelper.decompress(new ByteArrayInputStream(compressed)));
+        Assert.assertArrayEquals(raw, all);
+
+        // then: should decompress from the 3rd block
+        long offset = blocks.get(2);
+        InputStream from = new ByteArrayInputStream(compressed, (int) offset, compressed.length - (int) offset);
+        byte[] tail = StreamUtils.copyToByteArray(BlockDeflateHelper.decompress(from));
+
+        Assert.assertEquals(raw.length - blockSize * 2, tail.length);
+        Assert.assertEquals(raw[blockSize * 2], tail[0]);
+    }
+}
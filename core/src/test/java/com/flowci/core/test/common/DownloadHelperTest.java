@@ -0,0 +1,164 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.core.test.common;
+
+import com.flowci.core.common.helper.DownloadHelper;
+import com.flowci.store.FileContent;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+public class DownloadHelperTest {
+
+    private static final byte[] Raw = "0123456789".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void should_write_range_of_content() throws IOException {
+        FileContent content = new FileContent(Raw.length, (offset, length) -> {
+            return new ByteArrayInputStream(Arrays.copyOfRange(Raw, (int) offset, (int) (offset + length)));
+        });
+
+        // when: without range
+        MockHttpServletResponse response = write(content, null);
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertEquals("0123456789", response.getContentAsString());
+        Assert.assertEquals("bytes", response.getHeader(HttpHeaders.ACCEPT_RANGES));
+
+        // when: with range
+        response = write(content, "bytes=2-5");
+        Assert.assertEquals(206, response.getStatus());
+        Assert.assertEquals("2345", response.getContentAsString());
+        Assert.assertEquals("bytes 2-5/10", response.getHeader(HttpHeaders.CONTENT_RANGE));
+
+        // when: with suffix range
+        response = write(content, "bytes=-3");
+        Assert.assertEquals("789", response.getContentAsString());
+
+        // when: range not satisfiable
+        response = write(content, "bytes=20-");
+        Assert.assertEquals(416, response.getStatus());
+        Assert.assertEquals("bytes */10", response.getHeader(HttpHeaders.CONTENT_RANGE));
+
+        // when: invalid range
+        response = write(content, "bytes=5-2");
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertEquals("0123456789", response.getContentAsString());
+        Assert.assertNull(response.getHeader(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    public void should_write_range_only_if_range_matched() throws IOException {
+        long lastModified = 1600000000000L;
+        FileContent content = new FileContent(Raw.length, null, lastModified, "abc", (offset, length) -> {
+            return new ByteArrayInputStream(Arrays.copyOfRange(Raw, (int) offset, (int) (offset + length)));
+        });
+
+        MockHttpServletResponse response = write(content, null);
+        Assert.assertEquals("\"abc\"", response.getHeader(HttpHeaders.ETAG));
+        Assert.assertEquals(lastModified, response.getDateHeader(HttpHeaders.LAST_MODIFIED));
+
+        // when: entity tag matched
+        response = write(content, "bytes=2-5", "\"abc\"");
+        Assert.assertEquals(206, response.getStatus());
+        Assert.assertEquals("2345", response.getContentAsString());
+
+        // when: entity tag not matched or weak
+        response = write(content, "bytes=2-5", "\"xyz\"");
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertEquals("0123456789", response.getContentAsString());
+
+        response = write(content, "bytes=2-5", "W/\"abc\"");
+        Assert.assertEquals(200, response.getStatus());
+
+        // when: last modified matched
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+        response = write(content, "bytes=2-5", format.format(new Date(lastModified)));
+        Assert.assertEquals(206, response.getStatus());
+
+        // when: last modified not matched
+        response = write(content, "bytes=2-5", format.format(new Date(lastModified + 1000)));
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertEquals("0123456789", response.getContentAsString());
+    }
+
+    @Test
+    public void should_transfer_range_of_local_file() throws IOException {
+        Path file = folder.newFile("test.log").toPath();
+        Files.write(file, Raw);
+
+        FileContent content = new FileContent(Raw.length, file, (offset, length) -> {
+            throw new IOException("should be transferred from file");
+        });
+
+        MockHttpServletResponse response = write(content, "bytes=5-");
+        Assert.assertEquals(206, response.getStatus());
+        Assert.assertEquals("56789", response.getContentAsString());
+
+        // then: should set sendfile attributes if supported
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+        request.addHeader(HttpHeaders.RANGE, "bytes=5-");
+
+        response = new MockHttpServletResponse();
+        DownloadHelper.write(content, "test.log", request, response);
+
+        Assert.assertEquals(file.toAbsolutePath().toString(), request.getAttribute("org.apache.tomcat.sendfile.filename"));
+        Assert.assertEquals(5L, request.getAttribute("org.apache.tomcat.sendfile.start"));
+        Assert.assertEquals(10L, request.getAttribute("org.apache.tomcat.sendfile.end"));
+        Assert.assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    private static MockHttpServletResponse write(FileContent content, String range) throws IOException {
+        return write(content, range, null);
+    }
+
+    private static MockHttpServletResponse write(FileContent content, String range, String ifRange)
+            throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        if (range != null) {
+            request.addHeader(HttpHeaders.RANGE, range);
+        }
+        if (ifRange != null) {
+            request.addHeader(HttpHeaders.IF_RANGE, ifRange);
+        }
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        DownloadHelper.write(content, "test.log", request, response);
+        return response;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.core.test.common;
+
+import com.flowci.core.common.rabbit.InMemoryBroker;
+import com.flowci.core.common.rabbit.InMemoryQueueOperation;
+import com.flowci.core.common.rabbit.RabbitOperation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class InMemoryBrokerTest {
+
+    private final InMemoryBroker broker = new InMemoryBroker();
+
+    private final InMemoryQueueOperation operation = new InMemoryQueueOperation(broker, 1, "test-in-memory");
+
+    @After
+    public void close() {
+        operation.close();
+        broker.close();
+    }
+
+    @Test
+    public void should_consume_by_priority_then_publish_order() throws InterruptedException {
+        operation.declare("q", true, 255, "dl-ex");
+        operation.send("q", "text/plain", bytes("low-1"), 1, 60L);
+        operation.send("q", "text/plain", bytes("high"), 10, 60L);
+        operation.send("q", "text/plain", bytes("low-2"), 1, 60L);
+
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(3);
+
+        operation.createConsumer("q", message -> {
+            if (message == RabbitOperation.Message.STOP_SIGN) {
+                return true;
+            }
+
+            received.add(string(message.getBody()));
+            Assert.assertEquals("text/plain", message.getContentType());
+            message.sendAck();
+            latch.countDown();
+            return true;
+        }).start(false);
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals("high", received.get(0));
+        Assert.assertEquals("low-1", received.get(1));
+        Assert.assertEquals("low-2", received.get(2));
+    }
+
+    @Test
+    public void should_dead_letter_expired_message() throws InterruptedException {
+        operation.declare("q", true, 255, "dl-ex");
+        operation.declare("dlq", true);
+        broker.bind("dlq", "dl-ex", "jobtimeout");
+
+        operation.send("q", "text/plain", bytes("expired"), 1, 0L);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        operation.createConsumer("dlq", message -> {
+            if (message != RabbitOperation.Message.STOP_SIGN) {
+                Assert.assertEquals("expired", string(message.getBody()));
+                latch.countDown();
+            }
+            return true;
+        }).start(true);
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, broker.size("q"));
+    }
+
+    @Test
+    public void should_redeliver_message_on_nack_with_requeue() throws InterruptedException {
+        operation.declare("q", true, 255, "dl-ex");
+        operation.send("q", "text/plain", bytes("retry"), 1, 60L);
+
+        AtomicBoolean rejected = new AtomicBoolean(false);
+        CountDownLatch latch = new CountDownLatch(1);
+
+        operation.createConsumer("q", message -> {
+            if (message == RabbitOperation.Message.STOP_SIGN) {
+                return true;
+            }
+
+            if (rejected.compareAndSet(false, true)) {
+                message.sendNack(true);
+                return false;
+            }
+
+            message.sendAck();
+            latch.countDown();
+            return true;
+        }).start(false);
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, broker.size("q"));
+    }
+
+    @Test
+    public void should_keep_unacked_message_after_consumer_removed() throws InterruptedException {
+        operation.declare("q", true, 255, "dl-ex");
+        operation.send("q", "text/plain", bytes("held"), 1, 60L);
+
+        List<RabbitOperation.Message> held = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch first = new CountDownLatch(1);
+
+        // message held without ack, as pending job in scheduler
+        operation.createConsumer("q", message -> {
+            if (message != RabbitOperation.Message.STOP_SIGN) {
+                held.add(message);
+                first.countDown();
+            }
+            return true;
+        }).start(false);
+
+        Assert.assertTrue(first.await(5, TimeUnit.SECONDS));
+
+        // when: consumer removed and a new consumer started
+        operation.removeConsumer("q");
+
+        CountDownLatch second = new CountDownLatch(1);
+        operation.createConsumer("q", message -> {
+            if (message != RabbitOperation.Message.STOP_SIGN) {
+                second.countDown();
+            }
+            return true;
+        }).start(false);
+
+        // then: should not be delivered again, and could be acked
+        Assert.assertFalse(second.await(1, TimeUnit.SECONDS));
+        Assert.assertTrue(held.get(0).sendAck());
+        Assert.assertEquals(0, broker.size("q"));
+    }
+
+    @Test
+    public void should_requeue_unacked_message_when_closed() throws InterruptedException {
+        operation.declare("q", true, 255, "dl-ex");
+        operation.send("q", "text/plain", bytes("held"), 1, 60L);
+
+        InMemoryQueueOperation other = new InMemoryQueueOperation(broker, 1, "test-in-memory-other");
+        CountDownLatch first = new CountDownLatch(1);
+
+        other.createConsumer("q", message -> {
+            if (message != RabbitOperation.Message.STOP_SIGN) {
+                first.countDown();
+            }
+            return true;
+        }).start(false);
+
+        Assert.assertTrue(first.await(5, TimeUnit.SECONDS));
+        other.removeConsumer("q");
+        Assert.assertEquals(0, broker.size("q"));
+
+        // when: operation closed
+        other.close();
+
+        // then: unacked message should be requeued
+        Assert.assertEquals(1, broker.size("q"));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.test.common;
+
+import com.flowci.core.common.rabbit.RabbitChannelOperation;
+import com.flowci.core.common.rabbit.RabbitPublisher;
+import com.flowci.core.test.SpringScenario;
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ShutdownSignalException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class RabbitPublisherTest extends SpringScenario {
+
+    private static final String QueueName = "flow.q.publisher-test";
+
+    @Autowired
+    private RabbitChannelOperation agentQueueManager;
+
+    @Autowired
+    private RabbitPublisher rabbitPublisher;
+
+    @Before
+    public void declare() throws IOException {
+        agentQueueManager.declare(QueueName, false);
+    }
+
+    @After
+    public void delete() {
+        agentQueueManager.delete(QueueName);
+    }
+
+    @Test
+    public void should_complete_future_when_message_confirmed() throws Exception {
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 500; i++) {
+            futures.add(rabbitPublisher.publish(QueueName, "text/plain", ("hello-" + i).getBytes()));
+        }
+
+        for (CompletableFuture<Boolean> future : futures) {
+            Assert.assertTrue(future.get(10, TimeUnit.SECONDS));
+        }
+
+        Assert.assertTrue(rabbitPublisher.send(QueueName, "text/plain", "sync".getBytes(), 5000));
+    }
+
+    @Test
+    public void should_keep_publishing_when_connection_closed() throws Exception {
+        Connection closed = Mockito.mock(Connection.class);
+        Mockito.when(closed.createChannel())
+                .thenThrow(new AlreadyClosedException(new ShutdownSignalException(true, false, null, null)));
+
+        RabbitPublisher publisher = new RabbitPublisher(closed, 1, 10, "publisher-closed-test");
+
+        try {
+            // then: each message should be failed instead of waiting for timeout
+            for (int i = 0; i < 3; i++) {
+                CompletableFuture<Boolean> future = publisher.publish(QueueName, "text/plain", "hello".getBytes());
+                Assert.assertFalse(future.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            publisher.close();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.test.common;
+
+import com.flowci.core.common.helper.StripedExecutor;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class StripedExecutorTest {
+
+    private final StripedExecutor executor = new StripedExecutor(4, 100, "test-stripe-");
+
+    @After
+    public void close() {
+        executor.close();
+    }
+
+    @Test
+    public void should_run_tasks_of_same_key_in_order() throws InterruptedException {
+        int numOfTasks = 50;
+        List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(numOfTasks);
+
+        for (int i = 0; i < numOfTasks; i++) {
+            final int index = i;
+            executor.execute("job-1", () -> {
+                executed.add(index);
+                latch.countDown();
+            });
+        }
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < numOfTasks; i++) {
+            Assert.assertEquals(i, executed.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void should_get_saturation_of_busiest_stripe() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        Assert.assertEquals(0.0, executor.saturation(), 0.0);
+
+        // when: one running and 50 queued on the same stripe
+        for (int i = 0; i < 51; i++) {
+            executor.execute("job-1", () -> {
+                try {
+                    blocked.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignore) {
+                }
+            });
+        }
+
+        // then: half of the stripe queue is used
+        Thread.sleep(100);
+        Assert.assertEquals(0.5, executor.saturation(), 0.0);
+        blocked.countDown();
+    }
+}
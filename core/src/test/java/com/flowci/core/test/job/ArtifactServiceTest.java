@@ -20,7 +20,11 @@ import com.flowci.core.job.domain.Job;
 import com.flowci.core.job.domain.JobArtifact;
 import com.flowci.core.job.service.ArtifactService;
 import com.flowci.core.test.SpringScenario;
+import com.flowci.exception.ArgumentException;
+import com.flowci.store.FileContent;
 import com.flowci.store.FileManager;
+import com.flowci.util.HashingHelper;
+import com.flowci.util.StringHelper;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
@@ -30,10 +34,12 @@ import org.springframework.mock.web.MockMultipartFile;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
 
 public class ArtifactServiceTest extends SpringScenario {
 
@@ -46,20 +52,29 @@ public class ArtifactServiceTest extends SpringScenario {
     @Test
     public void should_get_artifact_with_src_stream() throws IOException {
         Job job = new Job();
+        job.setId("job-1");
         job.setFlowId("1111");
         job.setBuildNumber(1L);
 
         ByteArrayInputStream content = new ByteArrayInputStream("content".getBytes());
         MockMultipartFile file = new MockMultipartFile("file", "test.jar", null, content);
+        String md5 = HashingHelper.md5("content");
 
-        Mockito.when(fileManager.save(eq(file.getOriginalFilename()), any(), any()))
-                .thenReturn("artifact/file/path");
+        // mock: consume the stream to verify md5
+        Mockito.when(fileManager.save(startsWith(md5), any(InputStream.class), eq(file.getSize()), any()))
+                .thenAnswer(invocation -> {
+                    StringHelper.toString(invocation.getArgument(1));
+                    return "artifact/file/path";
+                });
 
-        Mockito.when(fileManager.read(eq(file.getOriginalFilename()), any()))
-                .thenReturn(content);
+        Mockito.when(fileManager.getContent(eq(md5), any()))
+                .thenReturn(new FileContent(file.getSize(), (offset, length) -> content));
 
         // when: save artifact
-        artifactService.save(job, "foo/boo", "md5..", file);
+        artifactService.save(job, "foo/boo", md5, file);
+
+        // then: should be moved to blob path after verified
+        Mockito.verify(fileManager).move(startsWith(md5), any(), eq(md5), any());
 
         // then: fetch
         List<JobArtifact> list = artifactService.list(job);
@@ -67,8 +82,71 @@ public class ArtifactServiceTest extends SpringScenario {
 
         JobArtifact fetched = artifactService.fetch(job, list.get(0).getId());
         Assert.assertNotNull(fetched);
-        Assert.assertNotNull(fetched.getSrc());
+        Assert.assertNotNull(fetched.getContent());
+        Assert.assertEquals(file.getSize(), fetched.getContent().getLength());
         Assert.assertEquals("test.jar", fetched.getFileName());
-        Assert.assertEquals("artifact/file/path", fetched.getPath());
+
+        String blobFile = "blobs/" + md5.substring(0, 2) + "/" + md5;
+        Assert.assertEquals(blobFile, fetched.getPath());
+
+        // when: link artifact of other job with the same md5
+        Job other = new Job();
+        other.setId("job-2");
+        other.setFlowId("1111");
+        other.setBuildNumber(2L);
+
+        Mockito.when(fileManager.exist(eq(md5), any())).thenReturn(true);
+        Assert.assertTrue(artifactService.link(other, "foo/boo", md5, "test.jar", null, file.getSize()));
+
+        // then: should be created without upload
+        list = artifactService.list(other);
+        Assert.assertEquals(1, list.size());
+        Assert.assertEquals(md5, list.get(0).getMd5());
+        Assert.assertEquals(blobFile, list.get(0).getPath());
+
+        // when: save artifact of other job with existing blob
+        Job third = new Job();
+        third.setId("job-4");
+        third.setFlowId("1111");
+        third.setBuildNumber(4L);
+        artifactService.save(third, "foo/boo", md5, file);
+
+        // then: should be created with blob path without upload
+        list = artifactService.list(third);
+        Assert.assertEquals(1, list.size());
+        Assert.assertEquals(blobFile, list.get(0).getPath());
+        Mockito.verify(fileManager, Mockito.times(1)).save(startsWith(md5), any(InputStream.class), eq(file.getSize()), any());
+
+        // then: should not link if not uploaded
+        Assert.assertFalse(artifactService.link(other, "foo/boo", HashingHelper.md5("other"), "other.jar", null, 1));
+    }
+
+    @Test
+    public void should_throw_exception_if_md5_not_matched() throws IOException {
+        Job job = new Job();
+        job.setId("job-3");
+        job.setFlowId("1111");
+        job.setBuildNumber(3L);
+
+        MockMultipartFile file = new MockMultipartFile("file", "test.jar", null, "content".getBytes());
+        String md5 = HashingHelper.md5("other");
+
+        Mockito.when(fileManager.save(startsWith(md5), any(InputStream.class), eq(file.getSize()), any()))
+                .thenAnswer(invocation -> {
+                    StringHelper.toString(invocation.getArgument(1));
+                    return "artifact/file/path";
+                });
+
+        try {
+            artifactService.save(job, "foo/boo", md5, file);
+            Assert.fail();
+        } catch (ArgumentException ignore) {
+
+        }
+
+        // then: only the upload is removed, the blob path is not touched
+        Mockito.verify(fileManager).remove(startsWith(md5 + "-"), any());
+        Mockito.verify(fileManager, Mockito.never()).remove(eq(md5), any());
+        Mockito.verify(fileManager, Mockito.never()).move(any(), any(), any(), any());
     }
 }
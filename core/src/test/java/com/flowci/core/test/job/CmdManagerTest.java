@@ -28,6 +28,7 @@ import com.flowci.core.plugin.domain.Plugin;
 import com.flowci.core.plugin.service.PluginService;
 import com.flowci.core.test.SpringScenario;
 import com.flowci.domain.CmdIn;
+import com.flowci.domain.CmdType;
 import com.flowci.domain.StringVars;
 import com.flowci.domain.VarType;
 import com.flowci.domain.Vars;
@@ -95,6 +96,67 @@ public class CmdManagerTest extends SpringScenario {
         Assert.assertEquals("60", inputs.get("GIT_DEFAULT_VAL"));
     }
 
+    @Test
+    public void should_create_batch_cmd_for_nodes_without_plugin_inputs() throws IOException {
+        // init: setup mock plugin service
+        Plugin dummy = createDummyPlugin();
+        Mockito.when(pluginService.get(dummy.getName())).thenReturn(dummy);
+
+        // given: flow and job
+        Flow flow = flowService.create("hello");
+        Yml yml = ymlService.saveYml(flow, StringHelper.toString(load("flow-with-plugin.yml")));
+        Job job = jobService.create(flow, yml, Job.Trigger.MANUAL, new StringVars());
+
+        Node root = YmlParser.load(flow.getName(), yml.getRaw());
+        NodeTree tree = NodeTree.create(root);
+        Node first = tree.getOrdered().get(0);
+        Node plugin = tree.get(NodePath.create(flow.getName(), "plugin-test"));
+
+        // then: plugin node with inputs cannot be batched
+        Assert.assertTrue(cmdManager.isBatchable(first));
+        Assert.assertFalse(cmdManager.isBatchable(plugin));
+
+        // when: create batch cmd
+        CmdIn batch = cmdManager.createBatchCmd(job, Lists.newArrayList(first, plugin));
+
+        // then: should contain shell cmd for each node in order
+        Assert.assertEquals(CmdType.BATCH, batch.getType());
+        Assert.assertEquals(2, batch.getCmds().size());
+        Assert.assertEquals(cmdManager.createId(job, first).toString(), batch.getCmds().get(0).getId());
+        Assert.assertEquals("gittest", batch.getCmds().get(1).getPlugin());
+    }
+
+    @Test
+    public void should_recompile_cmd_template_when_plugin_changed() throws IOException {
+        // init: setup mock plugin service
+        Plugin dummy = createDummyPlugin();
+        dummy.setScript("echo v1");
+        Mockito.when(pluginService.get(dummy.getName())).thenReturn(dummy);
+
+        // given: flow and job
+        Flow flow = flowService.create("hello");
+        Yml yml = ymlService.saveYml(flow, StringHelper.toString(load("flow-with-plugin.yml")));
+        Job job = jobService.create(flow, yml, Job.Trigger.MANUAL, new StringVars());
+
+        Node root = YmlParser.load(flow.getName(), yml.getRaw());
+        Node node = NodeTree.create(root).get(NodePath.create(flow.getName(), "plugin-test"));
+
+        CmdIn first = cmdManager.createShellCmd(job, node);
+        Assert.assertEquals("echo v1", first.getScripts().get(0));
+
+        // when: plugin been updated
+        Plugin updated = createDummyPlugin();
+        updated.setScript("echo v2");
+        updated.getExports().add("PLUGIN_OUTPUT");
+        Mockito.when(pluginService.get(dummy.getName())).thenReturn(updated);
+
+        // then: cmd should be created from new plugin, and node exports not changed
+        CmdIn second = cmdManager.createShellCmd(job, node);
+        Assert.assertEquals("echo v2", second.getScripts().get(0));
+        Assert.assertTrue(second.getEnvFilters().contains("PLUGIN_OUTPUT"));
+        Assert.assertFalse(node.getExports().contains("PLUGIN_OUTPUT"));
+    }
+
     private Plugin createDummyPlugin() {
         Input intInput = new Input();
         intInput.setName("GIT_DEFAULT_VAL");
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.core.test.job;
+
+import com.flowci.core.common.config.ConfigProperties;
+import com.flowci.core.common.rabbit.InMemoryBroker;
+import com.flowci.core.common.rabbit.RabbitOperation;
+import com.flowci.core.job.manager.FlowJobQueueManager;
+import com.flowci.core.job.manager.JobScheduler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class FlowJobQueueManagerTest {
+
+    private static final String QueueName = "flow.q.test.job";
+
+    private final InMemoryBroker broker = new InMemoryBroker();
+
+    private final ConfigProperties.Job jobProperties = new ConfigProperties.Job();
+
+    private final JobScheduler jobScheduler = Mockito.mock(JobScheduler.class);
+
+    private final FlowJobQueueManager manager = new FlowJobQueueManager();
+
+    @Before
+    public void init() throws Exception {
+        ConfigProperties.RabbitMQ rabbitProperties = new ConfigProperties.RabbitMQ();
+        rabbitProperties.setInProcess(true);
+        rabbitProperties.setJobDlExchange("test-job-dl-ex");
+
+        jobProperties.setQueueChannels(1);
+        jobProperties.setQueueIdleSeconds(0L);
+
+        ReflectionTestUtils.setField(manager, "rabbitProperties", rabbitProperties);
+        ReflectionTestUtils.setField(manager, "jobProperties", jobProperties);
+        ReflectionTestUtils.setField(manager, "inMemoryBroker", broker);
+        ReflectionTestUtils.setField(manager, "jobScheduler", jobScheduler);
+        manager.initSharedChannels();
+    }
+
+    @After
+    public void close() throws Exception {
+        manager.close();
+        broker.close();
+    }
+
+    @Test
+    public void should_activate_consumer_on_first_send() throws InterruptedException {
+        CountDownLatch received = new CountDownLatch(1);
+        FlowJobQueueManager.FlowJobQueue queue = manager.register(QueueName, () -> message -> {
+            if (message == RabbitOperation.Message.STOP_SIGN) {
+                return true;
+            }
+
+            received.countDown();
+            return message.sendAck();
+        });
+
+        Assert.assertFalse(queue.isActive());
+
+        manager.send(QueueName, "text/plain", "job".getBytes(StandardCharsets.UTF_8), 1, 60L);
+        Assert.assertTrue(queue.isActive());
+        Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void should_not_deactivate_consumer_while_handling() throws InterruptedException {
+        CountDownLatch handling = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        FlowJobQueueManager.FlowJobQueue queue = manager.register(QueueName, () -> message -> {
+            if (message == RabbitOperation.Message.STOP_SIGN) {
+                return true;
+            }
+
+            handling.countDown();
+            await(release);
+            return message.sendAck();
+        });
+
+        manager.send(QueueName, "text/plain", "job".getBytes(StandardCharsets.UTF_8), 1, 60L);
+        Assert.assertTrue(handling.await(5, TimeUnit.SECONDS));
+
+        Thread.sleep(10);
+        manager.deactivateIdleConsumers();
+        Assert.assertTrue(queue.isActive());
+
+        // then: should be deactivated after handled
+        release.countDown();
+        Thread.sleep(100);
+        manager.deactivateIdleConsumers();
+        Assert.assertFalse(queue.isActive());
+    }
+
+    @Test
+    public void should_not_deactivate_consumer_while_job_pending_in_scheduler() throws InterruptedException {
+        jobProperties.setSchedulerEnabled(true);
+        Mockito.when(jobScheduler.hasPending(QueueName)).thenReturn(true);
+
+        FlowJobQueueManager.FlowJobQueue queue = manager.register(QueueName, () -> message -> true);
+        manager.activate(QueueName);
+
+        Thread.sleep(10);
+        manager.deactivateIdleConsumers();
+        Assert.assertTrue(queue.isActive());
+
+        // when: pending job dispatched
+        Mockito.when(jobScheduler.hasPending(QueueName)).thenReturn(false);
+
+        // then: should be deactivated
+        manager.deactivateIdleConsumers();
+        Assert.assertFalse(queue.isActive());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ignore) {
+
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.core.test.job;
+
+import com.flowci.core.agent.event.AgentStatusEvent;
+import com.flowci.core.agent.manager.IdleAgentManager;
+import com.flowci.core.agent.service.AgentService;
+import com.flowci.core.common.config.ConfigProperties;
+import com.flowci.core.common.manager.SpringEventManager;
+import com.flowci.core.common.rabbit.RabbitOperation;
+import com.flowci.core.job.domain.Job;
+import com.flowci.core.job.manager.AgentAffinityManager;
+import com.flowci.core.job.manager.JobScheduler;
+import com.flowci.core.job.service.JobService;
+import com.flowci.domain.Agent;
+import com.flowci.tree.Selector;
+import com.google.common.collect.ImmutableSet;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class JobSchedulerTest {
+
+    private final JobScheduler scheduler = new JobScheduler();
+
+    private final IdleAgentManager idleAgentManager = new IdleAgentManager();
+
+    private final AgentService agentService = Mockito.mock(AgentService.class);
+
+    private final JobService jobService = Mockito.mock(JobService.class);
+
+    private final List<String> dispatched = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void init() {
+        ConfigProperties.Job jobProperties = new ConfigProperties.Job();
+        jobProperties.setSchedulerEnabled(true);
+        jobProperties.setSchedulerWorkers(1);
+        jobProperties.setAffinityWaitSeconds(0L);
+
+        AgentAffinityManager agentAffinityManager = Mockito.mock(AgentAffinityManager.class);
+        Mockito.when(agentAffinityManager.getAgents(Mockito.anyString())).thenReturn(Collections.emptyList());
+        Mockito.when(agentService.tryLock(Mockito.any())).thenReturn(true);
+
+        ReflectionTestUtils.setField(scheduler, "jobProperties", jobProperties);
+        ReflectionTestUtils.setField(scheduler, "eventManager", Mockito.mock(SpringEventManager.class));
+        ReflectionTestUtils.setField(scheduler, "idleAgentManager", idleAgentManager);
+        ReflectionTestUtils.setField(scheduler, "agentAffinityManager", agentAffinityManager);
+        ReflectionTestUtils.setField(scheduler, "agentService", agentService);
+        ReflectionTestUtils.setField(scheduler, "jobService", jobService);
+    }
+
+    @After
+    public void close() {
+        scheduler.close();
+    }
+
+    @Test
+    public void should_dispatch_by_priority_then_submitted_order() {
+        RabbitOperation.Message low = submit(createJob("low", 1));
+        RabbitOperation.Message first = submit(createJob("first", 10));
+        RabbitOperation.Message second = submit(createJob("second", 10));
+        Assert.assertEquals(3, scheduler.size());
+
+        idleAgentManager.onStatusChange(createAgent("1"));
+        idleAgentManager.onStatusChange(createAgent("2"));
+        idleAgentManager.onStatusChange(createAgent("3"));
+
+        scheduler.start((job, agent) -> dispatched.add(job.getId()));
+
+        Mockito.verify(low, Mockito.timeout(5000)).sendAck();
+        Mockito.verify(first).sendAck();
+        Mockito.verify(second).sendAck();
+
+        Assert.assertEquals(0, scheduler.size());
+        Assert.assertEquals(3, dispatched.size());
+        Assert.assertEquals("first", dispatched.get(0));
+        Assert.assertEquals("second", dispatched.get(1));
+        Assert.assertEquals("low", dispatched.get(2));
+    }
+
+    @Test
+    public void should_release_agent_and_fail_job_when_dispatch_failed() {
+        Job job = createJob("1", 1);
+        Agent agent = createAgent("1");
+
+        scheduler.start((j, a) -> {
+            throw new IllegalStateException("agent not connected");
+        });
+
+        RabbitOperation.Message message = submit(job);
+        onIdle(agent);
+
+        Mockito.verify(message, Mockito.timeout(5000)).sendAck();
+        Mockito.verify(agentService).tryRelease(agent);
+        Mockito.verify(jobService).setJobStatusAndSave(job, Job.Status.FAILURE, "agent not connected");
+        Assert.assertNull(agent.getJobId());
+    }
+
+    @Test
+    public void should_timeout_pending_job_when_expired() {
+        scheduler.start((job, agent) -> dispatched.add(job.getId()));
+
+        Job expired = createJob("expired", 1);
+        Job waiting = createJob("waiting", 1);
+        Mockito.when(jobService.isExpired(expired)).thenReturn(true);
+
+        RabbitOperation.Message expiredMessage = submit(expired);
+        RabbitOperation.Message waitingMessage = submit(waiting);
+
+        scheduler.checkPending();
+
+        Mockito.verify(jobService).setJobStatusAndSave(expired, Job.Status.TIMEOUT, "expired while waiting for agent");
+        Mockito.verify(expiredMessage).sendAck();
+        Mockito.verify(waitingMessage, Mockito.never()).sendAck();
+        Assert.assertEquals(1, scheduler.size());
+        Assert.assertTrue(scheduler.hasPending(waiting.getQueueName()));
+        Assert.assertTrue(dispatched.isEmpty());
+    }
+
+    private void onIdle(Agent agent) {
+        idleAgentManager.onStatusChange(agent);
+        scheduler.onAgentStatusChange(new AgentStatusEvent(this, agent));
+    }
+
+    private RabbitOperation.Message submit(Job job) {
+        RabbitOperation.Message message = Mockito.mock(RabbitOperation.Message.class);
+        scheduler.submit(job, message);
+        return message;
+    }
+
+    private Job createJob(String id, int priority) {
+        Job job = new Job();
+        job.setId(id);
+        job.setKey("flow-" + id);
+        job.setFlowId("flow");
+        job.setPriority(priority);
+        job.setStatus(Job.Status.QUEUED);
+        job.setAgentSelector(new Selector());
+
+        Mockito.when(jobService.get(id)).thenReturn(job);
+        return job;
+    }
+
+    private static Agent createAgent(String id) {
+        Agent agent = new Agent("agent-" + id, ImmutableSet.of("linux"));
+        agent.setId(id);
+        agent.setStatus(Agent.Status.IDLE);
+        return agent;
+    }
+}
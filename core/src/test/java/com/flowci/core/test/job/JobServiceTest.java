@@ -418,7 +418,7 @@ public class JobServiceTest extends ZookeeperScenario {
         Assert.assertTrue(waitForStep2Sent.await(10, TimeUnit.SECONDS));
 
         // then: job should failure since script return false
-        Job executed = jobDao.findById(job.getId()).get();
+        Job executed = jobService.get(job.getId());
         List<ExecutedCmd> steps = stepService.list(executed);
 
         Assert.assertEquals(Status.RUNNING, executed.getStatus());
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flowci.core.test.job;
+
+import com.flowci.core.job.dao.JobDao;
+import com.flowci.core.job.domain.Job;
+import com.flowci.core.job.manager.JobStateManager;
+import com.flowci.core.test.SpringScenario;
+import com.flowci.domain.Agent;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Collections;
+
+public class JobStateManagerTest extends SpringScenario {
+
+    @Autowired
+    private JobDao jobDao;
+
+    @Autowired
+    private JobStateManager jobStateManager;
+
+    @Test
+    public void should_write_dirty_fields_only_when_flush() {
+        Job job = new Job();
+        job.setKey("hello-1");
+        job.setFlowId("hello");
+        job.setBuildNumber(1L);
+        job.setStatus(Job.Status.QUEUED);
+        job = jobDao.insert(job);
+
+        jobStateManager.start(job, Collections.emptyList(), new Agent());
+
+        // then: should return new instance for each get
+        Job running = jobStateManager.getJob(job.getId()).get();
+        Assert.assertNotSame(job, running);
+        Assert.assertNotSame(running, jobStateManager.getJob(job.getId()).get());
+        Assert.assertEquals(job, jobStateManager.getJobByKey(job.getKey()).get());
+
+        // when: status and context changed
+        running.setStatus(Job.Status.RUNNING);
+        running.setMessage("not dirty");
+        running.getContext().put("HELLO", "world");
+        jobStateManager.update(running, "status", "context");
+
+        // then: changed fields should be applied to state
+        Job updated = jobStateManager.getJob(job.getId()).get();
+        Assert.assertEquals(Job.Status.RUNNING, updated.getStatus());
+        Assert.assertEquals("world", updated.getContext().get("HELLO"));
+        Assert.assertNull(updated.getMessage());
+
+        // then: should be written after finish
+        jobStateManager.finish(job.getId());
+        Assert.assertFalse(jobStateManager.isTracked(job.getId()));
+
+        Job saved = jobDao.findById(job.getId()).get();
+        Assert.assertEquals(Job.Status.RUNNING, saved.getStatus());
+        Assert.assertEquals("world", saved.getContext().get("HELLO"));
+        Assert.assertNull(saved.getMessage());
+        Assert.assertNotNull(saved.getUpdatedAt());
+    }
+}
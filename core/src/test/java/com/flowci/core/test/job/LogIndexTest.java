@@ -0,0 +1,91 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.core.test.job;
+
+import com.flowci.core.job.domain.LogIndex;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class LogIndexTest {
+
+    @Test
+    public void should_index_line_offset_while_reading() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 25; i++) {
+            content.append("line ").append(i).append('\n');
+        }
+        byte[] bytes = content.toString().getBytes(StandardCharsets.UTF_8);
+
+        LogIndex.IndexingInputStream stream = new LogIndex.IndexingInputStream(new ByteArrayInputStream(bytes), 10);
+        byte[] read = StreamUtils.copyToByteArray(stream);
+        Assert.assertArrayEquals(bytes, read);
+
+        LogIndex index = LogIndex.decode(stream.getIndex().encode());
+        Assert.assertEquals(25, index.getNumOfLines());
+        Assert.assertEquals(bytes.length, index.getNumOfBytes());
+
+        // then: line 17 should be found from line 10
+        Assert.assertEquals(10, index.floorLine(17));
+        Assert.assertEquals(content.indexOf("line 10"), index.floorOffset(17));
+
+        // then: line after the end should be found from the last indexed line
+        Assert.assertEquals(20, index.floorLine(100));
+        Assert.assertEquals(content.indexOf("line 20"), index.floorOffset(100));
+
+        // then: lines before 17 should be read until line 20, and lines before 10 until line 10
+        Assert.assertEquals(content.indexOf("line 20"), index.ceilOffset(17));
+        Assert.assertEquals(content.indexOf("line 10"), index.ceilOffset(10));
+        Assert.assertEquals(bytes.length, index.ceilOffset(21));
+    }
+
+    @Test
+    public void should_count_last_line_without_new_line() throws IOException {
+        byte[] bytes = "a\nb\nc".getBytes(StandardCharsets.UTF_8);
+
+        LogIndex.IndexingInputStream stream = new LogIndex.IndexingInputStream(new ByteArrayInputStream(bytes), 2);
+        StreamUtils.drain(stream);
+
+        LogIndex index = stream.getIndex();
+        Assert.assertEquals(3, index.getNumOfLines());
+        Assert.assertEquals(4, index.floorOffset(2));
+    }
+
+    @Test
+    public void should_find_block_of_line_in_compressed_log() throws IOException {
+        LogIndex index = new LogIndex(10, 100);
+        index.addBlock(0);
+        index.addBlock(40);
+        index.addBlock(75);
+
+        LogIndex decoded = LogIndex.decode(index.encode());
+        Assert.assertTrue(decoded.isCompressed());
+        Assert.assertEquals(40, decoded.blockOffset(150));
+        Assert.assertEquals(100, decoded.blockStart(150));
+        Assert.assertEquals(75, decoded.blockOffset(1000));
+        Assert.assertEquals(200, decoded.blockStart(1000));
+
+        // then: last block should be read to the end
+        Assert.assertEquals(75, decoded.blockEnd(150));
+        Assert.assertEquals(-1, decoded.blockEnd(250));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.core.test.job;
+
+import com.flowci.core.job.manager.LogPushManager;
+import com.flowci.core.test.SpringScenario;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class LogPushManagerTest extends SpringScenario {
+
+    @MockBean
+    private SimpMessagingTemplate simpMessagingTemplate;
+
+    @Autowired
+    private LogPushManager logPushManager;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void should_push_lines_of_cmd_in_batch() {
+        logPushManager.onSubscribe(new SessionSubscribeEvent(this, subscribe("session-1", "sub-1", "cmd-1")));
+        Assert.assertTrue(logPushManager.hasSubscriber("cmd-1"));
+
+        logPushManager.push("cmd-1", "line 1");
+        logPushManager.push("cmd-1", "line 2");
+        logPushManager.push("cmd-1", "line 3");
+        logPushManager.flush();
+
+        // then: lines could be split by scheduled flush, but should be in order
+        ArgumentCaptor<Object> payload = ArgumentCaptor.forClass(Object.class);
+        Mockito.verify(simpMessagingTemplate, Mockito.atLeastOnce())
+                .convertAndSend(Mockito.eq("/topic/logs/cmd-1"), payload.capture());
+
+        List<String> lines = new ArrayList<>();
+        for (Object frame : payload.getAllValues()) {
+            lines.addAll((List<String>) frame);
+        }
+        Assert.assertEquals(Arrays.asList("line 1", "line 2", "line 3"), lines);
+
+        // then: lines should be dropped after disconnected
+        Message<byte[]> disconnect = MessageBuilder.createMessage(new byte[0],
+                StompHeaderAccessor.create(StompCommand.DISCONNECT).getMessageHeaders());
+        logPushManager.onDisconnect(new SessionDisconnectEvent(this, disconnect, "session-1", CloseStatus.NORMAL));
+        Assert.assertFalse(logPushManager.hasSubscriber("cmd-1"));
+        Assert.assertTrue(logPushManager.isDropped("cmd-1"));
+
+        logPushManager.push("cmd-1", "line 4");
+        logPushManager.flush();
+        Mockito.verifyNoMoreInteractions(simpMessagingTemplate);
+    }
+
+    private static Message<byte[]> subscribe(String sessionId, String subscriptionId, String cmdId) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination("/topic/logs/" + cmdId);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+}
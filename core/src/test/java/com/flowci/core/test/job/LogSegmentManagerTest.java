@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.core.test.job;
+
+import com.flowci.core.job.manager.LogSegmentManager;
+import com.flowci.core.test.SpringScenario;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class LogSegmentManagerTest extends SpringScenario {
+
+    private static final String CmdId = "segment-test-cmd";
+
+    @Autowired
+    private LogSegmentManager logSegmentManager;
+
+    @After
+    public void remove() {
+        logSegmentManager.remove(CmdId);
+    }
+
+    @Test
+    public void should_read_lines_across_segments() throws IOException {
+        // given: lines over multiple segments
+        for (int i = 0; i < 500; i++) {
+            logSegmentManager.append(CmdId, i, "line " + i);
+        }
+        Assert.assertTrue(logSegmentManager.exist(CmdId));
+        Assert.assertEquals(500, logSegmentManager.size(CmdId));
+
+        // when: read page at the middle
+        List<String> lines = logSegmentManager.read(CmdId, 95, 20);
+
+        // then:
+        Assert.assertEquals(20, lines.size());
+        Assert.assertEquals("line 95", lines.get(0));
+        Assert.assertEquals("line 114", lines.get(19));
+
+        // then: read tail
+        lines = logSegmentManager.read(CmdId, 490, 20);
+        Assert.assertEquals(10, lines.size());
+        Assert.assertEquals("line 499", lines.get(9));
+
+        // then: stream all lines in order
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(logSegmentManager.stream(CmdId), StandardCharsets.UTF_8))) {
+            List<String> all = reader.lines().collect(Collectors.toList());
+            Assert.assertEquals(500, all.size());
+            Assert.assertEquals("line 0", all.get(0));
+            Assert.assertEquals("line 499", all.get(499));
+        }
+    }
+
+    @Test
+    public void should_ignore_lines_after_uploaded() {
+        String cmdId = "segment-uploaded-cmd";
+        logSegmentManager.append(cmdId, 0, "line 0");
+        Assert.assertTrue(logSegmentManager.exist(cmdId));
+
+        // when:
+        logSegmentManager.uploaded(cmdId);
+        logSegmentManager.append(cmdId, 1, "line 1");
+        logSegmentManager.flush();
+
+        // then:
+        Assert.assertTrue(logSegmentManager.isUploaded(cmdId));
+        Assert.assertFalse(logSegmentManager.exist(cmdId));
+    }
+}
@@ -1,20 +1,30 @@
 package com.flowci.core.test.job;
 
+import com.flowci.core.job.domain.LogMatch;
+import com.flowci.core.job.domain.LogSearchResult;
 import com.flowci.core.job.service.LoggingService;
 import com.flowci.core.job.service.StepService;
 import com.flowci.core.test.SpringScenario;
 import com.flowci.domain.CmdId;
 import com.flowci.domain.ExecutedCmd;
 import com.flowci.store.FileManager;
+import com.flowci.store.Pathable;
 import com.flowci.util.StringHelper;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.core.io.Resource;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 
 public class LoggingServiceTest extends SpringScenario {
 
@@ -24,7 +34,7 @@ public class LoggingServiceTest extends SpringScenario {
     @MockBean
     private StepService stepService;
 
-    @Autowired
+    @SpyBean
     private FileManager fileManager;
 
     private String fileKey;
@@ -50,6 +60,89 @@ public class LoggingServiceTest extends SpringScenario {
         Assert.assertNotNull(resource);
     }
 
+    @Test
+    public void should_search_lines_from_step_log() throws IOException {
+        // init:
+        CmdId cmdId = new CmdId("jobid", "search");
+
+        ExecutedCmd dummy = new ExecutedCmd();
+        dummy.setId(cmdId.toString());
+        dummy.setFlowId("flowid");
+        dummy.setBuildNumber(1L);
+        Mockito.when(stepService.get(cmdId.toString())).thenReturn(dummy);
+
+        String content = "hello\nerror: first\nworld\nerror: second\n";
+        fileKey = loggingService.save(cmdId + ".log", new ByteArrayInputStream(content.getBytes()));
+
+        // when:
+        List<LogMatch> matches = new ArrayList<>();
+        LogSearchResult result = loggingService.search(Collections.singletonList(dummy), "error", 10, matches::add);
+
+        // then:
+        Assert.assertEquals(2, result.getNumOfMatches());
+        Assert.assertTrue(result.isCompleted());
+        Assert.assertEquals(2, matches.get(0).getLineNumber());
+        Assert.assertEquals("error: first", matches.get(0).getContent());
+        Assert.assertEquals(4, matches.get(1).getLineNumber());
+
+        // then: should be limited
+        Assert.assertEquals(1, loggingService.search(Collections.singletonList(dummy), "error", 1, m -> {}).getNumOfMatches());
+    }
+
+    @Test
+    public void should_read_uploaded_log_when_lines_received_after_upload() throws IOException {
+        // init:
+        CmdId cmdId = new CmdId("jobid", "late");
+
+        ExecutedCmd dummy = new ExecutedCmd();
+        dummy.setId(cmdId.toString());
+        dummy.setFlowId("flowid");
+        dummy.setBuildNumber(1L);
+        Mockito.when(stepService.get(cmdId.toString())).thenReturn(dummy);
+
+        String content = "line 1\nline 2\nline 3\n";
+        fileKey = loggingService.save(cmdId + ".log", new ByteArrayInputStream(content.getBytes()));
+
+        // when: line from logging queue received after uploaded
+        loggingService.handleLoggingItem(cmdId + "#STDOUT#3#line 3");
+
+        // then: should read from uploaded log
+        Page<String> page = loggingService.read(dummy, PageRequest.of(0, 10));
+        Assert.assertEquals(3, page.getTotalElements());
+        Assert.assertEquals("line 1", page.getContent().get(0));
+    }
+
+    @Test
+    public void should_read_live_segments_without_storage_lookup_before_upload() throws IOException {
+        // init:
+        CmdId cmdId = new CmdId("jobid", "running");
+
+        ExecutedCmd dummy = new ExecutedCmd();
+        dummy.setId(cmdId.toString());
+        dummy.setFlowId("flowid");
+        dummy.setBuildNumber(1L);
+        Mockito.when(stepService.get(cmdId.toString())).thenReturn(dummy);
+
+        // when: lines received from logging queue of running step
+        loggingService.handleLoggingItem(cmdId + "#STDOUT#1#line 1");
+        loggingService.handleLoggingItem(cmdId + "#STDOUT#2#line 2");
+
+        // then: should read from live segments without looking up uploaded log
+        for (int i = 0; i < 3; i++) {
+            Page<String> page = loggingService.read(dummy, PageRequest.of(0, 10));
+            Assert.assertEquals(2, page.getTotalElements());
+            Assert.assertEquals("line 1", page.getContent().get(0));
+        }
+        Mockito.verify(fileManager, Mockito.never()).read(Mockito.anyString(), Mockito.<Pathable>any());
+
+        // when: log uploaded
+        String content = "line 1\nline 2\nline 3\n";
+        fileKey = loggingService.save(cmdId + ".log", new ByteArrayInputStream(content.getBytes()));
+
+        // then: should read from uploaded log
+        Assert.assertEquals(3, loggingService.read(dummy, PageRequest.of(0, 10)).getTotalElements());
+    }
+
     @After
     public void remove() throws IOException {
         if (StringHelper.hasValue(fileKey)) {
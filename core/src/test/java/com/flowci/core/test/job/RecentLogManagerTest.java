@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.core.test.job;
+
+import com.flowci.core.common.config.ConfigProperties;
+import com.flowci.core.job.manager.RecentLogManager;
+import com.flowci.core.test.SpringScenario;
+import com.google.common.base.Strings;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class RecentLogManagerTest extends SpringScenario {
+
+    @Autowired
+    private ConfigProperties.Job jobProperties;
+
+    @Autowired
+    private RecentLogManager recentLogManager;
+
+    @Test
+    public void should_keep_recent_lines_of_cmd() {
+        recentLogManager.add("cmd-1", "line 1");
+        recentLogManager.add("cmd-1", "line 2");
+        Assert.assertEquals(Arrays.asList("line 1", "line 2"), recentLogManager.get("cmd-1"));
+        Assert.assertTrue(recentLogManager.get("cmd-not-exist").isEmpty());
+
+        // when: more lines than max num of lines
+        int max = jobProperties.getLogRecentLines();
+        for (int i = 0; i < max + 10; i++) {
+            recentLogManager.add("cmd-2", "line " + i);
+        }
+
+        // then: the oldest lines should be removed
+        List<String> lines = recentLogManager.get("cmd-2");
+        Assert.assertEquals(max, lines.size());
+        Assert.assertEquals("line 10", lines.get(0));
+        Assert.assertEquals("line " + (max + 9), lines.get(max - 1));
+    }
+
+    @Test
+    public void should_evict_finished_cmd_when_over_memory_limit() {
+        String large = Strings.repeat("x", 10240);
+        long max = jobProperties.getLogRecentMaxBytes();
+
+        for (int i = 0; i < 10; i++) {
+            recentLogManager.add("cmd-1", large);
+        }
+        recentLogManager.add("cmd-2", "line 1");
+        recentLogManager.finish("cmd-1");
+
+        // when: add large lines to exceed max bytes
+        while (recentLogManager.get("cmd-1").size() > 0) {
+            recentLogManager.add("cmd-3", large);
+        }
+
+        // then: finished cmd evicted, lines of running cmd are kept
+        Assert.assertTrue(recentLogManager.getNumOfBytes() <= max);
+        Assert.assertEquals(1, recentLogManager.get("cmd-2").size());
+        Assert.assertTrue(recentLogManager.get("cmd-3").size() > 0);
+
+        // when: keep adding to running cmd
+        for (int i = 0; i < 100; i++) {
+            recentLogManager.add("cmd-3", large);
+        }
+
+        // then: the oldest lines of least recently used running cmd should be removed
+        Assert.assertTrue(recentLogManager.getNumOfBytes() <= max);
+        Assert.assertTrue(recentLogManager.get("cmd-2").isEmpty());
+        Assert.assertTrue(recentLogManager.get("cmd-3").size() > 0);
+    }
+
+    @Test
+    public void should_keep_lines_received_after_finished_as_finished() {
+        String large = Strings.repeat("x", 10240);
+        long max = jobProperties.getLogRecentMaxBytes();
+
+        recentLogManager.add("cmd-2", "line 1");
+        recentLogManager.finish("cmd-1");
+
+        // when: lines of cmd-1 received after finished
+        for (int i = 0; i < 10; i++) {
+            recentLogManager.add("cmd-1", large);
+        }
+        Assert.assertEquals(10, recentLogManager.get("cmd-1").size());
+
+        while (recentLogManager.get("cmd-1").size() > 0) {
+            recentLogManager.add("cmd-3", large);
+        }
+
+        // then: cmd-1 evicted as finished, lines of running cmd are kept
+        Assert.assertTrue(recentLogManager.getNumOfBytes() <= max);
+        Assert.assertEquals(1, recentLogManager.get("cmd-2").size());
+    }
+
+    @After
+    public void remove() {
+        recentLogManager.remove("cmd-1");
+        recentLogManager.remove("cmd-2");
+        recentLogManager.remove("cmd-3");
+    }
+}
@@ -59,6 +59,14 @@ public class CmdIn extends CmdBase {
     @NonNull
     private Set<String> envFilters = Collections.emptySet();
 
+    /**
+     * Shell cmds for BATCH type
+     * - outputs of cmd should be merged to inputs of following cmds
+     * - following cmds should be skipped without result if cmd failed and failure not allowed
+     */
+    @NonNull
+    private List<CmdIn> cmds = new LinkedList<>();
+
     public CmdIn(String id, CmdType type) {
         setId(id);
         this.type = type;
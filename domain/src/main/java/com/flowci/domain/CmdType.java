@@ -26,6 +26,11 @@ public enum CmdType {
      */
     SHELL,
 
+    /**
+     * Execute shell cmds in order, each cmd report its own result
+     */
+    BATCH,
+
     /**
      * Kill running shell
      */
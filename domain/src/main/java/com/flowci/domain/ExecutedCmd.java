@@ -170,4 +170,9 @@ public class ExecutedCmd extends CmdBase {
     public boolean isPending() {
         return status == PENDING;
     }
+
+    @JsonIgnore
+    public boolean isFinished() {
+        return status.getLevel() >= SUCCESS.getLevel();
+    }
 }
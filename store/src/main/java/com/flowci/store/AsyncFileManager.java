@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.store;
+
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking view of file manager, instance created on @see com.flowci.core.common.config.StorageConfig
+ *
+ * - blocking calls of the file manager are run on the given bounded executor
+ * - futures are completed with the original exception, or RejectedExecutionException if executor is full
+ * - stream returned from read is opened on the executor, and should be consumed and closed by caller
+ */
+public class AsyncFileManager {
+
+    private final FileManager fileManager;
+
+    private final Executor executor;
+
+    private final AtomicLong submitted = new AtomicLong();
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong inFlight = new AtomicLong();
+
+    public AsyncFileManager(FileManager fileManager, Executor executor) {
+        this.fileManager = fileManager;
+        this.executor = executor;
+    }
+
+    public FileManager getFileManager() {
+        return fileManager;
+    }
+
+    public CompletableFuture<String> save(String fileName, InputStream data, Pathable... objs) {
+        return submit(() -> fileManager.save(fileName, data, objs));
+    }
+
+    public CompletableFuture<String> save(String fileName, InputStream data, long size, Pathable... objs) {
+        return submit(() -> fileManager.save(fileName, data, size, objs));
+    }
+
+    public CompletableFuture<InputStream> read(String fileName, Pathable... objs) {
+        return submit(() -> fileManager.read(fileName, objs));
+    }
+
+    public CompletableFuture<InputStream> read(String fileName, long offset, long length, Pathable... objs) {
+        return submit(() -> fileManager.read(fileName, offset, length, objs));
+    }
+
+    public CompletableFuture<FileContent> getContent(String fileName, Pathable... objs) {
+        return submit(() -> fileManager.getContent(fileName, objs));
+    }
+
+    public CompletableFuture<String> remove(String fileName, Pathable... objs) {
+        return submit(() -> fileManager.remove(fileName, objs));
+    }
+
+    public CompletableFuture<Boolean> exist(Pathable... objs) {
+        return submit(() -> fileManager.exist(objs));
+    }
+
+    public CompletableFuture<Boolean> exist(String fileName, Pathable... objs) {
+        return submit(() -> fileManager.exist(fileName, objs));
+    }
+
+    /**
+     * Run blocking storage work, such as saving a file and its record, on the I/O executor
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        submitted.incrementAndGet();
+
+        try {
+            executor.execute(() -> {
+                inFlight.incrementAndGet();
+                try {
+                    T result = task.call();
+                    completed.incrementAndGet();
+                    inFlight.decrementAndGet();
+                    future.complete(result);
+                } catch (Throwable e) {
+                    failed.incrementAndGet();
+                    inFlight.decrementAndGet();
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getInFlight() {
+        return inFlight.get();
+    }
+}
@@ -0,0 +1,436 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.store;
+
+import com.flowci.util.FileHelper;
+import com.flowci.util.HashingHelper;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * File manager with local disk cache in front of remote storage,
+ * instance created on @see com.flowci.core.common.config.StorageConfig
+ *
+ * - objects are downloaded to cache dir once read, and evicted in least recently used order over max bytes
+ * - objects larger than max object bytes are streamed from remote storage without caching
+ * - concurrent reads of the same object share one download
+ * - existence of object and directory is cached for ttl, cached objects are existed
+ * - cached object and existence are updated on save and remove from this instance
+ */
+public class CachingFileManager implements FileManager {
+
+    private static final String Separator = "/";
+
+    private static final int MaxRetries = 3;
+
+    private final FileManager delegate;
+
+    private final Path cacheDir;
+
+    private final long maxBytes;
+
+    private final long maxObjectBytes;
+
+    private final long metaTtlInMillis;
+
+    // key as object name, value as file size, in access order for lru eviction
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long numOfBytes = 0;
+
+    // key as object or directory name
+    private final Map<String, Meta> metas = new ConcurrentHashMap<>();
+
+    // key as object name
+    private final Map<String, Loading> loadings = new ConcurrentHashMap<>();
+
+    public CachingFileManager(FileManager delegate, Path cacheDir, long maxBytes, long maxObjectBytes,
+                              long metaTtlInSeconds) throws IOException {
+        this.delegate = delegate;
+        this.cacheDir = cacheDir;
+        this.maxBytes = maxBytes;
+        this.maxObjectBytes = Math.min(maxObjectBytes, maxBytes);
+        this.metaTtlInMillis = metaTtlInSeconds * 1000;
+
+        // objects cached by last run could be changed
+        FileHelper.createDirectory(cacheDir);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(cacheDir)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Override
+    public String create(Pathable... objs) throws IOException {
+        String path = delegate.create(objs);
+        metas.put(getName(objs), new Meta(true));
+        return path;
+    }
+
+    @Override
+    public String save(String fileName, InputStream data, Pathable... objs) throws IOException {
+        String name = getName(objs) + fileName;
+        String path = delegate.save(fileName, data, objs);
+
+        invalidate(name);
+        metas.put(name, new Meta(true));
+        return path;
+    }
+
+    @Override
+    public String save(String fileName, InputStream data, long size, Pathable... objs) throws IOException {
+        String name = getName(objs) + fileName;
+        String path = delegate.save(fileName, data, size, objs);
+
+        invalidate(name);
+        metas.put(name, new Meta(true));
+        return path;
+    }
+
+    @Override
+    public InputStream read(String fileName, Pathable... objs) throws IOException {
+        String name = getName(objs) + fileName;
+
+        InputStream cached = open(name);
+        if (cached != null) {
+            return cached;
+        }
+
+        // not to wait for downloading large object
+        FileContent content = delegate.getContent(fileName, objs);
+        if (!content.hasLength() || content.getLength() > maxObjectBytes) {
+            return content.read();
+        }
+
+        for (int i = 0; i < MaxRetries; i++) {
+            load(name, fileName, objs);
+
+            cached = open(name);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        // evicted or changed right after loaded
+        return delegate.read(fileName, objs);
+    }
+
+    @Override
+    public InputStream read(String fileName, long offset, long length, Pathable... objs) throws IOException {
+        String name = getName(objs) + fileName;
+
+        synchronized (entries) {
+            if (entries.containsKey(name)) {
+                FileChannel channel = FileChannel.open(getFile(name), StandardOpenOption.READ);
+                channel.position(offset);
+
+                InputStream stream = Channels.newInputStream(channel);
+                return length < 0 ? stream : new LimitedInputStream(stream, length);
+            }
+        }
+
+        // not to download whole object for range
+        return delegate.read(fileName, offset, length, objs);
+    }
+
+    /**
+     * Content of cached object is read from cached file, the file could be evicted so it's not exposed for zero-copy
+     */
+    @Override
+    public FileContent getContent(String fileName, Pathable... objs) throws IOException {
+        String name = getName(objs) + fileName;
+
+        synchronized (entries) {
+            Long size = entries.get(name);
+            if (size != null) {
+                return new FileContent(size, (offset, length) -> read(fileName, offset, length, objs));
+            }
+        }
+
+        return delegate.getContent(fileName, objs);
+    }
+
+    @Override
+    public String move(String fileName, Pathable[] from, String newFileName, Pathable[] to) throws IOException {
+        String source = getName(from) + fileName;
+        String target = getName(to) + newFileName;
+        String path = delegate.move(fileName, from, newFileName, to);
+
+        invalidate(source);
+        metas.put(source, new Meta(false));
+
+        invalidate(target);
+        metas.put(target, new Meta(true));
+        return path;
+    }
+
+    @Override
+    public String remove(String fileName, Pathable... objs) throws IOException {
+        String name = getName(objs) + fileName;
+        String path = delegate.remove(fileName, objs);
+
+        invalidate(name);
+        metas.put(name, new Meta(false));
+        return path;
+    }
+
+    @Override
+    public String remove(String filePath) throws IOException {
+        String path = delegate.remove(filePath);
+        String normalized = filePath.replace('\\', '/');
+
+        for (Map.Entry<String, Loading> entry : loadings.entrySet()) {
+            if (normalized.endsWith(entry.getKey())) {
+                entry.getValue().stale = true;
+            }
+        }
+
+        synchronized (entries) {
+            Iterator<Map.Entry<String, Long>> iter = entries.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry<String, Long> entry = iter.next();
+                if (normalized.endsWith(entry.getKey())) {
+                    iter.remove();
+                    numOfBytes -= entry.getValue();
+                    evict(entry.getKey());
+                }
+            }
+        }
+
+        metas.keySet().removeIf(normalized::endsWith);
+        return path;
+    }
+
+    @Override
+    public boolean exist(Pathable... objs) {
+        String name = getName(objs);
+
+        Meta meta = metas.get(name);
+        if (meta != null && !meta.isExpired()) {
+            return meta.exist;
+        }
+
+        boolean exist = delegate.exist(objs);
+        metas.put(name, new Meta(exist));
+        return exist;
+    }
+
+    @Override
+    public boolean exist(String fileName, Pathable... objs) {
+        String name = getName(objs) + fileName;
+
+        synchronized (entries) {
+            if (entries.containsKey(name)) {
+                return true;
+            }
+        }
+
+        Meta meta = metas.get(name);
+        if (meta != null && !meta.isExpired()) {
+            return meta.exist;
+        }
+
+        boolean exist = delegate.exist(fileName, objs);
+        metas.put(name, new Meta(exist));
+        return exist;
+    }
+
+    /**
+     * Num of bytes of cached objects
+     */
+    public long getNumOfBytes() {
+        synchronized (entries) {
+            return numOfBytes;
+        }
+    }
+
+    /**
+     * Open cached object, cached file will not be evicted while opening
+     *
+     * @return null if not cached
+     */
+    private InputStream open(String name) throws IOException {
+        synchronized (entries) {
+            if (!entries.containsKey(name)) {
+                return null;
+            }
+
+            try {
+                return new FileInputStream(getFile(name).toFile());
+            } catch (FileNotFoundException e) {
+                removeEntry(name);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Download object to cache dir, or wait for the download started by other thread
+     */
+    private void load(String name, String fileName, Pathable... objs) throws IOException {
+        Loading loading = new Loading();
+        Loading existing = loadings.putIfAbsent(name, loading);
+
+        if (existing != null) {
+            await(existing.future);
+            return;
+        }
+
+        Path tmp = null;
+
+        try {
+            tmp = Files.createTempFile(cacheDir, "loading-", ".tmp");
+
+            try (InputStream stream = delegate.read(fileName, objs)) {
+                Files.copy(stream, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            synchronized (entries) {
+                // not to cache if object saved or removed while downloading, or over max bytes
+                if (!loading.stale && Files.size(tmp) <= maxBytes) {
+                    Files.move(tmp, getFile(name), StandardCopyOption.REPLACE_EXISTING);
+                    put(name, Files.size(getFile(name)));
+                }
+            }
+
+            loading.future.complete(null);
+        } catch (Throwable e) {
+            // waiters should not be blocked by any failure
+            loading.future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loadings.remove(name, loading);
+
+            if (tmp != null) {
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    private void invalidate(String name) {
+        Loading loading = loadings.get(name);
+        if (loading != null) {
+            loading.stale = true;
+        }
+
+        metas.remove(name);
+
+        synchronized (entries) {
+            removeEntry(name);
+        }
+    }
+
+    private void put(String name, long size) {
+        removeEntry(name);
+
+        entries.put(name, size);
+        numOfBytes += size;
+
+        Iterator<Map.Entry<String, Long>> iter = entries.entrySet().iterator();
+        while (numOfBytes > maxBytes) {
+            Map.Entry<String, Long> eldest = iter.next();
+            iter.remove();
+            numOfBytes -= eldest.getValue();
+            evict(eldest.getKey());
+        }
+    }
+
+    private void removeEntry(String name) {
+        Long size = entries.remove(name);
+        if (size != null) {
+            numOfBytes -= size;
+            evict(name);
+        }
+    }
+
+    /**
+     * Delete cached file, opened streams can still read the file
+     */
+    private void evict(String name) {
+        try {
+            Files.deleteIfExists(getFile(name));
+        } catch (IOException ignore) {
+
+        }
+    }
+
+    private Path getFile(String name) {
+        return cacheDir.resolve(HashingHelper.md5(name));
+    }
+
+    private static void await(CompletableFuture<Void> loading) throws IOException {
+        try {
+            loading.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for download");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    private static String getName(Pathable... objs) {
+        StringBuilder builder = new StringBuilder();
+        for (Pathable item : objs) {
+            builder.append(item.pathName()).append(Separator);
+        }
+        return builder.toString();
+    }
+
+    private static class Loading {
+
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private volatile boolean stale = false;
+    }
+
+    private class Meta {
+
+        private final boolean exist;
+
+        private final long expireAt;
+
+        Meta(boolean exist) {
+            this.exist = exist;
+            this.expireAt = System.currentTimeMillis() + metaTtlInMillis;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() > expireAt;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.store;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Content of stored file with length, could be read from offset for ranged download
+ */
+public class FileContent {
+
+    public static final long UnknownLength = -1;
+
+    public static final long UnknownLastModified = 0;
+
+    @FunctionalInterface
+    public interface Reader {
+
+        /**
+         * Read from offset, up to length of bytes or to the end if length is negative
+         */
+        InputStream read(long offset, long length) throws IOException;
+    }
+
+    private final long length;
+
+    private final Path file;
+
+    private final long lastModified;
+
+    private final String etag;
+
+    private final Reader reader;
+
+    public FileContent(long length, Reader reader) {
+        this(length, null, reader);
+    }
+
+    public FileContent(long length, Path file, Reader reader) {
+        this(length, file, UnknownLastModified, null, reader);
+    }
+
+    public FileContent(long length, Path file, long lastModified, String etag, Reader reader) {
+        this.length = length;
+        this.file = file;
+        this.lastModified = lastModified;
+        this.etag = etag;
+        this.reader = reader;
+    }
+
+    /**
+     * Num of bytes, or UnknownLength if content is still growing
+     */
+    public long getLength() {
+        return length;
+    }
+
+    public boolean hasLength() {
+        return length != UnknownLength;
+    }
+
+    /**
+     * Local file of content which could be transferred by zero-copy, null if content is not on local disk
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Last modified time in millis, or UnknownLastModified
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Strong entity tag without quotes, changed once content changed, null if unknown
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    public InputStream read() throws IOException {
+        return reader.read(0, length);
+    }
+
+    public InputStream read(long offset, long length) throws IOException {
+        return reader.read(offset, length);
+    }
+}
@@ -31,11 +31,31 @@ public interface FileManager {
      */
     String save(String fileName, InputStream data, Pathable... objs) throws IOException;
 
+    /**
+     * Save file with known size to storage, and return the file path
+     */
+    String save(String fileName, InputStream data, long size, Pathable... objs) throws IOException;
+
     /**
      * Read file content
      */
     InputStream read(String fileName, Pathable... objs) throws IOException;
 
+    /**
+     * Read content of file from offset, up to length of bytes, or to the end if length is negative
+     */
+    InputStream read(String fileName, long offset, long length, Pathable... objs) throws IOException;
+
+    /**
+     * Get content of file with length, for ranged read
+     */
+    FileContent getContent(String fileName, Pathable... objs) throws IOException;
+
+    /**
+     * Move file to new file name of target path, the existing target file will be replaced
+     */
+    String move(String fileName, Pathable[] from, String newFileName, Pathable[] to) throws IOException;
+
     /**
      * Remove file
      */
@@ -21,10 +21,13 @@ import com.flowci.util.FileHelper;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Local file system storage manager,
@@ -69,16 +72,46 @@ public class LocalFileManager implements FileManager {
         return filePath.toString();
     }
 
+    @Override
+    public String save(String fileName, InputStream data, long size, Pathable... objs) throws IOException {
+        return save(fileName, data, objs);
+    }
+
     @Override
     public InputStream read(String fileName, Pathable... objs) throws IOException {
-        Path dir = connect(base, objs);
-        Path target = Paths.get(dir.toString(), fileName);
+        Path target = getFile(fileName, objs);
+        return new FileInputStream(target.toFile());
+    }
 
-        if (!Files.exists(target)) {
-            throw new IOException("File not found");
+    @Override
+    public InputStream read(String fileName, long offset, long length, Pathable... objs) throws IOException {
+        Path target = getFile(fileName, objs);
+        return read(target, offset, length);
+    }
+
+    @Override
+    public FileContent getContent(String fileName, Pathable... objs) throws IOException {
+        Path target = getFile(fileName, objs);
+        long size = Files.size(target);
+        long lastModified = Files.getLastModifiedTime(target).toMillis();
+
+        String etag = Long.toHexString(size) + "-" + Long.toHexString(lastModified);
+        return new FileContent(size, target, lastModified, etag, (offset, length) -> read(target, offset, length));
+    }
+
+    @Override
+    public String move(String fileName, Pathable[] from, String newFileName, Pathable[] to) throws IOException {
+        Path source = getFile(fileName, from);
+
+        Path dir = connect(base, to);
+        if (!Files.exists(dir)) {
+            create(to);
         }
 
-        return new FileInputStream(target.toFile());
+        // renamed atomically, readers never see partial file
+        Path target = Paths.get(dir.toString(), newFileName);
+        Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return target.toString();
     }
 
     @Override
@@ -96,6 +129,25 @@ public class LocalFileManager implements FileManager {
         return filePath;
     }
 
+    private static InputStream read(Path target, long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(target, StandardOpenOption.READ);
+        channel.position(offset);
+
+        InputStream stream = Channels.newInputStream(channel);
+        return length < 0 ? stream : new LimitedInputStream(stream, length);
+    }
+
+    private Path getFile(String fileName, Pathable... objs) throws IOException {
+        Path dir = connect(base, objs);
+        Path target = Paths.get(dir.toString(), fileName);
+
+        if (!Files.exists(target)) {
+            throw new IOException("File not found");
+        }
+
+        return target;
+    }
+
     private static Path connect(Path base, Pathable... objs) {
         Path path = base;
 
@@ -17,25 +17,57 @@
 package com.flowci.store;
 
 import io.minio.MinioClient;
+import io.minio.ObjectStat;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Semaphore;
 
 /**
  * Minio storage manager,
  * instance created on @see com.flowci.core.common.config.StorageConfig
+ *
+ * Stream is uploaded with known size, the client uploads it part by part and buffers one part in memory,
+ * num of concurrent stream uploads is limited to bound memory of part buffers.
+ * Stream without size larger than one part is spooled to temp file, since the client buffers
+ * up to 5GB / 10000 for each part if size is unknown
  */
 public class MinioFileManager implements FileManager {
 
     private static final String Separator = "/";
 
+    // min part size of multipart upload, object smaller than it is uploaded in one request
+    private static final int PartSize = 5 * 1024 * 1024;
+
+    private static final int DefaultMaxUploads = 16;
+
     private final String bucket;
 
     private final MinioClient minioClient;
 
+    private final Semaphore uploads;
+
+    // bucket is checked and created on first write
+    private volatile boolean bucketReady = false;
+
     public MinioFileManager(MinioClient minioClient, String bucket) {
+        this(minioClient, bucket, DefaultMaxUploads);
+    }
+
+    /**
+     * @param maxUploads max num of concurrent stream uploads
+     */
+    public MinioFileManager(MinioClient minioClient, String bucket, int maxUploads) {
         this.minioClient = minioClient;
         this.bucket = bucket;
+        this.uploads = new Semaphore(maxUploads, true);
     }
 
     /**
@@ -57,10 +89,7 @@ public class MinioFileManager implements FileManager {
     @Override
     public boolean exist(Pathable... objs) {
         try {
-            if (!minioClient.bucketExists(bucket)) {
-                return false;
-            }
-
+            // stat object throws exception if bucket not existed
             String objectName = getObjectName(objs);
             minioClient.statObject(bucket, objectName);
             return true;
@@ -72,10 +101,6 @@ public class MinioFileManager implements FileManager {
     @Override
     public boolean exist(String fileName, Pathable... objs) {
         try {
-            if (!minioClient.bucketExists(bucket)) {
-                return false;
-            }
-
             String objectName = getObjectName(objs) + fileName;
             minioClient.statObject(bucket, objectName);
             return true;
@@ -86,21 +111,105 @@ public class MinioFileManager implements FileManager {
 
     @Override
     public String save(String fileName, InputStream data, Pathable... objs) throws IOException {
+        String objectName = getObjectName(objs) + fileName;
+        Path tmp;
+
+        acquireUpload();
+        try {
+            byte[] head = readFully(data, PartSize);
+            if (head.length < PartSize) {
+                return putObject(objectName, new ByteArrayInputStream(head), head.length);
+            }
+
+            tmp = Files.createTempFile("minio-", ".upload");
+            Files.write(tmp, head);
+        } finally {
+            uploads.release();
+        }
+
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp, StandardOpenOption.APPEND)) {
+                copy(data, out);
+            }
+            return putObject(objectName, tmp);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Override
+    public String save(String fileName, InputStream data, long size, Pathable... objs) throws IOException {
+        String objectName = getObjectName(objs) + fileName;
+
+        acquireUpload();
+        try {
+            return putObject(objectName, data, size);
+        } finally {
+            uploads.release();
+        }
+    }
+
+    @Override
+    public InputStream read(String fileName, Pathable... objs) throws IOException {
         try {
-            String bucketName = initBucket();
             String objectName = getObjectName(objs) + fileName;
-            minioClient.putObject(bucketName, objectName, data, null, null, null, null);
-            return bucketName + Separator + objectName;
+            return minioClient.getObject(bucket, objectName);
         } catch (Exception e) {
             throw new IOException(e.getMessage());
         }
     }
 
     @Override
-    public InputStream read(String fileName, Pathable... objs) throws IOException {
+    public InputStream read(String fileName, long offset, long length, Pathable... objs) throws IOException {
         try {
             String objectName = getObjectName(objs) + fileName;
-            return minioClient.getObject(bucket, objectName);
+            if (length < 0) {
+                return minioClient.getObject(bucket, objectName, offset);
+            }
+            return minioClient.getObject(bucket, objectName, offset, length);
+        } catch (Exception e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    @Override
+    public FileContent getContent(String fileName, Pathable... objs) throws IOException {
+        try {
+            String objectName = getObjectName(objs) + fileName;
+            ObjectStat stat = minioClient.statObject(bucket, objectName);
+            long length = stat.length();
+            long lastModified = stat.createdTime() == null ? FileContent.UnknownLastModified : stat.createdTime().getTime();
+            String etag = stat.etag() == null ? null : stat.etag().replace("\"", "");
+
+            return new FileContent(length, null, lastModified, etag, (offset, size) -> {
+                long numOfBytes = size < 0 ? length - offset : size;
+                if (numOfBytes <= 0) {
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+
+                try {
+                    return minioClient.getObject(bucket, objectName, offset, numOfBytes);
+                } catch (Exception e) {
+                    throw new IOException(e.getMessage());
+                }
+            });
+        } catch (Exception e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Copied on server side, then the source object removed
+     */
+    @Override
+    public String move(String fileName, Pathable[] from, String newFileName, Pathable[] to) throws IOException {
+        try {
+            String source = getObjectName(from) + fileName;
+            String target = getObjectName(to) + newFileName;
+
+            minioClient.copyObject(bucket, source, bucket, target);
+            minioClient.removeObject(bucket, source);
+            return bucket + Separator + target;
         } catch (Exception e) {
             throw new IOException(e.getMessage());
         }
@@ -127,13 +236,77 @@ public class MinioFileManager implements FileManager {
         }
     }
 
+    private String putObject(String objectName, InputStream data, long size) throws IOException {
+        try {
+            String bucketName = initBucket();
+            minioClient.putObject(bucketName, objectName, data, size, null, null, null);
+            return bucketName + Separator + objectName;
+        } catch (Exception e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Upload from file, the client reads parts from file without buffering
+     */
+    private String putObject(String objectName, Path file) throws IOException {
+        try {
+            String bucketName = initBucket();
+            minioClient.putObject(bucketName, objectName, file.toString());
+            return bucketName + Separator + objectName;
+        } catch (Exception e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    private void acquireUpload() throws IOException {
+        try {
+            uploads.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for upload");
+        }
+    }
+
     private String initBucket() throws Exception {
+        if (bucketReady) {
+            return bucket;
+        }
+
         if (!minioClient.bucketExists(bucket)) {
             minioClient.makeBucket(bucket);
         }
+
+        bucketReady = true;
         return bucket;
     }
 
+    /**
+     * Read up to max bytes, less than max only if the end of stream reached
+     */
+    private static byte[] readFully(InputStream data, int max) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+        byte[] buffer = new byte[8192];
+
+        while (out.size() < max) {
+            int n = data.read(buffer, 0, Math.min(buffer.length, max - out.size()));
+            if (n < 0) {
+                break;
+            }
+            out.write(buffer, 0, n);
+        }
+
+        return out.toByteArray();
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+    }
+
     private static String getObjectName(Pathable... objs) {
         StringBuilder builder = new StringBuilder();
         for (Pathable item : objs) {
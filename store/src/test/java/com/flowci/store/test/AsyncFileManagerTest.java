@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.store.test;
+
+import com.flowci.store.AsyncFileManager;
+import com.flowci.store.LocalFileManager;
+import com.flowci.store.Pathable;
+import com.flowci.util.StringHelper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class AsyncFileManagerTest {
+
+    private final Pathable flow = () -> "flowid-test";
+
+    private final Pathable job = () -> "10";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ThreadPoolExecutor executor;
+
+    private AsyncFileManager fileManager;
+
+    @Before
+    public void init() {
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1));
+        fileManager = new AsyncFileManager(new LocalFileManager(folder.getRoot().toPath()), executor);
+    }
+
+    @After
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void should_save_and_read_async() throws Exception {
+        InputStream data = StringHelper.toInputStream("my-test-log");
+
+        String path = fileManager.save("test.log", data, flow, job).get();
+        Assert.assertNotNull(path);
+        Assert.assertTrue(fileManager.exist("test.log", flow, job).get());
+
+        try (InputStream read = fileManager.read("test.log", flow, job).get()) {
+            Assert.assertEquals("my-test-log", StringHelper.toString(read));
+        }
+
+        fileManager.remove("test.log", flow, job).get();
+        Assert.assertFalse(fileManager.exist("test.log", flow, job).get());
+
+        Assert.assertEquals(5, fileManager.getSubmitted());
+        Assert.assertEquals(5, fileManager.getCompleted());
+        Assert.assertEquals(0, fileManager.getInFlight());
+    }
+
+    @Test
+    public void should_complete_with_original_exception() throws Exception {
+        CompletableFuture<InputStream> future = fileManager.read("not-existed.log", flow, job);
+
+        try {
+            future.get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+
+        Assert.assertEquals(1, fileManager.getFailed());
+    }
+
+    @Test
+    public void should_reject_when_executor_is_full() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+
+        // when: one running and one queued
+        CompletableFuture<Boolean> running = fileManager.submit(() -> latch.await(10, TimeUnit.SECONDS));
+        CompletableFuture<Boolean> queued = fileManager.submit(() -> true);
+
+        // then: next one should be rejected
+        CompletableFuture<Boolean> rejected = fileManager.exist(flow);
+        Assert.assertTrue(rejected.isCompletedExceptionally());
+        Assert.assertEquals(1, fileManager.getRejected());
+
+        try {
+            rejected.get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+
+        latch.countDown();
+        Assert.assertTrue(running.get());
+        Assert.assertTrue(queued.get());
+    }
+}
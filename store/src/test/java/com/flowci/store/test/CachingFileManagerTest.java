@@ -0,0 +1,195 @@
+/*
+ * Copyright 2020 flow.ci
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.flowci.store.test;
+
+import com.flowci.store.CachingFileManager;
+import com.flowci.store.LocalFileManager;
+import com.flowci.store.Pathable;
+import com.flowci.util.StringHelper;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CachingFileManagerTest {
+
+    private final Pathable flow = () -> "flowid-test";
+
+    private final Pathable logDir = () -> "logs";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CountingFileManager remote;
+
+    private Path cacheDir;
+
+    private CachingFileManager fileManager;
+
+    @Before
+    public void init() throws IOException {
+        remote = new CountingFileManager(folder.newFolder("remote").toPath());
+        cacheDir = folder.newFolder("cache").toPath();
+        fileManager = new CachingFileManager(remote, cacheDir, 10, 8, 60);
+    }
+
+    @Test
+    public void should_read_from_cache() throws IOException {
+        fileManager.save("a.log", StringHelper.toInputStream("aaaaaa"), flow, logDir);
+
+        Assert.assertEquals("aaaaaa", read("a.log"));
+        Assert.assertEquals("aaaaaa", read("a.log"));
+        Assert.assertEquals(1, remote.numOfReads.get());
+
+        // then: range should be read from cached file
+        InputStream range = fileManager.read("a.log", 2, 2, flow, logDir);
+        Assert.assertEquals("aa", StringHelper.toString(range));
+        Assert.assertEquals(1, remote.numOfReads.get());
+
+        // when: save new content
+        fileManager.save("a.log", StringHelper.toInputStream("bbbbbb"), flow, logDir);
+
+        // then: should read new content
+        Assert.assertEquals("bbbbbb", read("a.log"));
+        Assert.assertEquals(2, remote.numOfReads.get());
+    }
+
+    @Test
+    public void should_evict_least_recently_used_object() throws IOException {
+        fileManager.save("a.log", StringHelper.toInputStream("aaaaaa"), flow, logDir);
+        fileManager.save("b.log", StringHelper.toInputStream("bbbbbb"), flow, logDir);
+
+        read("a.log");
+        read("b.log");
+        Assert.assertEquals(6, fileManager.getNumOfBytes());
+
+        // then: a.log should be evicted since over max bytes
+        read("a.log");
+        Assert.assertEquals(3, remote.numOfReads.get());
+    }
+
+    @Test
+    public void should_load_once_for_concurrent_reads() throws Exception {
+        fileManager.save("a.log", StringHelper.toInputStream("aaaaaa"), flow, logDir);
+        remote.delayInMillis = 500;
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<String>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 4; i++) {
+            futures.add(executor.submit(() -> read("a.log")));
+        }
+
+        for (Future<String> future : futures) {
+            Assert.assertEquals("aaaaaa", future.get());
+        }
+
+        executor.shutdown();
+        Assert.assertEquals(1, remote.numOfReads.get());
+    }
+
+    @Test
+    public void should_stream_large_object_without_caching() throws IOException {
+        remote.save("a.log", StringHelper.toInputStream("aaaaaaaaa"), flow, logDir);
+
+        Assert.assertEquals("aaaaaaaaa", read("a.log"));
+        Assert.assertEquals("aaaaaaaaa", read("a.log"));
+        Assert.assertEquals(0, fileManager.getNumOfBytes());
+    }
+
+    @Test
+    public void should_not_block_reads_when_loading_failed() throws IOException {
+        fileManager.save("a.log", StringHelper.toInputStream("aaaaaa"), flow, logDir);
+
+        // when: temp file cannot be created in cache dir
+        Files.delete(cacheDir);
+
+        try {
+            read("a.log");
+            Assert.fail();
+        } catch (IOException ignore) {
+
+        }
+
+        // then: should load again
+        Files.createDirectories(cacheDir);
+        Assert.assertEquals("aaaaaa", read("a.log"));
+        Assert.assertEquals(6, fileManager.getNumOfBytes());
+    }
+
+    @Test
+    public void should_cache_existence() throws IOException {
+        Assert.assertFalse(fileManager.exist("a.log", flow, logDir));
+
+        // when: saved by other instance
+        remote.save("a.log", StringHelper.toInputStream("aaaaaa"), flow, logDir);
+
+        // then: not existed until ttl
+        Assert.assertFalse(fileManager.exist("a.log", flow, logDir));
+
+        // when: saved by the instance
+        fileManager.save("a.log", StringHelper.toInputStream("aaaaaa"), flow, logDir);
+        Assert.assertTrue(fileManager.exist("a.log", flow, logDir));
+
+        // when: removed by the instance
+        fileManager.remove("a.log", flow, logDir);
+        Assert.assertFalse(fileManager.exist("a.log", flow, logDir));
+    }
+
+    private String read(String fileName) throws IOException {
+        try (InputStream stream = fileManager.read(fileName, flow, logDir)) {
+            return StringHelper.toString(stream);
+        }
+    }
+
+    private static class CountingFileManager extends LocalFileManager {
+
+        private final AtomicInteger numOfReads = new AtomicInteger(0);
+
+        private volatile long delayInMillis = 0;
+
+        CountingFileManager(Path base) {
+            super(base);
+        }
+
+        @Override
+        public InputStream read(String fileName, Pathable... objs) throws IOException {
+            numOfReads.incrementAndGet();
+
+            try {
+                Thread.sleep(delayInMillis);
+            } catch (InterruptedException ignore) {
+
+            }
+
+            return super.read(fileName, objs);
+        }
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.flowci.store.test;
 
+import com.flowci.store.FileContent;
 import com.flowci.store.FileManager;
 import com.flowci.store.LocalFileManager;
 import com.flowci.store.Pathable;
@@ -77,6 +78,43 @@ public class LocalFileManagerTest {
         Assert.assertFalse(exist);
     }
 
+    @Test
+    public void should_read_range_of_object() throws IOException {
+        final String fileName = "range.log";
+        final Pathable[] dir = {flow, job, logDir};
+
+        fileManager.save(fileName, StringHelper.toInputStream("0123456789"), 10, dir);
+
+        InputStream range = fileManager.read(fileName, 2, 5, dir);
+        Assert.assertEquals("23456", StringHelper.toString(range));
+
+        // then: should read to the end if length over file size
+        range = fileManager.read(fileName, 8, 100, dir);
+        Assert.assertEquals("89", StringHelper.toString(range));
+
+        // then: content should have length and local file
+        FileContent content = fileManager.getContent(fileName, dir);
+        Assert.assertEquals(10, content.getLength());
+        Assert.assertNotNull(content.getFile());
+        Assert.assertEquals("789", StringHelper.toString(content.read(7, -1)));
+    }
+
+    @Test
+    public void should_move_object_and_replace_existing() throws IOException {
+        final Pathable uploads = () -> "uploads";
+        final Pathable[] dir = {flow, job, logDir};
+
+        fileManager.save("target.log", StringHelper.toInputStream("old"), dir);
+        fileManager.save("upload.log", StringHelper.toInputStream("new"), uploads);
+
+        // when:
+        fileManager.move("upload.log", new Pathable[]{uploads}, "target.log", dir);
+
+        // then: source removed and target replaced
+        Assert.assertFalse(fileManager.exist("upload.log", uploads));
+        Assert.assertEquals("new", StringHelper.toString(fileManager.read("target.log", dir)));
+    }
+
     @Test(expected = IOException.class)
     public void should_throw_exception_if_not_found() throws IOException {
         fileManager.read("hello", flow, job, logDir);
@@ -27,8 +27,10 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 public class MinioFileManagerTest {
 
@@ -75,6 +77,35 @@ public class MinioFileManagerTest {
         Assert.assertFalse(exist);
     }
 
+    @Test
+    public void should_read_range_of_object() throws IOException {
+        final String fileName = "range.log";
+        final Pathable[] dir = {flow, job, logDir};
+
+        fileManager.save(fileName, StringHelper.toInputStream("0123456789"), 10, dir);
+
+        InputStream range = fileManager.read(fileName, 2, 5, dir);
+        Assert.assertEquals("23456", StringHelper.toString(range));
+
+        fileManager.remove(fileName, dir);
+    }
+
+    @Test
+    public void should_save_large_object_without_size() throws IOException {
+        final String fileName = "large.log";
+        final Pathable[] dir = {flow, job, logDir};
+
+        // more than one part of 5mb
+        byte[] content = new byte[6 * 1024 * 1024];
+        Arrays.fill(content, (byte) 'a');
+        fileManager.save(fileName, new ByteArrayInputStream(content), dir);
+
+        InputStream range = fileManager.read(fileName, content.length - 2, 2, dir);
+        Assert.assertEquals("aa", StringHelper.toString(range));
+
+        fileManager.remove(fileName, dir);
+    }
+
     @Test(expected = IOException.class)
     public void should_throw_exception_if_not_found() throws IOException {
         fileManager.read("hello", flow, job, logDir);
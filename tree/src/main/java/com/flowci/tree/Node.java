@@ -21,6 +21,7 @@ import com.flowci.domain.StringVars;
 import com.google.common.base.Strings;
 import java.io.Serializable;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
@@ -83,6 +84,12 @@ public class Node implements Serializable {
      */
     private Set<String> exports = new HashSet<>(0);
 
+    /**
+     * Names of steps which should be finished before this step,
+     * steps will be executed as DAG if it's defined in any step
+     */
+    private Set<String> needs = new LinkedHashSet<>(0);
+
     /**
      * Is allow failure
      */
@@ -124,6 +131,11 @@ public class Node implements Serializable {
         return exports != null && !exports.isEmpty();
     }
 
+    @JsonIgnore
+    public boolean hasNeeds() {
+        return needs != null && !needs.isEmpty();
+    }
+
     @JsonIgnore
     public boolean hasCron() {
         return !Strings.isNullOrEmpty(cron);
@@ -18,12 +18,15 @@ package com.flowci.tree;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import lombok.Getter;
 
 /**
@@ -45,9 +48,19 @@ public class NodeTree {
     @Getter
     private final List<Node> ordered = new ArrayList<>(DEFAULT_SIZE);
 
+    // key as regular node path, value as paths of nodes it needs
+    private final Map<NodePath, Set<NodePath>> needs = new HashMap<>(DEFAULT_SIZE);
+
     @Getter
     private Node root;
 
+    /**
+     * Regular nodes will be executed as DAG if 'needs' defined in any node,
+     * final nodes are always executed in order after all regular nodes
+     */
+    @Getter
+    private boolean parallel;
+
     public NodeTree(Node root) {
         this.root = root;
 
@@ -56,6 +69,7 @@ public class NodeTree {
 
         moveFinalNodes();
         buildCacheWithIndex();
+        buildNeeds();
     }
 
     public boolean isFirst(NodePath path) {
@@ -128,6 +142,40 @@ public class NodeTree {
         return null;
     }
 
+    /**
+     * Get regular nodes which are not finished and all needed nodes are finished
+     *
+     * @param finished paths of finished nodes
+     */
+    public List<Node> frontier(Collection<NodePath> finished) {
+        List<Node> runnable = new LinkedList<>();
+
+        for (Node node : ordered) {
+            if (node.isTail() || finished.contains(node.getPath())) {
+                continue;
+            }
+
+            if (finished.containsAll(needs.get(node.getPath()))) {
+                runnable.add(node);
+            }
+        }
+
+        return runnable;
+    }
+
+    /**
+     * Get first final node, or null if no final node
+     */
+    public Node firstFinal() {
+        for (Node node : ordered) {
+            if (node.isTail()) {
+                return node;
+            }
+        }
+
+        return null;
+    }
+
     /**
      * Get parent Node instance from path
      */
@@ -184,6 +232,38 @@ public class NodeTree {
         cached.put(root.getPath(), new NodeWithIndex(root, -1));
     }
 
+    /**
+     * Build needs of regular nodes, node needs the previous one if not in parallel
+     */
+    private void buildNeeds() {
+        for (Node node : ordered) {
+            if (node.hasNeeds()) {
+                parallel = true;
+                break;
+            }
+        }
+
+        Node prev = null;
+        for (Node node : ordered) {
+            if (node.isTail()) {
+                continue;
+            }
+
+            Set<NodePath> paths = new LinkedHashSet<>();
+
+            if (parallel) {
+                for (String name : node.getNeeds()) {
+                    paths.add(NodePath.create(node.getParent().getPath(), name));
+                }
+            } else if (prev != null) {
+                paths.add(prev.getPath());
+            }
+
+            needs.put(node.getPath(), paths);
+            prev = node;
+        }
+    }
+
     /**
      * Reset node path and parent reference and put to cache
      */
@@ -47,6 +47,7 @@ public class YmlParser {
         .put("plugin", 7)
         .put("before", 8)
         .put("script", 9)
+        .put("needs", 10)
         .put("steps", 11)
         .build();
 
@@ -85,12 +86,38 @@ public class YmlParser {
                 }
             }
 
-            return root.toNode(0);
+            Node node = root.toNode(0);
+            verifyNeeds(node);
+            return node;
         } catch (YAMLException e) {
             throw new YmlException(e.getMessage());
         }
     }
 
+    /**
+     * Steps in 'needs' must be defined before the step and cannot be final step,
+     * which makes sure the steps can be executed in defined order
+     */
+    private static void verifyNeeds(Node root) {
+        Set<String> defined = new HashSet<>(root.getChildren().size());
+
+        for (Node step : root.getChildren()) {
+            if (step.isTail() && step.hasNeeds()) {
+                throw new YmlException("The 'needs' cannot be defined in final step {0}", step.getName());
+            }
+
+            for (String name : step.getNeeds()) {
+                if (!defined.contains(name)) {
+                    throw new YmlException("The step {0} in 'needs' of {1} must be defined before", name, step.getName());
+                }
+            }
+
+            if (!step.isTail()) {
+                defined.add(step.getName());
+            }
+        }
+    }
+
     public static synchronized String parse(Node root) {
         FlowNode flow = new FlowNode(root);
         Yaml yaml = YamlHelper.create(FieldsOrder, FlowNode.class);
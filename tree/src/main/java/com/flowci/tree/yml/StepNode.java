@@ -43,6 +43,8 @@ public class StepNode extends YmlNode {
 
     private List<String> exports = new LinkedList<>();
 
+    private List<String> needs = new LinkedList<>();
+
     private Boolean allow_failure = false;
 
     private Boolean tail = false;
@@ -52,6 +54,7 @@ public class StepNode extends YmlNode {
         setEnvs(node.getEnvironments());
         setScript(node.getScript());
         setPlugin(node.getPlugin());
+        setNeeds(new LinkedList<>(node.getNeeds()));
         setAllow_failure(node.isAllowFailure() == Node.ALLOW_FAILURE_DEFAULT ? null : node.isAllowFailure());
         setTail(node.isTail() == Node.IS_TAIL_DEFAULT ? null : node.isTail());
     }
@@ -64,6 +67,9 @@ public class StepNode extends YmlNode {
         node.setScript(script);
         node.setPlugin(plugin);
         node.setExports(Sets.newHashSet(exports));
+        if (needs != null) {
+            node.setNeeds(Sets.newLinkedHashSet(needs));
+        }
         node.setAllowFailure(allow_failure);
         node.setTail(tail);
         node.setEnvironments(getVariableMap());
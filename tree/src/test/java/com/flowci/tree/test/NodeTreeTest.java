@@ -25,6 +25,7 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.List;
 import org.junit.Assert;
 import org.junit.Before;
@@ -73,4 +74,49 @@ public class NodeTreeTest {
         nextFinalNode = tree.nextFinal(NodePath.create("root/step3"));
         Assert.assertNull(nextFinalNode);
     }
+
+    @Test
+    public void should_get_frontier_of_nodes_with_needs() throws IOException {
+        URL resource = getClass().getClassLoader().getResource("flow-with-needs.yml");
+        String content = Files.toString(new File(resource.getFile()), Charset.forName("UTF-8"));
+        NodeTree tree = NodeTree.create(YmlParser.load("default", content));
+        Assert.assertTrue(tree.isParallel());
+
+        // then: nodes without needs should be runnable at beginning
+        List<NodePath> finished = new ArrayList<>();
+        List<Node> frontier = tree.frontier(finished);
+        Assert.assertEquals(2, frontier.size());
+        Assert.assertEquals("build", frontier.get(0).getName());
+        Assert.assertEquals("lint", frontier.get(1).getName());
+
+        // when: build finished
+        finished.add(NodePath.create("root/build"));
+        frontier = tree.frontier(finished);
+
+        // then: tests should be runnable in parallel
+        Assert.assertEquals(3, frontier.size());
+        Assert.assertEquals("unit-test", frontier.get(0).getName());
+        Assert.assertEquals("api-test", frontier.get(1).getName());
+
+        // when: one of test finished
+        finished.add(NodePath.create("root/unit-test"));
+        frontier = tree.frontier(finished);
+        Assert.assertFalse(frontier.stream().anyMatch(node -> node.getName().equals("deploy")));
+
+        // when: all regular nodes finished, then: frontier should be empty and final node should not be included
+        finished.add(NodePath.create("root/api-test"));
+        finished.add(NodePath.create("root/lint"));
+        finished.add(NodePath.create("root/deploy"));
+        Assert.assertTrue(tree.frontier(finished).isEmpty());
+        Assert.assertEquals("clean", tree.firstFinal().getName());
+    }
+
+    @Test
+    public void should_get_linear_frontier_without_needs() {
+        Assert.assertFalse(tree.isParallel());
+
+        List<Node> frontier = tree.frontier(new ArrayList<>());
+        Assert.assertEquals(1, frontier.size());
+        Assert.assertEquals("step-1", frontier.get(0).getName());
+    }
 }
@@ -122,6 +122,34 @@ public class YmlParserTest {
         Assert.assertEquals(2, first.getExports().size());
     }
 
+    @Test
+    public void should_parse_yml_with_needs() throws IOException {
+        content = loadContent("flow-with-needs.yml");
+        Node root = YmlParser.load("default", content);
+
+        Node deploy = root.getChildren().get(4);
+        Assert.assertEquals("deploy", deploy.getName());
+        Assert.assertEquals(2, deploy.getNeeds().size());
+        Assert.assertTrue(deploy.getNeeds().contains("unit-test"));
+
+        // then: needs should be kept after parsed to yml
+        Node parsed = YmlParser.load("default", YmlParser.parse(root));
+        Assert.assertEquals(deploy.getNeeds(), parsed.getChildren().get(4).getNeeds());
+    }
+
+    @Test(expected = YmlException.class)
+    public void should_yml_exception_if_needs_step_defined_after() {
+        content = "steps:\n"
+                + "- name: test\n"
+                + "  needs:\n"
+                + "  - build\n"
+                + "  script: echo test\n"
+                + "- name: build\n"
+                + "  script: echo build\n";
+
+        YmlParser.load("root", content);
+    }
+
     private String loadContent(String resource) throws IOException {
         ClassLoader classLoader = YmlParserTest.class.getClassLoader();
         URL url = classLoader.getResource(resource);